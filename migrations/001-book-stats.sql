@@ -0,0 +1,19 @@
+-- maintain a per-book rating aggregate instead of averaging the reviews table for every listed book
+
+alter table reviews add index(book_id);
+
+create table book_stats (
+    book_id int not null,
+    num_ratings int not null default 0,
+    star_sum int not null default 0,
+    avg_rating int,
+    foreign key(book_id) references books(id),
+    primary key(book_id)
+) CHARACTER SET utf8, engine = innodb;
+
+-- backfill the aggregate from the existing reviews (zero-star "did not finish" reviews are not counted)
+insert into book_stats (book_id, num_ratings, star_sum, avg_rating)
+select book_id, count(*), sum(num_stars), round(avg(num_stars))
+from reviews
+where num_stars > 0
+group by book_id;
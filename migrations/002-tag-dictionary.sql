@@ -0,0 +1,30 @@
+-- replace the repeated tag strings in the tags table with a dictionary of tag names and an
+-- integer join table, so tags no longer have to be concatenated and split for every book
+
+create table tag_names (
+    id int not null auto_increment,
+    name varchar(255) not null unique,
+    primary key(id)
+) CHARACTER SET utf8, engine = innodb;
+
+create table book_tags (
+    book_id int not null,
+    tag_id int not null,
+    foreign key(book_id) references books(id),
+    foreign key(tag_id) references tag_names(id),
+    primary key(book_id, tag_id),
+    index(tag_id, book_id)
+) CHARACTER SET utf8, engine = innodb;
+
+-- copy the existing tags (tags that differ only by case or surrounding spaces become one tag)
+insert ignore into tag_names (name)
+select distinct trim(tag)
+from tags
+where tag is not null and trim(tag) <> '';
+
+insert ignore into book_tags (book_id, tag_id)
+select t.book_id, n.id
+from tags t
+inner join tag_names n on n.name = trim(t.tag);
+
+drop table tags;
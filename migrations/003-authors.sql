@@ -0,0 +1,44 @@
+-- give authors their own table (with a precomputed "Last, First" sort key) and link books to
+-- all of their authors, in order; the author columns in books are kept as a display copy
+
+create table authors (
+    id int not null auto_increment,
+    name varchar(255) not null unique,
+    sort_name varchar(255) not null,
+    primary key(id),
+    index(sort_name)
+) CHARACTER SET utf8, engine = innodb;
+
+create table book_authors (
+    book_id int not null,
+    position int not null,
+    author_id int not null,
+    foreign key(book_id) references books(id),
+    foreign key(author_id) references authors(id),
+    primary key(book_id, position),
+    unique(book_id, author_id),
+    index(author_id, book_id)
+) CHARACTER SET utf8, engine = innodb;
+
+-- collect every name from the three author columns
+-- (the sort key matches AuthorInfo.sortName(): the last word, a comma, then the rest of the name)
+insert ignore into authors (name, sort_name)
+select name,
+       case when locate(' ', name) = 0 then name
+            else concat(substring_index(name, ' ', -1), ', ', left(name, char_length(name) - char_length(substring_index(name, ' ', -1)) - 1))
+       end
+from (
+    select trim(author) as name from books where author is not null and trim(author) <> ''
+    union select trim(author2) from books where author2 is not null and trim(author2) <> ''
+    union select trim(author3) from books where author3 is not null and trim(author3) <> ''
+) as names;
+
+-- link each book to its authors
+insert ignore into book_authors (book_id, position, author_id)
+select b.id, 1, au.id from books b inner join authors au on au.name = trim(b.author);
+
+insert ignore into book_authors (book_id, position, author_id)
+select b.id, 2, au.id from books b inner join authors au on au.name = trim(b.author2);
+
+insert ignore into book_authors (book_id, position, author_id)
+select b.id, 3, au.id from books b inner join authors au on au.name = trim(b.author3);
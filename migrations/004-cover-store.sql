@@ -0,0 +1,9 @@
+-- cover image bytes move out of the database into the content-addressed cover store (see CoverStore);
+-- the database keeps the image's hash, size and dimensions.  Once these columns exist, run
+-- tools.CoverMigrator to move the existing images, then run 005-drop-cover-bits.sql.
+
+alter table cover_images
+    add column sha256 char(64) after mime_type,
+    add column size int after sha256,
+    add column width int after size,
+    add column height int after width;
@@ -0,0 +1,3 @@
+-- run this after tools.CoverMigrator has moved every cover image into the cover store
+
+alter table cover_images drop column bits;
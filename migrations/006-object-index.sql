@@ -0,0 +1,13 @@
+-- a copy of the object store's list of keys, so pages and tools don't have to list the whole bucket
+-- (see ObjectIndex).  The table fills itself the first time it's used.
+
+create table object_index (
+    object_key varchar(255) not null,
+    size bigint not null,
+    etag varchar(64),
+    last_modified datetime,
+    asset_type varchar(16),
+    indexed_at datetime not null,
+    primary key(object_key),
+    index(asset_type, object_key)
+) CHARACTER SET utf8, engine = innodb ;
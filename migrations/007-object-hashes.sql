@@ -0,0 +1,5 @@
+-- the SHA-256 hash of each object's content, so an upload of a file that's already in the store
+-- (under any name) can be skipped.  Hashes are recorded as objects are uploaded; run tools.ObjectHasher
+-- to hash the objects that were already in the store.
+
+alter table object_index add column sha256 char(64) after etag, add index(sha256);
@@ -0,0 +1,11 @@
+-- a log of which books have changed, written by every process that changes books (the web
+-- application and the command-line tools), so the web application's in-memory catalog can pick
+-- up changes made by other processes (see Catalog).  Old rows are deleted by the catalog.
+
+create table book_changes (
+    id bigint not null auto_increment,
+    book_id int not null,
+    changed_at timestamp not null default current_timestamp,
+    primary key(id),
+    index(changed_at)
+) CHARACTER SET utf8, engine = innodb;
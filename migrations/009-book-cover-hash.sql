@@ -0,0 +1,6 @@
+-- each book keeps the hash of its current cover, so reading a book doesn't have to look for its
+-- newest cover in cover_images (LibraryDAO keeps it up to date when covers are written)
+
+alter table books add column cover_sha256 char(64) after asin;
+
+update books a set a.cover_sha256 = (select c.sha256 from cover_images c where c.book_id = a.id and c.sha256 is not null order by c.id desc limit 1);
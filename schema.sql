@@ -25,27 +25,70 @@ create table books (
     mobi_object_key varchar(255) unique,
     audiobook_object_key varchar(255) unique,
     asin varchar(64),
+    cover_sha256 char(64),
     primary key(id),
     index(epub_object_key),
     index(audiobook_object_key)
 ) CHARACTER SET utf8, engine = innodb ;
 
+create table authors (
+    id int not null auto_increment,
+    name varchar(255) not null unique,
+    sort_name varchar(255) not null,
+    primary key(id),
+    index(sort_name)
+) CHARACTER SET utf8, engine = innodb ;
+
+create table book_authors (
+    book_id int not null,
+    position int not null,
+    author_id int not null,
+    FOREIGN KEY(book_id) REFERENCES books(id),
+    FOREIGN KEY(author_id) REFERENCES authors(id),
+    primary key(book_id, position),
+    unique(book_id, author_id),
+    index(author_id, book_id)
+) CHARACTER SET utf8, engine = innodb ;
+
 create table cover_images (
     id int not null auto_increment,
     book_id int not null,
     filename varchar(255),
     mime_type varchar(255),
-    bits mediumblob,
+    sha256 char(64),
+    size int,
+    width int,
+    height int,
     FOREIGN KEY(book_id) REFERENCES books(id),
     primary key(id)
 ) CHARACTER SET utf8, engine = innodb ;
 
-create table tags (
+create table tag_names (
     id int not null auto_increment,
+    name varchar(255) not null unique,
+    primary key(id)
+) CHARACTER SET utf8, engine = innodb ;
+
+create table book_tags (
     book_id int not null,
-    tag varchar(255),
+    tag_id int not null,
     FOREIGN KEY(book_id) REFERENCES books(id),
-    primary key(id)
+    FOREIGN KEY(tag_id) REFERENCES tag_names(id),
+    primary key(book_id, tag_id),
+    index(tag_id, book_id)
+) CHARACTER SET utf8, engine = innodb ;
+
+create table object_index (
+    object_key varchar(255) not null,
+    size bigint not null,
+    etag varchar(64),
+    sha256 char(64),
+    last_modified datetime,
+    asset_type varchar(16),
+    indexed_at datetime not null,
+    primary key(object_key),
+    index(asset_type, object_key),
+    index(sha256)
 ) CHARACTER SET utf8, engine = innodb ;
 
 create table password_reset_tokens (
@@ -69,9 +112,27 @@ create table reviews (
     create_date datetime default now(),
     modify_date datetime,
     foreign key(user_id) references users(id),
-    primary key(user_id, book_id)
+    primary key(user_id, book_id),
+    index(book_id)
+) CHARACTER SET utf8, engine = innodb;
+
+create table book_stats (
+    book_id int not null,
+    num_ratings int not null default 0,
+    star_sum int not null default 0,
+    avg_rating int,
+    foreign key(book_id) references books(id),
+    primary key(book_id)
 ) CHARACTER SET utf8, engine = innodb;
 
+create table book_changes (
+    id bigint not null auto_increment,
+    book_id int not null,
+    changed_at timestamp not null default current_timestamp,
+    primary key(id),
+    index(changed_at)
+) CHARACTER SET utf8, engine = innodb ;
+
 create table amazon (
     id int not null auto_increment,
     sample_time timestamp not null default current_timestamp,
@@ -0,0 +1,264 @@
+package org.themullers.library;
+
+import org.springframework.stereotype.Service;
+import org.themullers.library.db.LibraryDAO;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * The information shown on the "authors" page: each author's name, the number of books they
+ * wrote (or co-wrote), and the tags used on those books, grouped by the first letter of either
+ * the author's first name or last name.
+ *
+ * The directory is built from the catalog the first time it's needed.  After that, each change
+ * to a book adjusts the counts for just that book's authors and regroups just the letters those
+ * authors are listed under, so rendering the page never has to aggregate the whole library.
+ * Authors are ordered by last name using the sort keys kept in the authors table.
+ */
+@Service
+public class AuthorDirectory implements Catalog.Listener {
+
+    Catalog catalog;
+    LibraryDAO dao;
+
+    // the authors' sort keys, from the authors table
+    Map<String, String> sortNames = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    // the snapshot that the directory currently reflects (null until the directory is built)
+    volatile CatalogSnapshot snapshot;
+
+    // every author, looked up by name, and sorted by first and last name
+    Map<String, Entry> entries = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    TreeSet<Entry> entriesByFirst = new TreeSet<>(Entry.BY_FIRST);
+    TreeSet<Entry> entriesByLast = new TreeSet<>(Entry.BY_LAST);
+
+    // the letter-grouped lists, replaced (never modified) when an author changes
+    volatile Map<String, List<AuthorInfo>> byFirstName = Map.of();
+    volatile Map<String, List<AuthorInfo>> byLastName = Map.of();
+
+    public AuthorDirectory(Catalog catalog, LibraryDAO dao) {
+        this.catalog = catalog;
+        this.dao = dao;
+        catalog.addListener(this);
+    }
+
+    /**
+     * Get the authors grouped by the first letter of their names.
+     * @return  a map of letter to the authors listed under that letter, both in alphabetical order
+     */
+    public Map<String, List<AuthorInfo>> byFirstName() {
+        ensureBuilt();
+        return byFirstName;
+    }
+
+    /**
+     * Get the authors grouped by the first letter of their last names.
+     * @return  a map of letter to the authors listed under that letter, both in alphabetical order by last name
+     */
+    public Map<String, List<AuthorInfo>> byLastName() {
+        ensureBuilt();
+        return byLastName;
+    }
+
+    /**
+     * Update the counts and tags for the authors of a book that changed.
+     * @param snapshot  the new snapshot
+     * @param before  the book before the change (null if the book was just added)
+     * @param after  the book after the change (null if the book was deleted)
+     */
+    @Override
+    public synchronized void catalogChanged(CatalogSnapshot snapshot, Book before, Book after) {
+
+        // if the directory hasn't been built yet, it will reflect this change when it is
+        if (this.snapshot == null || snapshot.getVersion() <= this.snapshot.getVersion()) {
+            return;
+        }
+
+        // if we missed a version (or the whole catalog was reloaded), we can't apply just this change; start over
+        if (snapshot.getVersion() != this.snapshot.getVersion() + 1 || (before == null && after == null)) {
+            build(snapshot);
+            return;
+        }
+
+        // adjust the entries for the book's old and new authors, noting which letters they're listed under
+        var firstLetters = new HashSet<String>();
+        var lastLetters = new HashSet<String>();
+        if (before != null) {
+            for (var name : authorsOf(before)) {
+                var entry = entries.get(name);
+                if (entry != null) {
+                    firstLetters.add(entry.firstLetter());
+                    lastLetters.add(entry.lastLetter());
+                    entry.remove(before);
+                    if (entry.numTitles == 0) {
+                        entries.remove(name);
+                        entriesByFirst.remove(entry);
+                        entriesByLast.remove(entry);
+                    }
+                }
+            }
+        }
+        if (after != null) {
+            for (var name : authorsOf(after)) {
+                var entry = add(name, after);
+                firstLetters.add(entry.firstLetter());
+                lastLetters.add(entry.lastLetter());
+            }
+        }
+
+        // regroup only the letters that were affected
+        byFirstName = regroup(byFirstName, firstLetters, entriesByFirst, Entry::firstLetter);
+        byLastName = regroup(byLastName, lastLetters, entriesByLast, Entry::lastLetter);
+        this.snapshot = snapshot;
+    }
+
+    // HELPER METHODS
+
+    // build the directory from the catalog if that hasn't been done yet
+    protected void ensureBuilt() {
+        if (snapshot == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    build(catalog.snapshot());
+                }
+            }
+        }
+    }
+
+    // build the directory from all the books in a snapshot
+    protected synchronized void build(CatalogSnapshot snapshot) {
+        entries.clear();
+        entriesByFirst.clear();
+        entriesByLast.clear();
+        sortNames = dao.fetchAuthorSortNames();
+        for (var book : snapshot.fetchAllBooks()) {
+            for (var name : authorsOf(book)) {
+                add(name, book);
+            }
+        }
+        byFirstName = group(entriesByFirst, Entry::firstLetter);
+        byLastName = group(entriesByLast, Entry::lastLetter);
+        this.snapshot = snapshot;
+    }
+
+    // count a book for one of its authors
+    protected Entry add(String name, Book book) {
+        var entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry(name, sortName(name));
+            entries.put(name, entry);
+            entriesByFirst.add(entry);
+            entriesByLast.add(entry);
+        }
+        entry.add(book);
+        return entry;
+    }
+
+    // get an author's sort key from the authors table (an author added since the directory was built is looked up then)
+    protected String sortName(String name) {
+        return sortNames.computeIfAbsent(name, n -> {
+            var sortName = dao.fetchAuthorSortName(n);
+            return sortName != null ? sortName : AuthorInfo.sortName(n);
+        });
+    }
+
+    // get a book's distinct authors
+    protected static Set<String> authorsOf(Book book) {
+        var names = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        for (var author : new String[] { book.getAuthor(), book.getAuthor2(), book.getAuthor3() }) {
+            if (!Utils.isBlank(author)) {
+                names.add(author.trim());
+            }
+        }
+        return names;
+    }
+
+    // group all the authors (already in order) by letter
+    protected static Map<String, List<AuthorInfo>> group(Collection<Entry> sortedEntries, Function<Entry, String> letter) {
+        var map = new TreeMap<String, List<AuthorInfo>>();
+        for (var entry : sortedEntries) {
+            map.computeIfAbsent(letter.apply(entry), k -> new ArrayList<>()).add(entry.toAuthorInfo());
+        }
+        map.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        return Collections.unmodifiableMap(map);
+    }
+
+    // make a copy of a grouped map with some of the letters regrouped
+    protected static Map<String, List<AuthorInfo>> regroup(Map<String, List<AuthorInfo>> current, Set<String> letters, NavigableSet<Entry> sortedEntries, Function<Entry, String> letter) {
+        var map = new TreeMap<>(current);
+        for (var l : letters) {
+
+            // skip straight to the first entry that could be listed under this letter, and stop at the next letter
+            var list = new ArrayList<AuthorInfo>();
+            for (var entry : sortedEntries.tailSet(Entry.probe(l), true)) {
+                if (!letter.apply(entry).equals(l)) {
+                    break;
+                }
+                list.add(entry.toAuthorInfo());
+            }
+
+            if (list.isEmpty()) {
+                map.remove(l);
+            }
+            else {
+                map.put(l, Collections.unmodifiableList(list));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * An author's running totals.  The name and sort name never change, so an entry can be
+     * kept in sorted collections while its counts are adjusted.
+     */
+    protected static class Entry {
+
+        // orders entries by name, or by last name (then by full name, so different authors never compare as equal)
+        static final Comparator<Entry> BY_FIRST = Comparator.comparing((Entry e) -> e.name, String.CASE_INSENSITIVE_ORDER);
+        static final Comparator<Entry> BY_LAST = Comparator.comparing((Entry e) -> e.sortName, String.CASE_INSENSITIVE_ORDER).thenComparing(e -> e.name, String.CASE_INSENSITIVE_ORDER);
+
+        final String name;
+        final String sortName;
+        int numTitles;
+        Map<String, Integer> tagCounts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        Entry(String name, String sortName) {
+            this.name = name;
+            this.sortName = sortName;
+        }
+
+        // an entry that sorts (by name or by last name) before every author listed under a letter
+        static Entry probe(String letter) {
+            return new Entry(letter, letter);
+        }
+
+        void add(Book book) {
+            numTitles++;
+            for (var tag : book.getTags()) {
+                tagCounts.merge(tag, 1, Integer::sum);
+            }
+        }
+
+        void remove(Book book) {
+            numTitles--;
+            for (var tag : book.getTags()) {
+                if (tagCounts.merge(tag, -1, Integer::sum) <= 0) {
+                    tagCounts.remove(tag);
+                }
+            }
+        }
+
+        String firstLetter() {
+            return name.substring(0, 1).toUpperCase();
+        }
+
+        String lastLetter() {
+            return sortName.substring(0, 1).toUpperCase();
+        }
+
+        AuthorInfo toAuthorInfo() {
+            return new AuthorInfo(name, sortName, numTitles, tagCounts.keySet());
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package org.themullers.library;
 
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
- * Information about an author (returned by DAO)
+ * Information about an author (see AuthorDirectory)
  */
 public class AuthorInfo {
     String name;
@@ -14,29 +14,32 @@ public class AuthorInfo {
     String byLast;
 
     // constructor
-    public AuthorInfo(String name, int numTitles, String tags) {
-
+    public AuthorInfo(String name, String byLast, int numTitles, Collection<String> tags) {
         this.name = name.trim();
+        this.byLast = byLast;
         this.numTitles = numTitles;
+        this.tags = new ArrayList<>(tags);
+    }
 
-        // break the tags from CSV into list
-        this.tags = new LinkedList<String>();
-        if (tags != null) {
-            this.tags = Arrays.stream(tags.split(",")).map(String::trim).toList();
-        }
+    /**
+     * Get the key used to sort an author by last name ("Last, First Middle").  This is computed
+     * once when an author is added and stored alongside the author's name.
+     * @param name  the author's name
+     * @return  the name rearranged with the last name first
+     */
+    public static String sortName(String name) {
+        name = name.trim();
 
         // if the name has no space, then it's the same when sorting by last name
         var lastSpaceInName = name.lastIndexOf(" ");
         if (lastSpaceInName <= 0) {
-            this.byLast = name;
+            return name;
         }
 
         // if the name has a space, parse it into last-name first so we can sort that way
-        else {
-            var lastName = name.substring(lastSpaceInName+1);
-            var firstPartOfName = name.substring(0,lastSpaceInName);
-            this.byLast = lastName + ", " + firstPartOfName;
-        }
+        var lastName = name.substring(lastSpaceInName+1);
+        var firstPartOfName = name.substring(0,lastSpaceInName);
+        return lastName + ", " + firstPartOfName;
     }
 
     public String getName() {
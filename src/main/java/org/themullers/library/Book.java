@@ -25,6 +25,7 @@ public class Book {
     protected String audiobookObjectKey;
     protected String amazonId;
     protected Integer avgRating;
+    protected String coverSha256;
 
     private Set<String> tags = new HashSet<>();
 
@@ -156,6 +157,43 @@ public class Book {
         this.avgRating = avgRating;
     }
 
+    public String getCoverSha256() {
+        return coverSha256;
+    }
+
+    public void setCoverSha256(String coverSha256) {
+        this.coverSha256 = coverSha256;
+    }
+
+    /**
+     * Get the URL of the book's cover.  The URL includes a version that changes when the cover does,
+     * so browsers can keep the image for as long as they like.
+     * @return  the URL of the book's cover image
+     */
+    public String getCoverUrl() {
+        var url = "/book/cover/" + id;
+        return coverSha256 == null ? url : url + "?v=" + coverVersion(coverSha256);
+    }
+
+    /**
+     * Get the URL of a smaller rendition of the book's cover (see CoverStore.Rendition).
+     * @param size  the name of the rendition, like "grid"
+     * @return  the URL of the rendition
+     */
+    public String getCoverUrl(String size) {
+        var url = getCoverUrl();
+        return url + (url.contains("?") ? "&" : "?") + "size=" + size;
+    }
+
+    /**
+     * Get the version of a cover that goes in its URL.
+     * @param sha256  the hash of the cover image
+     * @return  a short version string
+     */
+    public static String coverVersion(String sha256) {
+        return sha256.substring(0, Math.min(12, sha256.length()));
+    }
+
     public void addTag(String newTag) {
         tags.add(newTag);
     }
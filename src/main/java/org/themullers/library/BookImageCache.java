@@ -1,16 +1,21 @@
 package org.themullers.library;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.themullers.library.db.LibraryDAO;
+import org.themullers.library.s3.AssetDiskCache;
 import org.themullers.library.s3.LibraryOSAO;
+import org.themullers.library.s3.RemoteZipReader;
 
-import javax.imageio.ImageIO;
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 // NOTE: to resize -- https://www.baeldung.com/java-resize-image
 
@@ -21,20 +26,70 @@ import java.util.List;
 @Service
 public class BookImageCache {
 
+    private static Logger logger = LoggerFactory.getLogger(BookImageCache.class);
+
     protected static List<String> IMAGE_EXTENSIONS = Arrays.asList("png", "jpg", "jpeg", "gif", "svg");
 
+    // marker files left in a book's cache directory: the name of the declared cover, and a note that all the images have been extracted
+    protected final static String COVER_MARKER = ".cover";
+    protected final static String IMAGES_MARKER = ".all-images";
+
     LibraryOSAO osao;
+    AssetDiskCache assetCache;
     File imageCacheDir;
 
-    public BookImageCache(LibraryDAO dao, LibraryOSAO osao, @Value("${book.image.cache.dir}") File imageCacheDir) {
+    public BookImageCache(LibraryDAO dao, LibraryOSAO osao, AssetDiskCache assetCache, @Value("${book.image.cache.dir}") File imageCacheDir) {
         this.osao = osao;
+        this.assetCache = assetCache;
         this.imageCacheDir = imageCacheDir;
     }
 
+    /**
+     * Finds the cover image an EPUB declares (see EpubCoverFinder) and extracts just that image, or uses
+     * information from a cache on the file system if the cover has been previously found.
+     *
+     * @param epubObjId The key for this book's epub in the object store.
+     * @return The cover image's filename, or null if the EPUB doesn't declare a cover.
+     * @throws IOException Throws when an unexpected error occurs extracting the cover
+     */
+    public String coverFromBook(String epubObjId) throws IOException {
+        if (Utils.isBlank(epubObjId)) {
+            return null;
+        }
+
+        // if we've already looked for this book's cover, the marker file says what we found
+        var imageDir = new File(imageCacheDir, epubObjId);
+        var marker = new File(imageDir, COVER_MARKER);
+        if (marker.exists()) {
+            var filename = Files.readString(marker.toPath());
+            if (filename.isEmpty()) {
+                return null;
+            }
+            if (new File(imageDir, filename).exists()) {
+                return filename;
+            }
+        }
+
+        // find the cover in the epub's package document and extract it
+        imageDir.mkdirs();
+        var images = new LinkedList<String>();
+        try (var archive = openArchive(epubObjId)) {
+            var path = EpubCoverFinder.findCover(archive::readBytes);
+            if (path != null && archive.names().contains(path)) {
+                archive.read(List.of(path), (name, is) -> extractImage(name, is, imageDir, images, false));
+            }
+        }
+
+        var filename = images.isEmpty() ? null : images.get(0);
+        Files.writeString(marker.toPath(), filename == null ? "" : filename);
+        return filename;
+    }
+
     /**
      * Extracts all the images from a book and returns a list of the filenames of the images
      * or uses information from a cache on the file system if the images have been previously
-     * extracted.
+     * extracted.  This reads a lot more of the EPUB than coverFromBook(), so it's only used when
+     * the admin asks for alternatives to the declared cover.
      *
      * @param epubObjId The key for this book's epub in the object store.
      * @return A list of image filenames.
@@ -46,60 +101,26 @@ public class BookImageCache {
         // if an epub was provided
         if (!Utils.isBlank(epubObjId)) {
 
-            // if there is a cache entry for the images from this book
+            // if the images from this book haven't been extracted yet, extract them into the cache directory
             File imageDir = new File(imageCacheDir, epubObjId);
-            if (imageDir.exists()) {
-
-                // walk the cache directory and add each image file's name to the list
-                for (var file : imageDir.listFiles()) {
-                    var filename = file.getName();
-                    if (isImage(filename)) {
-                        images.add(filename);
-                    }
+            var marker = new File(imageDir, IMAGES_MARKER);
+            if (!marker.exists()) {
+                imageDir.mkdirs();
+                try (var archive = openArchive(epubObjId)) {
+                    var imageNames = archive.names().stream().filter(this::isImage).toList();
+                    archive.read(imageNames, (name, is) -> extractImage(name, is, imageDir, new LinkedList<>(), true));
                 }
+                Files.writeString(marker.toPath(), "");
             }
 
-            // if there is not a cache entry for the images from this book
-            else {
-
-                // make a directory in which we will cache the images in this book
-                imageDir.mkdir();
-
-                // unzip the epub and inspect each file within
-                for (var ebookEntry : Utils.unzip(osao.readObject(epubObjId).getObjectContent()).entrySet()) {
-
-                    // if the file is an image
-                    var pathWithinZip = ebookEntry.getKey();
-                    if (isImage(pathWithinZip)) {
-
-                        var imageBytes = ebookEntry.getValue();
-                        var filename = filename(pathWithinZip);
-
-                        try {
-                            var dimensions = getImageDimensions(imageBytes);
-
-                            // if the image is smaller than 50 pixels in either dimension, it's too small for a cover image; skip it
-                            if (dimensions.w < 50 || dimensions.h < 50) {
-                                continue;
-                            }
-
-                            filename = prependDimensionsToFilename(dimensions, filename);
-                        }
-                        catch (Exception x) {
-                            // smother; we don't REALLY need the dimensions
-                        }
-
-                        // save the image to the cache directory
-                        var imageFile = new File(imageDir, filename);
-                        try (var fos = new FileOutputStream(imageFile)) {
-                            fos.write(ebookEntry.getValue());
-                        }
-
-                        // add the image's filename to the list
-                        images.add(filename);
-                    }
+            // walk the cache directory and add each image file's name to the list
+            for (var file : imageDir.listFiles()) {
+                var filename = file.getName();
+                if (isImage(filename)) {
+                    images.add(filename);
                 }
             }
+            Collections.sort(images);
         }
 
         return images;
@@ -156,6 +177,61 @@ public class BookImageCache {
 
     // HELPER METHODS
 
+    // open an epub: from a local file if there is one, otherwise reading just the parts we need from the object store
+    protected EpubArchive openArchive(String epubObjId) throws IOException {
+        var cached = assetCache.peek(epubObjId);
+        if (cached != null) {
+            return new LocalArchive(new ZipFile(cached.file()), null);
+        }
+        try {
+            return new RemoteArchive(RemoteZipReader.open(osao, epubObjId));
+        }
+        catch (ZipException x) {
+            logger.warn("unable to read the contents of {} piece by piece; downloading the whole thing instead", epubObjId, x);
+        }
+
+        // download the epub to a temporary file (which is deleted when the archive is closed)
+        var tempFile = Files.createTempFile("epub-", ".tmp");
+        try (var is = osao.readObject(epubObjId)) {
+            Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            return new LocalArchive(new ZipFile(tempFile.toFile()), tempFile);
+        }
+        catch (IOException | RuntimeException x) {
+            Files.deleteIfExists(tempFile);
+            throw x;
+        }
+    }
+
+    // copy an image from an epub to the cache directory (unless it's too small to be a cover)
+    protected void extractImage(String pathWithinZip, InputStream is, File imageDir, List<String> images, boolean skipSmallImages) throws IOException {
+        var filename = filename(pathWithinZip);
+
+        // write the image to a temporary file, without holding it in memory
+        var tempFile = File.createTempFile("image-", ".tmp", imageDir);
+        try {
+            Files.copy(is, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            // we don't REALLY need the dimensions, so carry on without them if they can't be read
+            var dimensions = ImageDimensions.probe(tempFile);
+            if (dimensions != null) {
+
+                // if the image is smaller than 50 pixels in either dimension, it's too small for a cover image; skip it
+                if (skipSmallImages && (dimensions.width() < 50 || dimensions.height() < 50)) {
+                    return;
+                }
+
+                filename = prependDimensionsToFilename(dimensions, filename);
+            }
+
+            // give the image its name in the cache directory and add it to the list
+            Files.move(tempFile.toPath(), new File(imageDir, filename).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            images.add(filename);
+        }
+        finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
     // get the filename (the last element) of a path
     protected String filename(String pathString) {
         return Path.of(pathString).getFileName().toString();
@@ -167,19 +243,96 @@ public class BookImageCache {
     }
 
     // calculate an alternate filename that has some dimensions pre-pended to the filename
-    protected String prependDimensionsToFilename(Dimensions dimensions, String originalFilename) {
-        return String.format("%dx%d-%s", dimensions.w, dimensions.h, originalFilename);
+    protected String prependDimensionsToFilename(ImageDimensions dimensions, String originalFilename) {
+        return String.format("%dx%d-%s", dimensions.width(), dimensions.height(), originalFilename);
+    }
+
+    // called with the content of each entry read from an epub
+    protected interface EntryConsumer {
+        void accept(String name, InputStream is) throws IOException;
     }
 
-    // calculate the dimensions for an image
-    protected Dimensions getImageDimensions(byte[] imageBytes) throws IOException {
-        try (var is = new ByteArrayInputStream(imageBytes)) {
-            var img = ImageIO.read(is);
-            return new Dimensions(img.getWidth(), img.getHeight());
+    // the files in an epub, wherever the epub is
+    protected interface EpubArchive extends Closeable {
+
+        // the paths of the files in the epub
+        Set<String> names();
+
+        // read some of the files, in whatever order is quickest
+        void read(Collection<String> names, EntryConsumer consumer) throws IOException;
+
+        // read a (small) file, returning null if there's no such file
+        default byte[] readBytes(String name) throws IOException {
+            if (!names().contains(name)) {
+                return null;
+            }
+            var content = new byte[1][];
+            read(List.of(name), (n, is) -> content[0] = is.readAllBytes());
+            return content[0];
         }
     }
 
-    // structure to represent image dimensions
-    protected record Dimensions(int w, int h) {
+    // an epub in a local file
+    protected static class LocalArchive implements EpubArchive {
+        final ZipFile zip;
+        final Path tempFile;
+
+        LocalArchive(ZipFile zip, Path tempFile) {
+            this.zip = zip;
+            this.tempFile = tempFile;
+        }
+
+        @Override
+        public Set<String> names() {
+            var names = new LinkedHashSet<String>();
+            zip.stream().forEach(e -> names.add(e.getName()));
+            return names;
+        }
+
+        @Override
+        public void read(Collection<String> names, EntryConsumer consumer) throws IOException {
+            for (var name : names) {
+                var entry = zip.getEntry(name);
+                if (entry != null) {
+                    try (var is = zip.getInputStream(entry)) {
+                        consumer.accept(name, is);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    // an epub in the object store, read with ranged reads
+    protected static class RemoteArchive implements EpubArchive {
+        final RemoteZipReader zip;
+
+        RemoteArchive(RemoteZipReader zip) {
+            this.zip = zip;
+        }
+
+        @Override
+        public Set<String> names() {
+            var names = new LinkedHashSet<String>();
+            zip.entries().forEach(e -> names.add(e.name()));
+            return names;
+        }
+
+        @Override
+        public void read(Collection<String> names, EntryConsumer consumer) throws IOException {
+            var entries = zip.entries().stream().filter(e -> names.contains(e.name())).toList();
+            zip.read(entries, (entry, is) -> consumer.accept(entry.name(), is));
+        }
+
+        @Override
+        public void close() {
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+package org.themullers.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.themullers.library.db.LibraryDAO;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the current snapshot of the library's books in memory.  The snapshot is loaded from
+ * the database the first time it's needed, and replaced with a new version each time the
+ * DAO reports that a book has changed.
+ *
+ * Books can also be changed by other processes (like the command-line tools), which this
+ * process's DAO never hears about.  Every change is recorded in the book_changes table, so
+ * the catalog periodically reads the changes recorded since its last check and reloads the
+ * books that changed.  A change made by this process is seen by that check too, and the
+ * book is reloaded a second time, which does no harm.
+ */
+@Service
+public class Catalog implements LibraryDAO.BookChangeListener {
+
+    private static Logger logger = LoggerFactory.getLogger(Catalog.class);
+
+    // how much further back than the last check each check looks, to catch changes from transactions that committed late
+    protected final static int CHANGE_CHECK_OVERLAP_SECONDS = 60;
+
+    // how long changes are kept in the book_changes table; if the catalog goes longer than this without checking, it reloads everything
+    protected final static int CHANGE_RETENTION_SECONDS = 24 * 60 * 60;
+
+    LibraryDAO dao;
+    volatile CatalogSnapshot snapshot;
+    List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // the ids of the changes that recent checks have seen (and applied), and when the last check was made
+    Set<Long> seenChanges = new HashSet<>();
+    long lastCheckNanos;
+
+    public Catalog(LibraryDAO dao) {
+        this.dao = dao;
+        dao.addBookChangeListener(this);
+    }
+
+    /**
+     * Implemented by objects that maintain information derived from the catalog and need
+     * to know when a new version of the snapshot has been swapped in.
+     */
+    public interface Listener {
+
+        /**
+         * Called after a book in the catalog has changed.  If the whole catalog was reloaded,
+         * both before and after are null.
+         * @param snapshot  the new snapshot
+         * @param before  the book before the change (null if the book was just added)
+         * @param after  the book after the change (null if the book was deleted)
+         */
+        void catalogChanged(CatalogSnapshot snapshot, Book before, Book after);
+    }
+
+    /**
+     * Register an object to be notified when the catalog changes.
+     * @param listener  the object to notify
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Get the current snapshot of the library.  Callers that need several consistent
+     * pieces of information should get the snapshot once and read from it.
+     * @return  the current snapshot
+     */
+    public CatalogSnapshot snapshot() {
+        var current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    load();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Replace the book in the snapshot with the latest version from the database.
+     * @param bookId  the id of the book that was inserted, updated, or deleted
+     */
+    @Override
+    public void bookChanged(int bookId) {
+        var after = dao.fetchBook(bookId);
+        applyChanges(Set.of(bookId), after == null ? Map.of() : Map.of(bookId, after));
+    }
+
+    /**
+     * Reload the books that other processes have changed since the last check.
+     */
+    @Scheduled(fixedDelayString = "${catalog.check.ms:10000}", initialDelayString = "${catalog.check.ms:10000}")
+    public void checkForChanges() {
+
+        // if the snapshot hasn't been loaded yet, it will be up to date when it is
+        if (snapshot == null) {
+            return;
+        }
+
+        // look back to the last check (plus some overlap), unless that's further back than the change log goes
+        var elapsedSeconds = (System.nanoTime() - lastCheckNanos) / 1_000_000_000L;
+        if (elapsedSeconds + CHANGE_CHECK_OVERLAP_SECONDS >= CHANGE_RETENTION_SECONDS) {
+            reload();
+            return;
+        }
+        var checkStart = System.nanoTime();
+        var changes = dao.fetchBookChanges((int) elapsedSeconds + CHANGE_CHECK_OVERLAP_SECONDS);
+
+        // find the changes that haven't been seen (only the ids of the changes in this window need to be remembered)
+        var changeIds = new HashSet<Long>();
+        var changedBooks = new LinkedHashSet<Integer>();
+        for (var change : changes) {
+            changeIds.add(change.id());
+            if (!seenChanges.contains(change.id())) {
+                changedBooks.add(change.bookId());
+            }
+        }
+
+        if (!changedBooks.isEmpty()) {
+            var books = new HashMap<Integer, Book>();
+            dao.fetchBooks(changedBooks).forEach(book -> books.put(book.getId(), book));
+            applyChanges(changedBooks, books);
+            logger.info("catalog reloaded {} changed books", changedBooks.size());
+        }
+
+        seenChanges = changeIds;
+        lastCheckNanos = checkStart;
+
+        // trim the change log
+        dao.deleteBookChanges(CHANGE_RETENTION_SECONDS);
+    }
+
+    // HELPER METHODS
+
+    // load the whole catalog (the caller must hold the lock)
+    protected void load() {
+
+        // the changes recorded up to now are reflected in what's about to be loaded
+        lastCheckNanos = System.nanoTime();
+        seenChanges = new HashSet<>();
+        dao.fetchBookChanges(CHANGE_CHECK_OVERLAP_SECONDS).forEach(change -> seenChanges.add(change.id()));
+
+        var version = snapshot == null ? 1 : snapshot.getVersion() + 1;
+        snapshot = new CatalogSnapshot(version, dao.fetchAllBooks());
+    }
+
+    // load the whole catalog again, and let the listeners know that everything may have changed
+    protected void reload() {
+        CatalogSnapshot current;
+        synchronized (this) {
+            load();
+            current = snapshot;
+        }
+        logger.info("catalog reloaded");
+
+        for (var listener : listeners) {
+            listener.catalogChanged(current, null, null);
+        }
+    }
+
+    // swap in the new versions of some books, one at a time, and let the listeners know about each one
+    protected void applyChanges(Collection<Integer> bookIds, Map<Integer, Book> books) {
+        for (var bookId : bookIds) {
+            CatalogSnapshot current;
+            Book before;
+            Book after = books.get(bookId);
+            synchronized (this) {
+
+                // if the snapshot hasn't been loaded yet, it will pick up the change when it is
+                if (snapshot == null) {
+                    return;
+                }
+
+                before = snapshot.fetchBook(bookId);
+                current = snapshot.withBook(bookId, after);
+                snapshot = current;
+            }
+
+            for (var listener : listeners) {
+                listener.catalogChanged(current, before, after);
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package org.themullers.library;
+
+import org.themullers.library.db.BookCursor;
+import org.themullers.library.db.LibraryDAO;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * An immutable, in-memory copy of all the books in the library (with their tags and average
+ * ratings), indexed so the pages that list books can be rendered without querying the database.
+ *
+ * A snapshot never changes once it's built; when a book changes, the Catalog builds a new
+ * snapshot (with the next version number) and swaps it in.  The new snapshot shares everything
+ * the change didn't affect with the old one, so a change costs about as much as copying the
+ * indexes, not rebuilding and re-sorting them.  The Book objects are shared with callers and
+ * must be treated as read-only.
+ */
+public class CatalogSnapshot {
+
+    protected final long version;
+    protected final Map<Integer, Book> booksById;
+    protected final NavigableMap<String, List<Book>> booksByAuthor;
+    protected final NavigableMap<String, List<Book>> booksBySeries;
+    protected final NavigableMap<String, List<Book>> booksByTag;
+    protected final List<Book> audiobooks;
+    protected final List<Book> booksByAcquisition;
+
+    // book lists sorted on demand for a particular order, so each is only sorted once (and kept by later snapshots until one of its books changes)
+    protected final Map<String, List<Book>> sortedLists;
+
+    /**
+     * Build a snapshot.
+     * @param version  this snapshot's version number
+     * @param books  all the books in the library
+     */
+    public CatalogSnapshot(long version, Collection<Book> books) {
+        this.version = version;
+
+        var byId = new HashMap<Integer, Book>();
+        var byAuthor = new TreeMap<String, List<Book>>(String.CASE_INSENSITIVE_ORDER);
+        var bySeries = new TreeMap<String, List<Book>>(String.CASE_INSENSITIVE_ORDER);
+        var byTag = new TreeMap<String, List<Book>>(String.CASE_INSENSITIVE_ORDER);
+        var audio = new ArrayList<Book>();
+
+        for (var book : books) {
+            byId.put(book.getId(), book);
+
+            // list the book under each of its authors, its series, and its tags (once under each, even if an author is listed twice)
+            for (var author : authorKeys(book)) {
+                byAuthor.computeIfAbsent(author, k -> new ArrayList<>()).add(book);
+            }
+            for (var series : seriesKeys(book)) {
+                bySeries.computeIfAbsent(series, k -> new ArrayList<>()).add(book);
+            }
+            for (var tag : tagKeys(book)) {
+                byTag.computeIfAbsent(tag, k -> new ArrayList<>()).add(book);
+            }
+            if (book.getAudiobookObjectKey() != null) {
+                audio.add(book);
+            }
+        }
+
+        var byAcquisition = new ArrayList<>(byId.values());
+        byAcquisition.sort(LibraryDAO.bookComparator(LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC));
+
+        this.booksById = Collections.unmodifiableMap(byId);
+        this.booksByAuthor = unmodifiable(byAuthor);
+        this.booksBySeries = unmodifiable(bySeries);
+        this.booksByTag = unmodifiable(byTag);
+        this.audiobooks = Collections.unmodifiableList(audio);
+        this.booksByAcquisition = Collections.unmodifiableList(byAcquisition);
+        this.sortedLists = new ConcurrentHashMap<>();
+    }
+
+    // build a snapshot from indexes that have already been built
+    protected CatalogSnapshot(long version, Map<Integer, Book> booksById, NavigableMap<String, List<Book>> booksByAuthor,
+                              NavigableMap<String, List<Book>> booksBySeries, NavigableMap<String, List<Book>> booksByTag,
+                              List<Book> audiobooks, List<Book> booksByAcquisition, Map<String, List<Book>> sortedLists) {
+        this.version = version;
+        this.booksById = booksById;
+        this.booksByAuthor = booksByAuthor;
+        this.booksBySeries = booksBySeries;
+        this.booksByTag = booksByTag;
+        this.audiobooks = audiobooks;
+        this.booksByAcquisition = booksByAcquisition;
+        this.sortedLists = sortedLists;
+    }
+
+    /**
+     * Build the next version of this snapshot, with one book added, replaced, or removed.
+     * @param bookId  the id of the book that changed
+     * @param book  the book's new information, or null if the book has been deleted
+     * @return  a new snapshot
+     */
+    public CatalogSnapshot withBook(int bookId, Book book) {
+        var before = booksById.get(bookId);
+
+        var byId = new HashMap<>(booksById);
+        if (book == null) {
+            byId.remove(bookId);
+        }
+        else {
+            byId.put(bookId, book);
+        }
+
+        // only the lists the book was or is in have to change
+        var byAuthor = withBook(booksByAuthor, bookId, before, book, CatalogSnapshot::authorKeys);
+        var bySeries = withBook(booksBySeries, bookId, before, book, CatalogSnapshot::seriesKeys);
+        var byTag = withBook(booksByTag, bookId, before, book, CatalogSnapshot::tagKeys);
+
+        var isAudiobook = book != null && book.getAudiobookObjectKey() != null;
+        var wasAudiobook = before != null && before.getAudiobookObjectKey() != null;
+        var audio = audiobooks;
+        if (isAudiobook || wasAudiobook) {
+            var list = new ArrayList<Book>(audiobooks.size() + 1);
+            audiobooks.stream().filter(b -> b.getId() != bookId).forEach(list::add);
+            if (isAudiobook) {
+                list.add(book);
+            }
+            audio = Collections.unmodifiableList(list);
+        }
+
+        // move the book to its new place in acquisition order
+        var comparator = LibraryDAO.bookComparator(LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC);
+        var byAcquisition = new ArrayList<>(booksByAcquisition);
+        if (before != null) {
+            var i = Collections.binarySearch(byAcquisition, before, comparator);
+            if (i >= 0) {
+                byAcquisition.remove(i);
+            }
+        }
+        if (book != null) {
+            var i = Collections.binarySearch(byAcquisition, book, comparator);
+            byAcquisition.add(i < 0 ? -i - 1 : i, book);
+        }
+
+        // keep the sorted lists that don't include the book
+        var sorted = new ConcurrentHashMap<>(sortedLists);
+        var affected = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        affected.addAll(before == null ? Set.of() : tagKeys(before));
+        affected.addAll(book == null ? Set.of() : tagKeys(book));
+        sorted.keySet().removeIf(key -> (key.startsWith("audiobooks:") && (isAudiobook || wasAudiobook))
+                || (key.startsWith("tag:") && affected.contains(key.substring("tag:".length(), key.lastIndexOf(':')))));
+
+        return new CatalogSnapshot(version + 1, Collections.unmodifiableMap(byId), byAuthor, bySeries, byTag,
+                audio, Collections.unmodifiableList(byAcquisition), sorted);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the book with a specified id.
+     * @param bookId  the id of the book
+     * @return  the book, or null if there's no such book
+     */
+    public Book fetchBook(int bookId) {
+        return booksById.get(bookId);
+    }
+
+    /**
+     * Returns all the books in the library.
+     * @return  the books (in no particular order)
+     */
+    public Collection<Book> fetchAllBooks() {
+        return booksById.values();
+    }
+
+    /**
+     * Returns all the books written by a given author, including books the author co-wrote.
+     * @param author  the name of the author
+     * @return  a (modifiable) list of books
+     */
+    public List<Book> fetchBooksForAuthor(String author) {
+        return new ArrayList<>(booksByAuthor.getOrDefault(author, List.of()));
+    }
+
+    /**
+     * Returns all the books in a series.
+     * @param series  the name of the series
+     * @return  a (modifiable) list of books
+     */
+    public List<Book> fetchBooksInSeries(String series) {
+        return new ArrayList<>(booksBySeries.getOrDefault(series, List.of()));
+    }
+
+    /**
+     * Returns the most recently acquired books.
+     * @param limit  the number of books to return
+     * @param skip  the number of books to skip
+     * @return  a (modifiable) list of books
+     */
+    public List<Book> fetchNewestBooks(int limit, int skip) {
+        return page(booksByAcquisition, limit, skip);
+    }
+
+    /**
+     * Returns the most recently acquired books that were acquired before the book at a cursor.
+     * @param limit  the number of books to return
+     * @param after  the books returned will be the ones that follow this position
+     * @return  a (modifiable) list of books
+     */
+    public List<Book> fetchNewestBooks(int limit, BookCursor after) {
+        return page(booksByAcquisition, limit, after);
+    }
+
+    /**
+     * Returns the books that have a certain tag.
+     * @param tag  the tag
+     * @param limit  don't return more books than this threshold
+     * @param offset  skip this number of books from the beginning of the results
+     * @param order  one of the LibraryDAO.BOOK_ORDER_* values
+     * @return  a (modifiable) list of books
+     */
+    public List<Book> fetchBooksWithTag(String tag, int limit, int offset, String order) {
+        return page(taggedBooks(tag, order), limit, offset);
+    }
+
+    /**
+     * Returns the books that have a certain tag, starting after the book at a cursor.
+     * @param tag  the tag
+     * @param limit  don't return more books than this threshold
+     * @param order  one of the LibraryDAO.BOOK_ORDER_* values
+     * @param after  the books returned will be the ones that follow this position
+     * @return  a (modifiable) list of books
+     */
+    public List<Book> fetchBooksWithTag(String tag, int limit, String order, BookCursor after) {
+        return page(taggedBooks(tag, order), limit, after);
+    }
+
+    /**
+     * Returns the audiobooks.
+     * @param limit  don't return more books than this threshold
+     * @param offset  skip this number of books from the beginning of the results
+     * @param order  one of the LibraryDAO.BOOK_ORDER_* values
+     * @return  a (modifiable) list of books
+     */
+    public List<Book> fetchAudiobooks(int limit, int offset, String order) {
+        return page(sortedAudiobooks(order), limit, offset);
+    }
+
+    /**
+     * Returns the audiobooks, starting after the book at a cursor.
+     * @param limit  don't return more books than this threshold
+     * @param order  one of the LibraryDAO.BOOK_ORDER_* values
+     * @param after  the books returned will be the ones that follow this position
+     * @return  a (modifiable) list of books
+     */
+    public List<Book> fetchAudiobooks(int limit, String order, BookCursor after) {
+        return page(sortedAudiobooks(order), limit, after);
+    }
+
+    /**
+     * Gets all the tags in the library and a count of the number of books associated with each tag.
+     * @return  the tags (in alphabetical order) and tag counts
+     */
+    public Map<String, Integer> getTags() {
+        var map = new LinkedHashMap<String, Integer>();
+        booksByTag.forEach((tag, books) -> map.put(tag, books.size()));
+        return map;
+    }
+
+    public int countTitles() {
+        return booksById.size();
+    }
+
+    public int countAudiobooks() {
+        return audiobooks.size();
+    }
+
+    public int countAuthors() {
+        return booksByAuthor.size();
+    }
+
+    // HELPER METHODS
+
+    // get the books with a tag, sorted in a particular order
+    protected List<Book> taggedBooks(String tag, String order) {
+        var books = booksByTag.get(tag);
+        if (books == null) {
+            return List.of();
+        }
+        return sorted("tag:" + tag.toLowerCase() + ":" + order, order, () -> books);
+    }
+
+    // get the audiobooks, sorted in a particular order
+    protected List<Book> sortedAudiobooks(String order) {
+        return sorted("audiobooks:" + order, order, () -> audiobooks);
+    }
+
+    // sort a list of books (or use the copy sorted by an earlier request)
+    protected List<Book> sorted(String cacheKey, String order, Supplier<List<Book>> books) {
+        return sortedLists.computeIfAbsent(cacheKey, k -> {
+            var list = new ArrayList<>(books.get());
+            list.sort(LibraryDAO.bookComparator(order));
+            return Collections.unmodifiableList(list);
+        });
+    }
+
+    // get a page of books from a sorted list, skipping some number of books
+    protected static List<Book> page(List<Book> books, int limit, int offset) {
+        var from = Math.min(Math.max(offset, 0), books.size());
+        var to = Math.min(from + limit, books.size());
+        return new ArrayList<>(books.subList(from, to));
+    }
+
+    // get a page of books from a sorted list, starting after a cursor
+    protected static List<Book> page(List<Book> books, int limit, BookCursor after) {
+
+        // binary search for the first book that sorts after the cursor
+        int low = 0;
+        int high = books.size();
+        while (low < high) {
+            var mid = (low + high) >>> 1;
+            if (LibraryDAO.compareToCursor(books.get(mid), after) > 0) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+
+        return page(books, limit, low);
+    }
+
+    // copy a map of lists, taking a book out of the lists it was in and putting it in the lists it belongs in now
+    protected static NavigableMap<String, List<Book>> withBook(NavigableMap<String, List<Book>> map, int bookId, Book before, Book after, Function<Book, Set<String>> keys) {
+        var oldKeys = before == null ? Set.<String>of() : keys.apply(before);
+        var newKeys = after == null ? Set.<String>of() : keys.apply(after);
+        var copy = new TreeMap<>(map);
+
+        var changed = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        changed.addAll(oldKeys);
+        changed.addAll(newKeys);
+        for (var key : changed) {
+            var list = new ArrayList<Book>();
+            copy.getOrDefault(key, List.of()).stream().filter(b -> b.getId() != bookId).forEach(list::add);
+            if (newKeys.contains(key)) {
+                list.add(after);
+            }
+            if (list.isEmpty()) {
+                copy.remove(key);
+            }
+            else {
+                copy.put(key, Collections.unmodifiableList(list));
+            }
+        }
+        return Collections.unmodifiableNavigableMap(copy);
+    }
+
+    // the names a book is listed under in each of the maps of lists
+    protected static Set<String> authorKeys(Book book) {
+        var names = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        for (var author : new String[] { book.getAuthor(), book.getAuthor2(), book.getAuthor3() }) {
+            if (!Utils.isBlank(author)) {
+                names.add(author.trim());
+            }
+        }
+        return names;
+    }
+
+    protected static Set<String> seriesKeys(Book book) {
+        var series = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        if (book.getSeries() != null) {
+            series.add(book.getSeries());
+        }
+        return series;
+    }
+
+    protected static Set<String> tagKeys(Book book) {
+        var tags = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        tags.addAll(book.getTags());
+        return tags;
+    }
+
+    // make a map of lists unmodifiable, including the lists
+    protected static NavigableMap<String, List<Book>> unmodifiable(TreeMap<String, List<Book>> map) {
+        map.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        return Collections.unmodifiableNavigableMap(map);
+    }
+}
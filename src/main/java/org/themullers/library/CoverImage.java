@@ -0,0 +1,14 @@
+package org.themullers.library;
+
+/**
+ * Information about a cover image kept in the cover store.  The image itself is identified
+ * by the SHA-256 hash of its content; the database only records this information.
+ *
+ * @param sha256  the hex-encoded SHA-256 hash of the image's bytes
+ * @param mimeType  the image's mime type
+ * @param size  the number of bytes in the image
+ * @param width  the image's width in pixels (or null if it couldn't be determined)
+ * @param height  the image's height in pixels (or null if it couldn't be determined)
+ */
+public record CoverImage(String sha256, String mimeType, long size, Integer width, Integer height) {
+}
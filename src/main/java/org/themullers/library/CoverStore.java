@@ -0,0 +1,348 @@
+package org.themullers.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A content-addressed store for cover images on the local file system.  Each image is saved in a
+ * file named for the SHA-256 hash of its content, so an image that's used for more than one book
+ * (or uploaded more than once) is only stored once, and a stored file never changes.
+ *
+ * Files are spread over subdirectories named for the first two pairs of hex digits in the hash
+ * (ab/cd/abcd...) to keep the directories small.
+ *
+ * Smaller renditions of each image (see Rendition) are kept next to it (abcd...-grid.jpg, etc.), so
+ * pages can load an image the size they display.  They're made when the image is stored, or the first
+ * time they're asked for if the image was stored before renditions were made.  Renditions are JPEGs,
+ * or PNGs if the image has transparency; WebP renditions are made as well if ImageIO has a WebP
+ * writer (which the JDK doesn't come with; a plugin has to be added).  Images that ImageIO has no
+ * reader for (like SVGs) don't get renditions, and the original is used instead; so are images that
+ * fail to decode, though making their renditions is tried again next time.  Only one thread at a
+ * time makes the renditions of an image.
+ */
+@Service
+public class CoverStore {
+
+    private static Logger logger = LoggerFactory.getLogger(CoverStore.class);
+
+    protected final static Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+    protected final static String WEBP_MIME_TYPE = "image/webp";
+    protected final static float JPEG_QUALITY = 0.85f;
+
+    // left next to an image that can't be decoded, so we don't keep trying to make renditions of it
+    protected final static String NO_RENDITIONS_SUFFIX = "-none";
+
+    /**
+     * The sizes of the renditions made of each image.  Each is scaled to a width (keeping its
+     * proportions), but never enlarged.
+     */
+    public enum Rendition {
+        GRID(200), DETAIL(400), RETINA(800);
+
+        final int width;
+
+        Rendition(int width) {
+            this.width = width;
+        }
+
+        /**
+         * Find a rendition by name.
+         * @param name  the name (like "grid"), in any case
+         * @return  the rendition, or null if there's no rendition with that name
+         */
+        public static Rendition forName(String name) {
+            for (var rendition : values()) {
+                if (rendition.name().equalsIgnoreCase(name)) {
+                    return rendition;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A rendition of an image, in a file.
+     * @param file  the file
+     * @param mimeType  the rendition's mime type
+     */
+    public record RenditionFile(File file, String mimeType) {}
+
+    File storeDir;
+    boolean webpSupported = ImageIO.getImageWritersByMIMEType(WEBP_MIME_TYPE).hasNext();
+
+    // one lock per image, so two requests for the same new image don't both make its renditions
+    Map<String, Object> imageLocks = new ConcurrentHashMap<>();
+
+    public CoverStore(@Value("${cover.store.dir}") File storeDir) {
+        this.storeDir = storeDir;
+    }
+
+    /**
+     * Save an image in the store (unless the same image is already there).
+     * @param is  the image's content
+     * @param mimeType  the image's mime type
+     * @return  information about the stored image
+     * @throws IOException  thrown if an unexpected error occurs writing the image
+     */
+    public CoverImage store(InputStream is, String mimeType) throws IOException {
+
+        // copy the image to a temporary file in the store, calculating its hash as it's copied
+        Files.createDirectories(storeDir.toPath());
+        var tempFile = Files.createTempFile(storeDir.toPath(), "upload-", ".tmp");
+        try {
+            var digest = sha256();
+            long size;
+            try (var dis = new DigestInputStream(is, digest)) {
+                size = Files.copy(dis, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            var hash = HexFormat.of().formatHex(digest.digest());
+            var dimensions = ImageDimensions.probe(tempFile.toFile());
+
+            // move the file to its permanent name; if that file already exists, it already has exactly this content
+            var file = file(hash).toPath();
+            if (!Files.exists(file)) {
+                Files.createDirectories(file.getParent());
+                try {
+                    Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (FileAlreadyExistsException x) {
+                    // someone else stored the same image at the same moment
+                }
+            }
+
+            // make the smaller renditions now (unless the image was already stored), so they're ready when pages ask for them
+            try {
+                if (!renditionsMade(hash)) {
+                    makeRenditions(hash);
+                }
+            }
+            catch (IOException | RuntimeException x) {
+                logger.warn("unable to make renditions of cover image " + hash, x);
+            }
+
+            return new CoverImage(hash, mimeType, size, dimensions == null ? null : dimensions.width(), dimensions == null ? null : dimensions.height());
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Save an image file in the store (unless the same image is already there).
+     * @param imageFile  the image
+     * @param mimeType  the image's mime type
+     * @return  information about the stored image
+     * @throws IOException  thrown if an unexpected error occurs reading or writing the image
+     */
+    public CoverImage store(File imageFile, String mimeType) throws IOException {
+        try (var is = Files.newInputStream(imageFile.toPath())) {
+            return store(is, mimeType);
+        }
+    }
+
+    /**
+     * Get the file containing an image.
+     * @param sha256  the hex-encoded SHA-256 hash of the image
+     * @return  the image's file (which may not exist if the image was never stored)
+     */
+    public File file(String sha256) {
+        if (sha256 == null || !SHA256_HEX.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("not a SHA-256 hash: " + sha256);
+        }
+        var dir = new File(new File(storeDir, sha256.substring(0, 2)), sha256.substring(2, 4));
+        return new File(dir, sha256);
+    }
+
+    /**
+     * Get a smaller rendition of an image, making it if necessary.
+     * @param sha256  the hex-encoded SHA-256 hash of the image
+     * @param rendition  the size of rendition
+     * @param acceptsWebp  whether the browser accepts WebP images
+     * @return  the rendition, or null if the image doesn't have renditions or they couldn't be made (so the original should be used)
+     * @throws IOException  thrown if an unexpected error occurs finding the rendition
+     */
+    public RenditionFile rendition(String sha256, Rendition rendition, boolean acceptsWebp) throws IOException {
+        var original = file(sha256);
+        if (!original.exists() || noRenditionsMarker(sha256).exists()) {
+            return null;
+        }
+
+        // find the rendition in the best format the browser accepts, making the renditions if there aren't any yet
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (acceptsWebp && webpSupported) {
+                var webp = renditionFile(sha256, rendition, "webp");
+                if (webp.exists()) {
+                    return new RenditionFile(webp, WEBP_MIME_TYPE);
+                }
+            }
+            var jpeg = renditionFile(sha256, rendition, "jpg");
+            if (jpeg.exists()) {
+                return new RenditionFile(jpeg, "image/jpeg");
+            }
+            var png = renditionFile(sha256, rendition, "png");
+            if (png.exists()) {
+                return new RenditionFile(png, "image/png");
+            }
+            if (attempt == 0) {
+                try {
+                    if (!makeRenditions(sha256)) {
+                        return null;
+                    }
+                }
+                catch (IOException x) {
+                    // maybe a variant (like a CMYK JPEG) that ImageIO's reader can't decode; use the original this time
+                    logger.warn("unable to make renditions of cover image " + sha256, x);
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether renditions are also made in WebP format.
+     * @return  true if there's a WebP writer available
+     */
+    public boolean isWebpSupported() {
+        return webpSupported;
+    }
+
+    // HELPER METHODS
+
+    // make all the renditions of an image (unless another thread just did); returns false (and leaves a marker) if ImageIO can't read the image's format
+    protected boolean makeRenditions(String sha256) throws IOException {
+        synchronized (imageLocks.computeIfAbsent(sha256, k -> new Object())) {
+            if (renditionsMade(sha256)) {
+                return !noRenditionsMarker(sha256).exists();
+            }
+
+            var original = hasReader(sha256) ? ImageIO.read(file(sha256)) : null;
+            if (original == null) {
+                Files.writeString(noRenditionsMarker(sha256).toPath(), "");
+                return false;
+            }
+            makeRenditions(sha256, original);
+            return true;
+        }
+    }
+
+    // make all the renditions of a decoded image
+    protected void makeRenditions(String sha256, BufferedImage original) throws IOException {
+
+        // keep transparency if there is any (which JPEG can't)
+        var hasAlpha = original.getColorModel().hasAlpha();
+        for (var rendition : Rendition.values()) {
+            var scaled = scale(original, rendition.width, hasAlpha);
+            write(scaled, hasAlpha ? "png" : "jpg", renditionFile(sha256, rendition, hasAlpha ? "png" : "jpg"));
+            if (webpSupported) {
+                write(scaled, "webp", renditionFile(sha256, rendition, "webp"));
+            }
+        }
+    }
+
+    // whether ImageIO has a reader for an image's format
+    protected boolean hasReader(String sha256) throws IOException {
+        try (var iis = ImageIO.createImageInputStream(file(sha256))) {
+            return iis != null && ImageIO.getImageReaders(iis).hasNext();
+        }
+    }
+
+    // scale an image down to a width (in steps of no more than half, which looks better than one big step)
+    protected static BufferedImage scale(BufferedImage image, int targetWidth, boolean hasAlpha) {
+        targetWidth = Math.min(targetWidth, image.getWidth());
+        var targetHeight = (int) Math.max(1, Math.round((double) image.getHeight() * targetWidth / image.getWidth()));
+        var type = hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        var current = image;
+        var w = image.getWidth();
+        var h = image.getHeight();
+        do {
+            w = Math.max(w / 2, targetWidth);
+            h = Math.max(h / 2, targetHeight);
+            var next = new BufferedImage(w, h, type);
+            var g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, w, h, null);
+            }
+            finally {
+                g.dispose();
+            }
+            current = next;
+        } while (w != targetWidth || h != targetHeight);
+        return current;
+    }
+
+    // write an image to a temporary file, then give it its permanent name
+    protected void write(BufferedImage image, String format, File file) throws IOException {
+        var writers = ImageIO.getImageWritersBySuffix(format);
+        if (!writers.hasNext()) {
+            throw new IOException("no image writer for " + format);
+        }
+        var writer = writers.next();
+        var tempFile = Files.createTempFile(file.getParentFile().toPath(), "rendition-", ".tmp");
+        try {
+            try (var ios = ImageIO.createImageOutputStream(tempFile.toFile())) {
+                writer.setOutput(ios);
+                var param = writer.getDefaultWriteParam();
+                if (format.equals("jpg")) {
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(JPEG_QUALITY);
+                }
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            finally {
+                writer.dispose();
+            }
+            Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    protected boolean renditionsMade(String sha256) {
+        var last = Rendition.values()[Rendition.values().length - 1];
+        return noRenditionsMarker(sha256).exists() || renditionFile(sha256, last, "jpg").exists() || renditionFile(sha256, last, "png").exists();
+    }
+
+    protected File renditionFile(String sha256, Rendition rendition, String extension) {
+        var original = file(sha256);
+        return new File(original.getParentFile(), original.getName() + "-" + rendition.name().toLowerCase() + "." + extension);
+    }
+
+    protected File noRenditionsMarker(String sha256) {
+        var original = file(sha256);
+        return new File(original.getParentFile(), original.getName() + NO_RENDITIONS_SUFFIX);
+    }
+
+    protected static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException x) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(x);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.themullers.library;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Finds the cover image an EPUB declares, by reading META-INF/container.xml to find the package
+ * document (the OPF), then looking in the OPF for (in order of preference):
+ *
+ *   - a manifest item with the "cover-image" property (EPUB 3),
+ *   - a <meta name="cover"> naming a manifest item (EPUB 2),
+ *   - a guide reference of type "cover", which is either the image itself or a page that shows it.
+ *
+ * Only the few small files needed are read from the EPUB.
+ */
+public class EpubCoverFinder {
+
+    protected final static String CONTAINER_PATH = "META-INF/container.xml";
+    protected final static String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+    protected final static Set<String> XHTML_EXTENSIONS = Set.of("xhtml", "html", "htm", "xml");
+
+    /**
+     * Reads files from an EPUB.
+     */
+    public interface EntryReader {
+
+        /**
+         * Read a file from the EPUB.
+         * @param path  the file's path within the EPUB
+         * @return  the file's content, or null if there's no such file
+         * @throws IOException  thrown if an unexpected error occurs reading the file
+         */
+        byte[] read(String path) throws IOException;
+    }
+
+    /**
+     * Find the cover image an EPUB declares.
+     * @param reader  reads files from the EPUB
+     * @return  the path of the cover image within the EPUB, or null if the EPUB doesn't declare one (or can't be parsed)
+     * @throws IOException  thrown if an unexpected error occurs reading the EPUB
+     */
+    public static String findCover(EntryReader reader) throws IOException {
+
+        // the container says where the package document is
+        var container = parse(reader.read(CONTAINER_PATH));
+        if (container == null) {
+            return null;
+        }
+        var rootfiles = container.getElementsByTagNameNS("*", "rootfile");
+        if (rootfiles.getLength() == 0) {
+            return null;
+        }
+        var opfPath = ((Element) rootfiles.item(0)).getAttribute("full-path");
+        var opf = parse(reader.read(opfPath));
+        if (opf == null) {
+            return null;
+        }
+
+        // index the manifest items by id, and look for one marked as the cover image (EPUB 3)
+        var hrefs = new HashMap<String, String>();
+        var items = opf.getElementsByTagNameNS("*", "item");
+        for (int i = 0; i < items.getLength(); i++) {
+            var item = (Element) items.item(i);
+            hrefs.put(item.getAttribute("id"), item.getAttribute("href"));
+            if ((" " + item.getAttribute("properties") + " ").contains(" cover-image ")) {
+                return resolve(opfPath, item.getAttribute("href"));
+            }
+        }
+
+        // look for a meta element naming the manifest item that's the cover (EPUB 2)
+        var metas = opf.getElementsByTagNameNS("*", "meta");
+        for (int i = 0; i < metas.getLength(); i++) {
+            var meta = (Element) metas.item(i);
+            if ("cover".equals(meta.getAttribute("name"))) {
+                var href = hrefs.get(meta.getAttribute("content"));
+                if (href != null) {
+                    return resolve(opfPath, href);
+                }
+            }
+        }
+
+        // look for a guide reference to the cover, which may be the image or a page that displays it
+        var references = opf.getElementsByTagNameNS("*", "reference");
+        for (int i = 0; i < references.getLength(); i++) {
+            var reference = (Element) references.item(i);
+            if ("cover".equalsIgnoreCase(reference.getAttribute("type"))) {
+                var path = resolve(opfPath, reference.getAttribute("href"));
+                if (!XHTML_EXTENSIONS.contains(Utils.getExtension(path).toLowerCase())) {
+                    return path;
+                }
+                return findImageInPage(reader, path);
+            }
+        }
+
+        return null;
+    }
+
+    // HELPER METHODS
+
+    // find the first image displayed by a page (as an <img> or an SVG <image>)
+    protected static String findImageInPage(EntryReader reader, String pagePath) throws IOException {
+        var page = parse(reader.read(pagePath));
+        if (page == null) {
+            return null;
+        }
+        var imgs = page.getElementsByTagNameNS("*", "img");
+        if (imgs.getLength() > 0) {
+            return resolve(pagePath, ((Element) imgs.item(0)).getAttribute("src"));
+        }
+        var images = page.getElementsByTagNameNS("*", "image");
+        if (images.getLength() > 0) {
+            var image = (Element) images.item(0);
+            var href = image.getAttributeNS(XLINK_NAMESPACE, "href");
+            return resolve(pagePath, href.isEmpty() ? image.getAttribute("href") : href);
+        }
+        return null;
+    }
+
+    // parse an XML file (returning null if there is no file, or it isn't well-formed)
+    protected static Document parse(byte[] xml) throws IOException {
+        if (xml == null) {
+            return null;
+        }
+        try {
+            var factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+
+            // don't fetch DTDs (XHTML pages often name one) or expand entities
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            factory.setExpandEntityReferences(false);
+
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        }
+        catch (SAXException x) {
+            return null;
+        }
+        catch (ParserConfigurationException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    // resolve an href (which is URL-encoded and relative to the file it's in) to a path within the EPUB
+    protected static String resolve(String basePath, String href) {
+        if (Utils.isBlank(href)) {
+            return null;
+        }
+
+        // drop any fragment, and decode it ("+" is a literal plus in a path, not a space)
+        var hash = href.indexOf('#');
+        if (hash >= 0) {
+            href = href.substring(0, hash);
+        }
+        try {
+            href = URLDecoder.decode(href.replace("+", "%2B"), StandardCharsets.UTF_8);
+        }
+        catch (IllegalArgumentException x) {
+            // not properly encoded; use it as it is
+        }
+
+        // start from the directory containing the base file, then follow the href's path
+        var segments = new ArrayDeque<String>();
+        if (!href.startsWith("/")) {
+            var slash = basePath.lastIndexOf('/');
+            if (slash >= 0) {
+                for (var segment : basePath.substring(0, slash).split("/")) {
+                    if (!segment.isEmpty()) {
+                        segments.addLast(segment);
+                    }
+                }
+            }
+        }
+        for (var segment : href.split("/")) {
+            if (segment.equals("..")) {
+                segments.pollLast();
+            }
+            else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+}
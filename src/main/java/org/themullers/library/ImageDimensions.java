@@ -0,0 +1,217 @@
+package org.themullers.library;
+
+import javax.imageio.ImageIO;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Pattern;
+
+/**
+ * The width and height of an image, read from the image's header without decoding the image.
+ *
+ * JPEG (the start-of-frame segment), PNG (the IHDR chunk) and GIF (the logical screen descriptor)
+ * headers are parsed directly; SVGs (recognized by their content, since the file being probed is
+ * often a temporary file without an .svg extension) get their size from the root element's width
+ * and height (or, failing that, its viewBox).  Any other format is left to an ImageIO reader, which is asked only
+ * for the size.
+ *
+ * @param width  the image's width in pixels
+ * @param height  the image's height in pixels
+ */
+public record ImageDimensions(int width, int height) {
+
+    protected final static byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+    // how much of the start of a file is read to recognize it (an SVG's root element may follow an xml declaration, comments and a doctype)
+    protected final static int SVG_SNIFF_LENGTH = 1024;
+
+    protected final static Pattern SVG_LENGTH = Pattern.compile("\\s*([0-9]*\\.?[0-9]+)\\s*(px)?\\s*");
+
+    /**
+     * Read an image's dimensions.
+     * @param imageFile  the image
+     * @return  the image's dimensions, or null if they can't be determined
+     */
+    public static ImageDimensions probe(File imageFile) {
+        try (var is = new BufferedInputStream(Files.newInputStream(imageFile.toPath()))) {
+
+            // look at the first few bytes to see what kind of image this is
+            is.mark(SVG_SNIFF_LENGTH);
+            var magic = is.readNBytes(SVG_SNIFF_LENGTH);
+            is.reset();
+
+            ImageDimensions dimensions = null;
+            if (startsWith(magic, PNG_SIGNATURE)) {
+                dimensions = png(new DataInputStream(is));
+            }
+            else if (startsWith(magic, "GIF8".getBytes(StandardCharsets.US_ASCII))) {
+                dimensions = gif(new DataInputStream(is));
+            }
+            else if (magic.length >= 2 && (magic[0] & 0xff) == 0xff && (magic[1] & 0xff) == 0xd8) {
+                dimensions = jpeg(new DataInputStream(is));
+            }
+            else if (looksLikeSvg(magic)) {
+                // the XML parser won't accept anything (like a byte order mark and whitespace) before the xml declaration
+                is.skipNBytes(indexOf(magic, (byte) '<'));
+                dimensions = svg(is);
+            }
+            return dimensions != null ? dimensions : imageReader(imageFile);
+        }
+        catch (IOException | RuntimeException x) {
+            // the header wasn't what we expected
+            return null;
+        }
+    }
+
+    // HELPER METHODS
+
+    // the IHDR chunk always comes first: its length and type, then the width and height
+    protected static ImageDimensions png(DataInputStream in) throws IOException {
+        in.skipNBytes(PNG_SIGNATURE.length);
+        in.skipNBytes(4);
+        if (in.readInt() != 0x49484452) { // "IHDR"
+            return null;
+        }
+        return new ImageDimensions(in.readInt(), in.readInt());
+    }
+
+    // the logical screen descriptor follows the signature: width and height, little-endian
+    protected static ImageDimensions gif(DataInputStream in) throws IOException {
+        in.skipNBytes(6);
+        var width = in.readUnsignedByte() | (in.readUnsignedByte() << 8);
+        var height = in.readUnsignedByte() | (in.readUnsignedByte() << 8);
+        return new ImageDimensions(width, height);
+    }
+
+    // walk the segments until reaching a start-of-frame segment, which has the height and width
+    protected static ImageDimensions jpeg(DataInputStream in) throws IOException {
+        in.skipNBytes(2);
+        while (true) {
+            if (in.readUnsignedByte() != 0xff) {
+                return null;
+            }
+
+            // markers can be padded with extra 0xff bytes
+            int marker;
+            do {
+                marker = in.readUnsignedByte();
+            } while (marker == 0xff);
+
+            // these markers stand alone, without a length
+            if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+                continue;
+            }
+            if (marker == 0xd9 || marker == 0xda) {
+                // end of image, or start of the compressed data: there was no frame header
+                return null;
+            }
+
+            var length = in.readUnsignedShort();
+
+            // SOF0 through SOF15, except DHT (c4), JPG (c8) and DAC (cc), which share the range
+            if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+                in.skipNBytes(1); // sample precision
+                var height = in.readUnsignedShort();
+                var width = in.readUnsignedShort();
+                return new ImageDimensions(width, height);
+            }
+            in.skipNBytes(length - 2);
+        }
+    }
+
+    // read the root element's width and height, or its viewBox if they're missing (or aren't in pixels)
+    protected static ImageDimensions svg(InputStream is) {
+        try {
+            var factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            var reader = factory.createXMLStreamReader(is);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        var width = svgLength(reader.getAttributeValue(null, "width"));
+                        var height = svgLength(reader.getAttributeValue(null, "height"));
+                        if (width != null && height != null) {
+                            return new ImageDimensions(width, height);
+                        }
+                        var viewBox = reader.getAttributeValue(null, "viewBox");
+                        if (viewBox != null) {
+                            var values = viewBox.trim().split("[\\s,]+");
+                            if (values.length == 4) {
+                                return new ImageDimensions((int) Math.round(Double.parseDouble(values[2])), (int) Math.round(Double.parseDouble(values[3])));
+                            }
+                        }
+                        return null;
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException | NumberFormatException x) {
+            // not an svg we can make sense of
+        }
+        return null;
+    }
+
+    // a length in pixels (or with no units); null for anything else, like a percentage
+    protected static Integer svgLength(String value) {
+        if (value == null) {
+            return null;
+        }
+        var m = SVG_LENGTH.matcher(value);
+        return m.matches() ? (int) Math.round(Double.parseDouble(m.group(1))) : null;
+    }
+
+    // ask an ImageIO reader for the size, which only reads as much of the image as it needs to
+    protected static ImageDimensions imageReader(File imageFile) throws IOException {
+        try (var iis = ImageIO.createImageInputStream(imageFile)) {
+            var readers = iis == null ? null : ImageIO.getImageReaders(iis);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            var reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return new ImageDimensions(reader.getWidth(0), reader.getHeight(0));
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // an SVG is XML (possibly after a byte order mark and some whitespace) with an svg element near the start
+    protected static boolean looksLikeSvg(byte[] start) {
+        var text = new String(start, StandardCharsets.UTF_8);
+        if (text.startsWith("\uFEFF")) {
+            text = text.substring(1);
+        }
+        text = text.stripLeading();
+        return (text.startsWith("<?xml") || text.startsWith("<svg") || text.startsWith("<!")) && text.contains("<svg");
+    }
+
+    protected static int indexOf(byte[] bytes, byte b) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
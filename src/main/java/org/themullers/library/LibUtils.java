@@ -1,12 +1,18 @@
 package org.themullers.library;
 
-import com.amazonaws.services.s3.model.S3Object;
 import org.springframework.stereotype.Component;
 import org.themullers.library.db.LibraryDAO;
 import org.themullers.library.s3.LibraryOSAO;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -33,10 +39,12 @@ public class LibUtils {
 
     LibraryDAO dao;
     LibraryOSAO osao;
+    ObjectIndex objectIndex;
 
-    public LibUtils(LibraryDAO dao, LibraryOSAO osao) {
+    public LibUtils(LibraryDAO dao, LibraryOSAO osao, ObjectIndex objectIndex) {
         this.dao = dao;
         this.osao = osao;
+        this.objectIndex = objectIndex;
     }
 
     /**
@@ -116,35 +124,102 @@ public class LibUtils {
     }
 
     /**
-     * Writes an S3 object to an HTTP response object
+     * Builds a Content-Disposition header value that tells the browser to save a file.
      *
-     * @param obj      the S3 object to write
-     * @param response the HTTP response object to write to
-     * @throws IOException thrown if an unexpected error occurs writing to the response
+     * @param filename  the name the browser should save the file as
+     * @return  the header value
      */
-    public void writeS3ObjectToResponse(S3Object obj, HttpServletResponse response) throws IOException {
+    public String contentDisposition(String filename) {
 
         // escape any quotation marks in the filename with a backslash
-        var filename = obj.getKey();
         var escapedFilename = filename.replace("\"", "\\\"");
+        return String.format("attachment; filename=\"%s\"", escapedFilename);
+    }
 
-        // build the content disposition
-        var disposition = String.format("attachment; filename=\"%s\"", escapedFilename);
-
-        // convert the content length from the object metadata into an int as required by the servlet response object
-        var contentLength = Math.toIntExact(obj.getObjectMetadata().getContentLength());
+    /**
+     * Writes a file to an HTTP response.  If the servlet container supports it, the container is
+     * asked to send the file itself (with sendfile, so the file's content never has to be copied
+     * through the JVM); otherwise the file is copied to the response.
+     *
+     * @param file  the file to write
+     * @param mimeType  the file's mime type
+     * @param request  the HTTP request being responded to
+     * @param response  the HTTP response object to write to
+     * @throws IOException  thrown if an unexpected error occurs writing to the response
+     */
+    public void writeFileToResponse(File file, String mimeType, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        var length = file.length();
+        response.setContentType(mimeType);
+        response.setContentLengthLong(length);
+        writeFileRangeToResponse(file, 0, length, request, response);
+    }
 
-        // figure out a mime type based on the file's extension
-        var mimeType = mimeTypeForFile(filename);
+    /**
+     * Writes part of a file to an HTTP response (the caller sets the response's headers).  Like
+     * writeFileToResponse(), the container sends the bytes with sendfile if it can; otherwise they're
+     * transferred from the file's channel to the response.
+     *
+     * @param file  the file to write
+     * @param start  the offset of the first byte to write
+     * @param end  the offset just past the last byte to write
+     * @param request  the HTTP request being responded to
+     * @param response  the HTTP response object to write to
+     * @throws IOException  thrown if an unexpected error occurs writing to the response
+     */
+    public void writeFileRangeToResponse(File file, long start, long end, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        // if tomcat can send the file without our help, tell it which file to send
+        if (sendfileSupported(request)) {
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
 
-        // write the S3 object info to the response
-        response.setContentLength(contentLength);
-        response.setContentType(mimeType);
-        response.setHeader("Content-Disposition", disposition);
-        obj.getObjectContent().transferTo(response.getOutputStream());
+        // otherwise copy the file to the response
+        writeFileRange(file, start, end, response.getOutputStream());
         response.flushBuffer();
     }
 
+    /**
+     * Can the servlet container send a file for us (see writeFileRangeToResponse())?
+     *
+     * @param request  the HTTP request being responded to
+     * @return  true if the container supports sendfile for this request
+     */
+    public boolean sendfileSupported(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED));
+    }
+
+    /**
+     * Copies part of a file to a stream.
+     *
+     * @param file  the file to copy from
+     * @param start  the offset of the first byte to copy
+     * @param end  the offset just past the last byte to copy
+     * @param os  the stream to copy to
+     * @throws IOException  thrown if an unexpected error occurs reading the file or writing to the stream
+     */
+    public static void writeFileRange(File file, long start, long end, OutputStream os) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var out = Channels.newChannel(os);
+            var position = start;
+            while (position < end) {
+                var n = channel.transferTo(position, end - position, out);
+                if (n <= 0) {
+                    throw new EOFException("unexpected end of " + file);
+                }
+                position += n;
+            }
+        }
+    }
+
+    // request attributes used to hand a file to tomcat to send (see org.apache.coyote.Constants)
+    protected final static String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    protected final static String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    protected final static String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    protected final static String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     /**
      * Find object keys for assets that are not currently associated with a book.
      * @return  a list of object keys
@@ -159,7 +234,7 @@ public class LibUtils {
         var attachedAudiobooks = dao.fetchAllAudiobookObjectKeys();
 
         // for each asset in the object store
-        for (var objId : osao.listObjects()) {
+        for (var objId : objectIndex.listObjects()) {
 
             // if that asset's id is not associated with any books in the database
             if (!attachedEpubs.contains(objId) && !attachedMobis.contains(objId) && !attachedAudiobooks.contains(objId)) {
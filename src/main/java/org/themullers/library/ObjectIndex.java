@@ -0,0 +1,138 @@
+package org.themullers.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.themullers.library.db.LibraryDAO;
+import org.themullers.library.s3.LibraryOSAO;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A copy of the object store's list of objects (with each object's size, ETag and asset type),
+ * kept in the object_index table so the pages and tools that need to know what's in the store
+ * don't have to page through the whole bucket every time.
+ *
+ * The index is updated as objects are uploaded and deleted through the LibraryOSAO.  Because
+ * objects can also be added or removed behind the application's back, the index is periodically
+ * reconciled with the bucket: every object listed is stamped with the time of the refresh, and
+ * anything that wasn't listed is then removed.  The index is filled the first time it's used.
+ *
+ * The index also keeps the SHA-256 hash of each object's content, recorded when the object is
+ * uploaded (or by tools.ObjectHasher), so the LibraryOSAO can avoid uploading content it already has.
+ * An object's hash is forgotten if the refresh finds that its ETag has changed.
+ */
+@Service
+public class ObjectIndex implements LibraryOSAO.ObjectChangeListener, LibraryOSAO.ContentIndex {
+
+    private static Logger logger = LoggerFactory.getLogger(ObjectIndex.class);
+
+    LibraryDAO dao;
+    LibraryOSAO osao;
+
+    public ObjectIndex(LibraryDAO dao, LibraryOSAO osao) {
+        this.dao = dao;
+        this.osao = osao;
+        osao.addObjectChangeListener(this);
+        osao.setContentIndex(this);
+    }
+
+    /**
+     * List the keys of all the objects in the store.
+     * @return  a (modifiable) list of keys, in order
+     */
+    public List<String> listObjects() {
+        ensureFilled();
+        return dao.fetchIndexedObjectKeys();
+    }
+
+    /**
+     * List the keys of the objects of one type in the store.
+     * @param assetType  the type of asset (the key's extension, like "epub" or "m4b")
+     * @return  a (modifiable) list of keys, in order
+     */
+    public List<String> listObjects(String assetType) {
+        ensureFilled();
+        return dao.fetchIndexedObjectKeys(assetType);
+    }
+
+    /**
+     * List the keys of the objects whose content hasn't been hashed.
+     * @return  a (modifiable) list of keys, in order
+     */
+    public List<String> listUnhashedObjects() {
+        ensureFilled();
+        return dao.fetchUnhashedIndexedObjectKeys();
+    }
+
+    /**
+     * Bring the index up to date with everything in the bucket.
+     */
+    public synchronized void refresh() {
+
+        // truncate to the second, since that's all the database keeps
+        var start = new Date(System.currentTimeMillis() / 1000 * 1000);
+
+        // stamp every object in the bucket
+        var count = new int[1];
+        osao.listObjects(null, page -> {
+            dao.upsertIndexedObjects(page, ObjectIndex::assetType, start);
+            count[0] += page.size();
+        });
+
+        // and remove anything that wasn't listed
+        var removed = dao.deleteIndexedObjectsNotSeenSince(start);
+        logger.info("object index refreshed: {} objects, {} removed", count[0], removed);
+    }
+
+    @Scheduled(fixedDelayString = "${object.index.refresh.ms:3600000}", initialDelayString = "${object.index.refresh.ms:3600000}")
+    public void scheduledRefresh() {
+        refresh();
+    }
+
+    @Override
+    public void objectUploaded(String objectKey) {
+        var info = osao.readObjectInfo(objectKey);
+        dao.upsertIndexedObjects(List.of(info), ObjectIndex::assetType, new Date());
+    }
+
+    @Override
+    public void objectDeleted(String objectKey) {
+        dao.deleteIndexedObject(objectKey);
+    }
+
+    @Override
+    public String findObjectWithHash(String sha256) {
+        return dao.fetchIndexedObjectKeyByHash(sha256);
+    }
+
+    @Override
+    public void recordHash(String objectKey, String sha256) {
+        dao.setIndexedObjectHash(objectKey, sha256);
+    }
+
+    /**
+     * Work out what type of asset an object is.
+     * @param objectKey  the object's key
+     * @return  the key's extension, in lower case (or null if it doesn't have a reasonable one)
+     */
+    public static String assetType(String objectKey) {
+        var extension = Utils.getExtension(objectKey);
+        return Utils.isBlank(extension) || extension.length() > 16 ? null : extension.toLowerCase();
+    }
+
+    // HELPER METHODS
+
+    // fill the index from the bucket if it's empty
+    protected void ensureFilled() {
+        if (dao.countIndexedObjects() == 0) {
+            synchronized (this) {
+                if (dao.countIndexedObjects() == 0) {
+                    refresh();
+                }
+            }
+        }
+    }
+}
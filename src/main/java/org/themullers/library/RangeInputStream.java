@@ -0,0 +1,78 @@
+package org.themullers.library;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A stream that ends after a certain number of bytes have been read from another stream.
+ */
+public class RangeInputStream extends FilterInputStream {
+
+    protected long remaining;
+
+    public RangeInputStream(InputStream in, long length) {
+        super(in);
+        this.remaining = length;
+    }
+
+    /**
+     * Open a stream of part of a file.
+     * @param file  the file
+     * @param start  the offset of the first byte to read
+     * @param end  the offset of the last byte to read (inclusive)
+     * @return  a stream of the requested bytes
+     * @throws IOException  thrown if the file can't be opened
+     */
+    public static InputStream open(File file, long start, long end) throws IOException {
+        var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(start);
+        }
+        catch (IOException x) {
+            channel.close();
+            throw x;
+        }
+        return new RangeInputStream(Channels.newInputStream(channel), end - start + 1);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        var b = super.read();
+        if (b >= 0) {
+            remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        var n = super.read(b, off, (int) Math.min(len, remaining));
+        if (n > 0) {
+            remaining -= n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        var skipped = super.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(super.available(), remaining);
+    }
+}
@@ -0,0 +1,343 @@
+package org.themullers.library;
+
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory inverted index used to search the library's titles, authors, series, and tags.
+ *
+ * Text is split into words, folded to lower case, and stripped of accents, so a search for
+ * "bronte" finds "Brontë".  Each word in a search matches any indexed word it is a prefix of,
+ * and every word in the search has to match for a book to be found.  Books are ranked by where
+ * the words were found (a match in the title counts for more than a match in a tag) and whether
+ * they matched whole words or just prefixes.
+ *
+ * The index is built from the catalog the first time it's searched, and then updated one book
+ * at a time as the catalog changes.
+ */
+@Service
+public class SearchIndex implements Catalog.Listener {
+
+    // how much a match in each of a book's fields contributes to its score
+    protected final static int TITLE_WEIGHT = 10;
+    protected final static int ALT_TITLE_WEIGHT = 6;
+    protected final static int AUTHOR_WEIGHT = 4;
+    protected final static int SERIES_WEIGHT = 3;
+    protected final static int TAG_WEIGHT = 1;
+
+    // matching a whole word scores this many times more than matching a prefix of a word
+    protected final static int EXACT_MATCH_MULTIPLIER = 2;
+
+    protected final static Pattern MARKS = Pattern.compile("\\p{M}+");
+    protected final static Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    Catalog catalog;
+    ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // the snapshot that the index currently reflects (null until the index is built)
+    CatalogSnapshot snapshot;
+
+    // set once the index has been built, so searches only need the write lock the first time
+    volatile boolean built;
+
+    // word -> (book id -> weight)
+    TreeMap<String, Map<Integer, Integer>> bookPostings = new TreeMap<>();
+    NameIndex authors = new NameIndex();
+    NameIndex series = new NameIndex();
+
+    public SearchIndex(Catalog catalog) {
+        this.catalog = catalog;
+        catalog.addListener(this);
+    }
+
+    /**
+     * The results of a search.
+     * @param titles  the matching books, best match first
+     * @param authors  the matching authors, best match first
+     * @param seriesMap  the matching series (best match first), each with the authors of the books in that series
+     */
+    public record Results(List<Book> titles, List<String> authors, Map<String, List<String>> seriesMap) {}
+
+    /**
+     * Search the library.
+     * @param searchText  the text to search for
+     * @return  the books, authors and series that match every word in the search text
+     */
+    public Results search(String searchText) {
+        var words = tokenize(searchText);
+        if (words.isEmpty()) {
+            return new Results(List.of(), List.of(), Map.of());
+        }
+
+        ensureBuilt();
+        lock.readLock().lock();
+        try {
+
+            // find and rank the books
+            var bookScores = match(bookPostings, words);
+            var titles = new ArrayList<Book>();
+            for (var id : ranked(bookScores)) {
+                titles.add(snapshot.fetchBook(id));
+            }
+
+            // find and rank the authors
+            var authorNames = authors.search(words);
+
+            // find and rank the series, and get the authors of each one
+            var seriesMap = new LinkedHashMap<String, List<String>>();
+            for (var name : series.search(words)) {
+                var seriesAuthors = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+                for (var book : snapshot.fetchBooksInSeries(name)) {
+                    if (book.getAuthor() != null) {
+                        seriesAuthors.add(book.getAuthor());
+                    }
+                }
+                seriesMap.put(name, new ArrayList<>(seriesAuthors));
+            }
+
+            return new Results(titles, authorNames, seriesMap);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Update the index to reflect a change to one book.
+     * @param snapshot  the new snapshot
+     * @param before  the book before the change (null if the book was just added)
+     * @param after  the book after the change (null if the book was deleted)
+     */
+    @Override
+    public void catalogChanged(CatalogSnapshot snapshot, Book before, Book after) {
+        lock.writeLock().lock();
+        try {
+
+            // if the index hasn't been built yet, it will reflect this change when it is
+            if (this.snapshot == null || snapshot.getVersion() <= this.snapshot.getVersion()) {
+                return;
+            }
+
+            // if we missed a version (or the whole catalog was reloaded), we can't apply just this change; start over
+            if (snapshot.getVersion() != this.snapshot.getVersion() + 1 || (before == null && after == null)) {
+                build(snapshot);
+                return;
+            }
+
+            if (before != null) {
+                remove(before);
+            }
+            if (after != null) {
+                add(after);
+            }
+            this.snapshot = snapshot;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Split text into lower case, accent-free words.
+     * @param text  the text to split
+     * @return  the words, in the order they appear in the text
+     */
+    public static List<String> tokenize(String text) {
+        var words = new ArrayList<String>();
+        if (text != null) {
+            var folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+            for (var word : NON_WORD.split(folded)) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+
+    // HELPER METHODS
+
+    // build the index from the catalog if that hasn't been done yet
+    protected void ensureBuilt() {
+        if (built) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (snapshot == null) {
+                build(catalog.snapshot());
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // index all the books in a snapshot (the caller must hold the write lock)
+    protected void build(CatalogSnapshot snapshot) {
+        bookPostings.clear();
+        authors = new NameIndex();
+        series = new NameIndex();
+        for (var book : snapshot.fetchAllBooks()) {
+            add(book);
+        }
+        this.snapshot = snapshot;
+        built = true;
+    }
+
+    // add a book to the index
+    protected void add(Book book) {
+        fieldWeights(book).forEach((word, weight) -> bookPostings.computeIfAbsent(word, w -> new HashMap<>()).put(book.getId(), weight));
+        for (var author : authorsOf(book)) {
+            authors.add(author);
+        }
+        series.add(book.getSeries());
+    }
+
+    // remove a book from the index
+    protected void remove(Book book) {
+        for (var word : fieldWeights(book).keySet()) {
+            var postings = bookPostings.get(word);
+            if (postings != null) {
+                postings.remove(book.getId());
+                if (postings.isEmpty()) {
+                    bookPostings.remove(word);
+                }
+            }
+        }
+        for (var author : authorsOf(book)) {
+            authors.remove(author);
+        }
+        series.remove(book.getSeries());
+    }
+
+    // get the words in a book's searchable fields, each with the sum of the weights of the fields it appears in
+    protected static Map<String, Integer> fieldWeights(Book book) {
+        var weights = new HashMap<String, Integer>();
+        addField(weights, book.getTitle(), TITLE_WEIGHT);
+        addField(weights, book.getAltTitle1(), ALT_TITLE_WEIGHT);
+        addField(weights, book.getAltTitle2(), ALT_TITLE_WEIGHT);
+        for (var author : authorsOf(book)) {
+            addField(weights, author, AUTHOR_WEIGHT);
+        }
+        addField(weights, book.getSeries(), SERIES_WEIGHT);
+        for (var tag : book.getTags()) {
+            addField(weights, tag, TAG_WEIGHT);
+        }
+        return weights;
+    }
+
+    // add the words in one field to a book's word weights (a word repeated within a field only counts once)
+    protected static void addField(Map<String, Integer> weights, String text, int weight) {
+        for (var word : new HashSet<>(tokenize(text))) {
+            weights.merge(word, weight, Integer::sum);
+        }
+    }
+
+    protected static List<String> authorsOf(Book book) {
+        var list = new ArrayList<String>(3);
+        for (var author : new String[] { book.getAuthor(), book.getAuthor2(), book.getAuthor3() }) {
+            if (!Utils.isBlank(author)) {
+                list.add(author);
+            }
+        }
+        return list;
+    }
+
+    // score the items that match every search word; each search word contributes its best match
+    protected static <K> Map<K, Integer> match(TreeMap<String, Map<K, Integer>> postings, List<String> words) {
+        Map<K, Integer> scores = null;
+        for (var word : words) {
+
+            // score the items containing a word that starts with this search word
+            var wordScores = new HashMap<K, Integer>();
+            for (var entry : postings.tailMap(word, true).entrySet()) {
+                if (!entry.getKey().startsWith(word)) {
+                    break;
+                }
+                var multiplier = entry.getKey().length() == word.length() ? EXACT_MATCH_MULTIPLIER : 1;
+                entry.getValue().forEach((item, weight) -> wordScores.merge(item, weight * multiplier, Math::max));
+            }
+
+            // keep only the items that also matched the previous words
+            if (scores == null) {
+                scores = wordScores;
+            }
+            else {
+                var previous = scores;
+                scores = new HashMap<>();
+                for (var entry : previous.entrySet()) {
+                    var score = wordScores.get(entry.getKey());
+                    if (score != null) {
+                        scores.put(entry.getKey(), entry.getValue() + score);
+                    }
+                }
+            }
+
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+        return scores;
+    }
+
+    // order the matched items by descending score
+    protected static <K extends Comparable<K>> List<K> ranked(Map<K, Integer> scores) {
+        var list = new ArrayList<>(scores.keySet());
+        list.sort(Comparator.comparing((K k) -> scores.get(k)).reversed().thenComparing(Comparator.naturalOrder()));
+        return list;
+    }
+
+    /**
+     * An index of names (authors or series), with a count of the books that use each name so
+     * a name can be dropped from the index when its last book is removed.
+     */
+    protected static class NameIndex {
+
+        Map<String, Integer> bookCounts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        // word -> (name -> weight)
+        TreeMap<String, Map<String, Integer>> postings = new TreeMap<>();
+
+        void add(String name) {
+            if (Utils.isBlank(name)) {
+                return;
+            }
+            if (bookCounts.merge(name, 1, Integer::sum) == 1) {
+                for (var word : tokenize(name)) {
+                    postings.computeIfAbsent(word, w -> new TreeMap<>(String.CASE_INSENSITIVE_ORDER)).put(name, 1);
+                }
+            }
+        }
+
+        void remove(String name) {
+            if (Utils.isBlank(name) || !bookCounts.containsKey(name)) {
+                return;
+            }
+            if (bookCounts.merge(name, -1, Integer::sum) == 0) {
+                bookCounts.remove(name);
+                for (var word : tokenize(name)) {
+                    var names = postings.get(word);
+                    if (names != null) {
+                        names.remove(name);
+                        if (names.isEmpty()) {
+                            postings.remove(word);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<String> search(List<String> words) {
+            var scores = match(postings, words);
+            var list = new ArrayList<>(scores.keySet());
+            list.sort(Comparator.comparing((String name) -> scores.get(name)).reversed().thenComparing(String.CASE_INSENSITIVE_ORDER));
+            return list;
+        }
+    }
+}
@@ -2,20 +2,20 @@ package org.themullers.library;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbookFactory;
 import org.springframework.stereotype.Service;
 import org.themullers.library.db.LibraryDAO;
 import org.themullers.library.s3.LibraryOSAO;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -38,63 +38,63 @@ public class SpreadsheetService {
     public static final String SHEET_NAME = "Media Assets";
     public static final String SHEET_NEW_AUDIOBOOKS = "New Audiobooks";
 
+    // the number of rows the spreadsheet download keeps in memory; older rows are written out to a temporary file
+    protected static final int DOWNLOAD_ROW_WINDOW = 100;
+
     // this is m/d/yy according to https://poi.apache.org/apidocs/dev/org/apache/poi/ss/usermodel/BuiltinFormats.html
     public static final short EXCEL_BUILTIN_MDY_FORMAT = 0xe;
 
     /**
      * Download an Excel spreadsheet containing all the metadata about all the books in the library.
-     * @return the binary content of the spreadsheet
+     * The rows are written as the books are streamed from the database, and only the last few are
+     * held in memory, so the heap used doesn't grow with the size of the library.
+     * @param os  the stream to write the spreadsheet to
      * @throws IOException  thrown if an unexpected error occurs creating or transferring the spreadsheet
      */
-    public byte[] download() throws IOException {
-        var books = dao.fetchAllBooks();
-        var objects = osao.listObjects();
-        var dbEbooks = new LinkedList<String>();
-        var dbAudiobooks = new LinkedList<String>();
-
-        var wb = XSSFWorkbookFactory.createWorkbook();
-        var sheet = wb.createSheet(SHEET_NAME);
-        var audioSheet = wb.createSheet(SHEET_NEW_AUDIOBOOKS);
-
-        // make the text larger for my geriatric eyeballs
-        sheet.setZoom(150);
-        audioSheet.setZoom(150);
-
-        // create a header row
-        var header = sheet.createRow(0);
-        for (var column : Column.values()) {
-            header.createCell(column.getNumber()).setCellValue(column.getHeader());
-        }
+    public void download(OutputStream os) throws IOException {
+        var wb = new SXSSFWorkbook(DOWNLOAD_ROW_WINDOW);
+        try {
+            var sheet = wb.createSheet(SHEET_NAME);
+            var audioSheet = wb.createSheet(SHEET_NEW_AUDIOBOOKS);
+
+            // make the text larger for my geriatric eyeballs
+            sheet.setZoom(150);
+            audioSheet.setZoom(150);
+
+            // the column widths are worked out as the rows are written, since the rows won't all be around at the end
+            sheet.trackAllColumnsForAutoSizing();
+
+            // create a header row, with bold text
+            var boldFont = wb.createFont();
+            boldFont.setBold(true);
+            var headerStyle = wb.createCellStyle();
+            headerStyle.setFont(boldFont);
+            var header = sheet.createRow(0);
+            for (var column : Column.values()) {
+                var cell = header.createCell(column.getNumber());
+                cell.setCellValue(column.getHeader());
+                cell.setCellStyle(headerStyle);
+            }
 
-        // create a bold font
-        var newFont = wb.createFont();
-        newFont.setBold(true);
+            // write each book that we found in the database to the spreadsheet (as the books are streamed from the database)
+            var rowNum = new AtomicInteger(1);
+            dao.streamAllBooks(book -> writeBookToSpreadsheet(book, sheet, rowNum.getAndIncrement()));
 
-        // make each header cell bold
-        for (var column : Column.values()) {
-            var cell = header.getCell(column.getNumber());
-            var style = cell.getCellStyle().copy();
-            style.setFont(newFont);
-            cell.setCellStyle(style);
-        }
+            // resize the columns to fit the content
+            for (var column : Column.values()) {
+                sheet.autoSizeColumn(column.getNumber());
+            }
 
-        // write each book that we found in the database to the spreadsheet
-        int rowNum = 1;
-        for (var book : books) {
-            writeBookToSpreadsheet(book, sheet, rowNum++);
-            addToList(book.getEpubObjectKey(), dbEbooks);
-            addToList(book.getAudiobookObjectKey(), dbAudiobooks);
-        }
+            // freeze the header row
+            sheet.createFreezePane(0,1);
 
-        // resize the columns to fit the content
-        for (var column : Column.values()) {
-            sheet.autoSizeColumn(column.getNumber());
+            wb.write(os);
+        }
+        finally {
+            // delete the temporary file the rows were written to
+            wb.dispose();
+            wb.close();
         }
-
-        // freeze the header row
-        sheet.createFreezePane(0,1);
-
-        return bytesForWorkbook(wb);
     }
 
     /**
@@ -116,7 +116,7 @@ public class SpreadsheetService {
 
                 System.out.println("row " + poiRow.getRowNum());
 
-                var row = new BookRow((XSSFRow) poiRow);
+                var row = new BookRow(poiRow);
 
                 // skip the header row and blank rows
                 if (row.isHeader() || row.isBlank()) {
@@ -204,25 +204,13 @@ public class SpreadsheetService {
         return book;
     }
 
-    /**
-     * Adds an item to a list, checking first to make sure it's not null and not already in the list.
-     * TODO: use a set instead of a list?
-     * @param item  the item to add to the list
-     * @param list  the list to add the item to
-     */
-    protected void addToList(String item, List<String> list) {
-        if (item != null && !list.contains(item)) {
-            list.add(item);
-        }
-    }
-
     /**
      * Creates a new row in a spreadsheet containing information about a book.
      * @param book  the book with information to be written to the spreadsheet
      * @param sheet  the sheet within the workbook to write to
      * @param rowNum  which row to write the book information to
      */
-    protected void writeBookToSpreadsheet(Book book, XSSFSheet sheet, int rowNum) {
+    protected void writeBookToSpreadsheet(Book book, Sheet sheet, int rowNum) {
         var row = new BookRow(sheet.createRow(rowNum));
         row.setValue(Column.DBID, book.getId());
         row.setValue(Column.TITLE, book.getTitle());
@@ -251,30 +239,12 @@ public class SpreadsheetService {
         row.setValue(Column.ASIN, book.getAmazonId());
     }
 
-    /**
-     * Writes an Excel spreadsheet (workbook) to a byte array.
-     * @param wb  the spreadsheet to write
-     * @return  a byte array representing the binary content of the spreadsheet
-     * @throws IOException
-     */
-    static byte[] bytesForWorkbook(XSSFWorkbook wb) throws IOException {
-
-        byte bytes[];
-
-        try (var bos = new ByteArrayOutputStream()) {
-            wb.write(bos);
-            bytes = bos.toByteArray();
-        }
-
-        return bytes;
-    }
-
     /**
      * Structure representing a row of a spreadsheet.
      */
     static class BookRow {
-        private XSSFRow row;
-        public BookRow(XSSFRow row) {
+        private Row row;
+        public BookRow(Row row) {
             this.row = row;
         }
 
@@ -323,10 +293,8 @@ public class SpreadsheetService {
             var cell = row.createCell(column.getNumber());
             cell.setCellValue(value);
 
-            // format the cell to display the date correctly
-            var style = cell.getCellStyle().copy();
-            style.setDataFormat(EXCEL_BUILTIN_MDY_FORMAT);
-            cell.setCellStyle(style);
+            // format the cell to display the date correctly (sharing one style between all the date cells)
+            CellUtil.setCellStyleProperty(cell, CellUtil.DATA_FORMAT, EXCEL_BUILTIN_MDY_FORMAT);
         }
 
         // is this a header row?  (the first row in the spreadsheet)
@@ -4,14 +4,9 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.themullers.library.auth.LibraryUserDetails;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
  * This class contains generic utility methods that are not specific to the library application.
@@ -88,30 +83,6 @@ public class Utils {
         return pattern.matcher(email).matches();
     }
 
-    /**
-     * Un-zips a zip file into a map of byte arrays; the keys of the  map
-     * are the filenames and the values are the binary content of each file.
-     * @param is  a stream from which the zip file can be read
-     * @return  a map of filenames and binary content
-     * @throws IOException  thrown if an unexpected error occurs while unzipping the file
-     */
-    public static Map<String, byte[]> unzip(InputStream is) throws IOException {
-
-        var map = new HashMap<String, byte[]>();
-
-        // open the zip
-        try (var zis = new ZipInputStream(is)) {
-            ZipEntry entry;
-
-            // add each entry to the map
-            while ((entry = zis.getNextEntry()) != null) {
-                map.put(entry.getName(), zis.readAllBytes());
-            }
-        }
-
-        return map;
-    }
-
     /**
      * Get the extension from a filename.
      * @param filename  the filename to search
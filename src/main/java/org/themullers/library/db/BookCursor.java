@@ -0,0 +1,122 @@
+package org.themullers.library.db;
+
+import org.themullers.library.Book;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A position in an ordered list of books.  The cursor remembers the sort key values of the last
+ * book on a page so that the next page can be found by seeking directly past that book (with a
+ * binary search of the sorted list; see CatalogSnapshot) rather than by counting off all the books
+ * on the earlier pages.
+ *
+ * Cursors are passed around in URLs as opaque strings; see encode() and decode().
+ */
+public class BookCursor {
+
+    // marks a null value in the encoded cursor; URLEncoder always escapes a tilde, so it can't be confused with a value
+    protected final static String NULL_VALUE = "~";
+
+    protected String order;
+    protected List<String> values;
+
+    protected BookCursor(String order, List<String> values) {
+        this.order = order;
+        this.values = values;
+    }
+
+    /**
+     * Create a cursor positioned just after a book.
+     * @param book  the last book on the current page
+     * @param order  one of the LibraryDAO.BOOK_ORDER_* values; the order the books are listed in
+     * @return  a cursor that can be used to fetch the books that follow this book
+     */
+    public static BookCursor after(Book book, String order) {
+        var values = new ArrayList<String>();
+        for (var key : LibraryDAO.sortKeys(order)) {
+            values.add(sortValue(book, key.column()));
+        }
+        return new BookCursor(order, values);
+    }
+
+    /**
+     * Encode this cursor as a URL-safe string.
+     * @return  the encoded cursor
+     */
+    public String encode() {
+        var sb = new StringBuilder(encodeValue(order));
+        for (var value : values) {
+            sb.append(',').append(encodeValue(value));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor that was previously encoded with encode().
+     * @param encoded  the encoded cursor (may be null)
+     * @param order  the order the caller is listing books in
+     * @return  the cursor, or null if there was no cursor, it couldn't be decoded, or it was created for a different order
+     */
+    public static BookCursor decode(String encoded, String order) {
+
+        // no cursor was provided
+        if (encoded == null || encoded.isBlank()) {
+            return null;
+        }
+
+        try {
+            var text = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            var fields = text.split(",", -1);
+
+            // a cursor created for one sort order can't be used to seek in another
+            var cursorOrder = decodeValue(fields[0]);
+            if (!cursorOrder.equals(order) || fields.length - 1 != LibraryDAO.sortKeys(order).size()) {
+                return null;
+            }
+
+            // decode each value, making sure it can be converted to its column's type
+            var keys = LibraryDAO.sortKeys(order);
+            var values = new ArrayList<String>();
+            for (int i = 1; i < fields.length; i++) {
+                var value = decodeValue(fields[i]);
+                LibraryDAO.cursorValue(keys.get(i - 1).column(), value);
+                values.add(value);
+            }
+            return new BookCursor(cursorOrder, values);
+        }
+        catch (IllegalArgumentException | NullPointerException x) {
+            // the cursor was mangled; just start from the beginning
+            return null;
+        }
+    }
+
+    public String getOrder() {
+        return order;
+    }
+
+    public List<String> getValues() {
+        return Collections.unmodifiableList(values);
+    }
+
+    // HELPER METHODS
+
+    // get the value of one of the sort key columns from a book, as a string
+    protected static String sortValue(Book book, LibraryDAO.BOOK_COLS column) {
+        var value = LibraryDAO.columnValue(book, column);
+        return value == null ? null : value.toString();
+    }
+
+    protected static String encodeValue(String value) {
+        return value == null ? NULL_VALUE : URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    protected static String decodeValue(String field) {
+        return NULL_VALUE.equals(field) ? null : URLDecoder.decode(field, StandardCharsets.UTF_8);
+    }
+}
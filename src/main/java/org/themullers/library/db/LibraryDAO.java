@@ -1,24 +1,29 @@
 package org.themullers.library.db;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.themullers.library.AuthorInfo;
 import org.themullers.library.Book;
+import org.themullers.library.CoverImage;
 import org.themullers.library.Review;
 import org.themullers.library.User;
 import org.themullers.library.auth.pwreset.PasswordResetToken;
+import org.themullers.library.s3.ObjectInfo;
 
-import java.sql.Blob;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -28,12 +33,34 @@ import java.util.stream.Collectors;
 public class LibraryDAO {
 
     JdbcTemplate jt;
+    List<BookChangeListener> bookChangeListeners = new CopyOnWriteArrayList<>();
 
     @Autowired
     public LibraryDAO(JdbcTemplate jt) {
         this.jt = jt;
     }
 
+    /**
+     * Implemented by objects that keep copies of book information (like the in-memory catalog)
+     * and need to know when a book, its tags, or its ratings have changed.
+     */
+    public interface BookChangeListener {
+
+        /**
+         * Called after a change to a book has been committed.
+         * @param bookId  the id of the book that was inserted, updated, or deleted
+         */
+        void bookChanged(int bookId);
+    }
+
+    /**
+     * Register an object to be notified when books change.
+     * @param listener  the object to notify
+     */
+    public void addBookChangeListener(BookChangeListener listener) {
+        bookChangeListeners.add(listener);
+    }
+
     /**
      * An enumeration of all the columns in the user table.
      */
@@ -221,14 +248,14 @@ public class LibraryDAO {
 
         String sql = """
                 select
-                    %s, group_concat(distinct t.tag separator ',') as tags, 
-                    (select round(avg(num_stars)) from reviews r where book_id = a.id and r.num_stars > 0) as avg_rating, 
+                    %s,
+                    s.avg_rating, %s,
                     v.*, 
                     u.*
                 from books a
                 inner join reviews v on v.book_id = a.id
                 inner join users u on u.id = v.user_id
-                left outer join tags t on a.id = t.book_id
+                left outer join book_stats s on s.book_id = a.id
                 where v.recommended = 1
                 %s
                 group by a.id
@@ -236,183 +263,116 @@ public class LibraryDAO {
                 limit %s offset %s
                 """;
 
-        sql = String.format(sql, commaSeparated(BOOK_COLS.class, "a"), userFilter, limit, offset);
+        sql = String.format(sql, commaSeparated(BOOK_COLS.class, "a"), COVER_SHA256_COL, userFilter, limit, offset);
 
-        return jt.query(sql, LibraryDAO::mapBookAndReview);
+        var recos = jt.query(sql, LibraryDAO::mapBookAndReview);
+        loadTags(recos.stream().map(BookAndReview::book).toList());
+        return recos;
     }
 
-    /**
-     * Fetch the books that have a certain tag.
-     * @param tag  the tag filtering which books will be returned
-     * @param limit  don't return more books than this threshold
-     * @param offset  skip this number of books from the beginning of the results
-     * @param order  one of the BOOK_ORDER_* values or null
-     * @return  a list of books
-     */
-    public List<Book> fetchBooksWithTag(String tag, int limit, int offset, String order) {
-
-        String sql = """
-                select
-                    %s, group_concat(distinct t.tag separator ',') as tags, (select round(avg(num_stars)) from reviews r where book_id = a.id and r.num_stars > 0) as avg_rating
-                from (
-                    select x.* from books x inner join tags y on x.id = y.book_id where y.tag = ?
-                ) as a
-                left outer join tags t on a.id = t.book_id
-                group by a.id
-                order by %s
-                limit %s offset %s
-                """;
-
-        sql = String.format(sql, commaSeparated(BOOK_COLS.class, "a"), orderBySql(order), limit, offset);
-
-        return jt.query(sql, LibraryDAO::mapBook, tag);
-    }
+    // the hash of a book's current cover (kept on the book by the methods that write covers), selected along with the book so its cover URL can be versioned
+    protected final static String COVER_SHA256_COL = "a.cover_sha256";
 
     /**
-     * Fetch all the audiobooks.
-     * @param limit  don't return more books than this threshold
-     * @param offset  skip this number of books from the beginning of the results
-     * @param order  one of the BOOK_ORDER_* values or null
-     * @return  a list of books
+     * A column that books are sorted by, and the direction of the sort.
      */
-    public List<Book> fetchAudiobooks(int limit, int offset, String order) {
-
-        String sql = """
-                select
-                    %s, group_concat(distinct t.tag separator ',') as tags, (select round(avg(num_stars)) from reviews r where book_id = a.id and r.num_stars > 0) as avg_rating
-                from books a
-                left outer join tags t on a.id = t.book_id
-                where a.audiobook_object_key is not null
-                group by a.id
-                order by %s
-                limit %s offset %s
-                """;
-
-        sql = String.format(sql, commaSeparated(BOOK_COLS.class, "a"), orderBySql(order), limit, offset);
-
-        return jt.query(sql, LibraryDAO::mapBook);
-    }
+    protected record SortKey(BOOK_COLS column, boolean descending) {}
 
     /**
-     * Generate SQL to order a book query based on the BOOK_ORDER_* constant specified.
+     * Get the columns that books are sorted by for one of the BOOK_ORDER_* constants.
+     * Every order ends with the book's id so that the order is unambiguous and a cursor
+     * can always identify exactly where a page ended.
+     *
      * @param orderByConst  the desired order
-     * @return  a SQL order by clause
+     * @return  the sort keys, most significant first
      */
-    protected String orderBySql(String orderByConst) {
+    protected static List<SortKey> sortKeys(String orderByConst) {
+        var asc = false;
+        var desc = true;
         return switch (orderByConst) {
-            case BOOK_ORDER_TITLE -> "a.title";
-            case BOOK_ORDER_AUTHOR -> "a.author, a.series, a.series_sequence, a.pub_year";
-            case BOOK_ORDER_PUB_YEAR_DESC -> "a.pub_year desc, a.title";
-            case BOOK_ORDER_ACQ_DATE_DESC -> "a.acq_date desc, a.title";
-            case BOOK_ORDER_PUB_YEAR_ASC -> "a.pub_year asc, a.title";
-            case BOOK_ORDER_ACQ_DATE_ASC -> "a.acq_date asc, a.title";
-            default -> "a.acq_date desc, a.title";
+            case BOOK_ORDER_TITLE -> List.of(new SortKey(BOOK_COLS.title, asc), new SortKey(BOOK_COLS.id, asc));
+            case BOOK_ORDER_AUTHOR -> List.of(new SortKey(BOOK_COLS.author, asc), new SortKey(BOOK_COLS.series, asc), new SortKey(BOOK_COLS.series_sequence, asc), new SortKey(BOOK_COLS.pub_year, asc), new SortKey(BOOK_COLS.id, asc));
+            case BOOK_ORDER_PUB_YEAR_DESC -> List.of(new SortKey(BOOK_COLS.pub_year, desc), new SortKey(BOOK_COLS.title, asc), new SortKey(BOOK_COLS.id, asc));
+            case BOOK_ORDER_PUB_YEAR_ASC -> List.of(new SortKey(BOOK_COLS.pub_year, asc), new SortKey(BOOK_COLS.title, asc), new SortKey(BOOK_COLS.id, asc));
+            case BOOK_ORDER_ACQ_DATE_ASC -> List.of(new SortKey(BOOK_COLS.acq_date, asc), new SortKey(BOOK_COLS.title, asc), new SortKey(BOOK_COLS.id, asc));
+            default -> List.of(new SortKey(BOOK_COLS.acq_date, desc), new SortKey(BOOK_COLS.title, asc), new SortKey(BOOK_COLS.id, asc));
         };
     }
 
-    /**
-     * Get information about each author in the library: name, title count, and tags associated with that author's work.
-     *
-     * @return  a list of AuthorInfo objects
-     */
-    public List<AuthorInfo> getAuthorInfo() {
-        String sql = """
-                select t.author, c.num_books, t.tags from (
-                  select b.author as author, group_concat(distinct t.tag separator ',') as tags
-                      from books b left outer join tags t
-                      on t.book_id = b.id group by b.author
-                ) as t
-                left outer join (
-                  select author as author, count(*) as num_books from books a group by author
-                ) as c on c.author = t.author
-                order by t.author
-                """;
-
-        return jt.query(sql, new RowMapper<AuthorInfo>() {
-            @Override
-            public AuthorInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
-                return new AuthorInfo(rs.getString("author"), rs.getInt("num_books"), rs.getString("tags"));
-            }
-        });
-    }
-
-    /**
-     * Count the number of titles in the library.
-     * @return  the number of titles in the library
-     */
-    public int countTitles() {
-        return jt.queryForObject("select count(*) from books", Integer.class);
-    }
-
-    /**
-     * Count the number of authors in the library.
-     * @return  the number of authors in the library
-     */
-    public int countAuthors() {
-        return jt.queryForObject("select count(distinct author) from books", Integer.class);
-    }
-
-    /**
-     * Count the number of audiobooks in the library.
-     * @return  the number of audiobooks in the library
-     */
-    public int countAudiobooks() {
-        return jt.queryForObject("select count(*) from books where books.audiobook_object_key is not null", Integer.class);
-    }
-
-    /**
-     * Find books where the title contains certain text.
-     * @param searchText  the text to search for
-     * @return  a list of books
-     */
-    public List<Book> searchTitles(String searchText) {
-        String sql = String.format("select %s, group_concat(t.tag separator ',') as tags, (select round(avg(num_stars)) from reviews r where book_id = a.id and r.num_stars > 0) as avg_rating from books a left outer join tags t on a.id = t.book_id where a.title like ? group by a.id", commaSeparated(BOOK_COLS.class, "a"));
-        return jt.query(sql, LibraryDAO::mapBook, "%" + searchText + "%");
+    // convert a cursor value (a string) to the type of the book value it is compared with
+    protected static Object cursorValue(BOOK_COLS column, String value) {
+        if (value == null) {
+            return null;
+        }
+        return switch (column) {
+            case id, pub_year, series_sequence -> Integer.valueOf(value);
+            case acq_date -> java.sql.Date.valueOf(value);
+            default -> value;
+        };
     }
 
     /**
-     * Find authors matching certain text.
-     * @param searchText  the text to search for
-     * @return  a list of authors
+     * Get a comparator that sorts books for one of the BOOK_ORDER_* constants (string
+     * comparisons ignore case, like the database's collation).
+     * @param orderByConst  the desired order
+     * @return  a comparator
      */
-    public List<String> searchAuthors(String searchText) {
-        var wildcard = "%" + searchText + "%";
-        var authors = jt.queryForList("select distinct author from books where author like ?", String.class, wildcard);
-        Collections.sort(authors);
-        return authors;
+    public static Comparator<Book> bookComparator(String orderByConst) {
+        var keys = sortKeys(orderByConst);
+        return (a, b) -> {
+            for (var key : keys) {
+                var diff = compareValues(columnValue(a, key.column()), columnValue(b, key.column()));
+                if (diff != 0) {
+                    return key.descending() ? -diff : diff;
+                }
+            }
+            return 0;
+        };
     }
 
     /**
-     * Find series matching certain text.
-     * @param searchText  the text to search for
-     * @return  a map of series referencing a list of authors that wrote books in the series
+     * Compare a book with a cursor's position, using the cursor's order.
+     * @param book  a book
+     * @param cursor  a position in a list of books
+     * @return  a negative number, zero, or a positive number if the book sorts before, at, or after the cursor
      */
-    public Map<String, List<String>> searchSeries(String searchText) {
-        return jt.query("select distinct series, author from books where series like ?", rs -> {
-
-            // create a map of series -> list of authors
-            var map = new HashMap<String, List<String>>();
-
-            // for each result
-            var hasMore = rs.first();
-            while (hasMore) {
-
-                // get the series and author
-                var series = rs.getString("series");
-                var author = rs.getString("author");
-
-                // make a list for the authors of this series (if it's not already there)
-                map.putIfAbsent(series, new LinkedList<String>());
-
-                // add the author to the list for this series
-                map.get(series).add(author);
-
-                // move to the next result
-                hasMore = rs.next();
+    public static int compareToCursor(Book book, BookCursor cursor) {
+        var keys = sortKeys(cursor.getOrder());
+        var values = cursor.getValues();
+        for (int i = 0; i < keys.size(); i++) {
+            var column = keys.get(i).column();
+            var diff = compareValues(columnValue(book, column), cursorValue(column, values.get(i)));
+            if (diff != 0) {
+                return keys.get(i).descending() ? -diff : diff;
             }
+        }
+        return 0;
+    }
+
+    // get the value of one of the sort key columns from a book
+    protected static Object columnValue(Book book, BOOK_COLS column) {
+        return switch (column) {
+            case id -> book.getId();
+            case title -> book.getTitle();
+            case author -> book.getAuthor();
+            case series -> book.getSeries();
+            case series_sequence -> book.getSeriesSequence();
+            case pub_year -> book.getPublicationYear();
+            case acq_date -> book.getAcquisitionDate() == null ? null : new java.sql.Date(book.getAcquisitionDate().getTime());
+            default -> throw new IllegalArgumentException("not a sort key column: " + column);
+        };
+    }
 
-            return map;
-        }, "%" + searchText + "%");
+    // compare two sort key values; nulls sort first
+    @SuppressWarnings("unchecked")
+    protected static int compareValues(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        if (a instanceof String aStr && b instanceof String bStr) {
+            return aStr.compareToIgnoreCase(bStr);
+        }
+        return ((Comparable<Object>) a).compareTo(b);
     }
 
     /**
@@ -424,6 +384,14 @@ public class LibraryDAO {
         return jt.queryForObject("select count(*) from cover_images where book_id = ?", Integer.class, bookId) > 0;
     }
 
+    /**
+     * Returns the ids of all the books that have a cover image uploaded.
+     * @return  a set of book ids
+     */
+    public Set<Integer> fetchBookIdsWithCoverImages() {
+        return new HashSet<>(jt.queryForList("select distinct book_id from cover_images", Integer.class));
+    }
+
     /**
      * Looks up a book with an EPUB having a certain object key.
      * @param epubObjectKey  the object key to search for
@@ -500,21 +468,104 @@ public class LibraryDAO {
      * @return  list of books
      */
     public List<Book> fetchAllBooks() {
-        String sql = String.format("select %s, group_concat(t.tag separator ',') as tags, (select round(avg(num_stars)) from reviews v where book_id = a.id and v.num_stars > 0) as avg_rating from books a left outer join tags t on a.id = t.book_id group by a.id", commaSeparated(BOOK_COLS.class, "a"));
-        return jt.query(sql, LibraryDAO::mapBook);
+        String sql = String.format("select %s, s.avg_rating, %s from books a left outer join book_stats s on s.book_id = a.id", commaSeparated(BOOK_COLS.class, "a"), COVER_SHA256_COL);
+        var books = jt.query(sql, LibraryDAO::mapBook);
+
+        // load all the tags in one pass rather than listing every book's id
+        var booksById = new HashMap<Integer, Book>();
+        books.forEach(book -> booksById.put(book.getId(), book));
+        jt.query("select bt.book_id, n.name from book_tags bt inner join tag_names n on n.id = bt.tag_id", row -> {
+            var book = booksById.get(row.getInt(1));
+            if (book != null) {
+                book.addTag(row.getString(2));
+            }
+        });
+        return books;
+    }
+
+    /**
+     * Hands each book in the database (with its tags and average rating) to a consumer as the rows
+     * arrive from the database, so the whole library never has to be held in memory at once.
+     *
+     * The query is read with a forward-only cursor that the MariaDB driver streams a few rows at a
+     * time.  While it is streaming, the connection can't be used for anything else, so the consumer
+     * must not call back into this DAO (or anything else using the same connection) -- collect what
+     * needs to be done and do it after this method returns.
+     *
+     * @param consumer  called once for each book, in order by id
+     */
+    public void streamAllBooks(Consumer<Book> consumer) {
+        var sql = String.format("""
+                select %s, s.avg_rating, %s, n.name as tag
+                from books a
+                left outer join book_stats s on s.book_id = a.id
+                left outer join book_tags bt on bt.book_id = a.id
+                left outer join tag_names n on n.id = bt.tag_id
+                order by a.id
+                """, commaSeparated(BOOK_COLS.class, "a"), COVER_SHA256_COL);
+
+        jt.query(c -> {
+            var ps = c.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAMING_FETCH_SIZE);
+            return ps;
+        }, (ResultSetExtractor<Void>) rs -> {
+
+            // a book with several tags spans several (consecutive) rows; pass it on once its last row has been read
+            Book book = null;
+            while (rs.next()) {
+                var bookId = rs.getInt(withTableId(BOOK_COLS.id, "a"));
+                if (book == null || book.getId() != bookId) {
+                    if (book != null) {
+                        consumer.accept(book);
+                    }
+                    book = mapBook(rs, rs.getRow());
+                }
+                var tag = rs.getString("tag");
+                if (tag != null) {
+                    book.addTag(tag);
+                }
+            }
+            if (book != null) {
+                consumer.accept(book);
+            }
+            return null;
+        });
     }
 
+    // the number of rows the driver fetches at a time when streaming a result set
+    protected final static int STREAMING_FETCH_SIZE = 500;
+
     /**
      * Returns the book matching a specified id
      * @param bookId  the id to use to find the book
      * @return  the matching book
      */
     public Book fetchBook(int bookId) {
-        var sql = String.format("select %s, group_concat(t.tag separator ',') as tags, (select round(avg(num_stars)) from reviews r where book_id = a.id and r.num_stars > 0) as avg_rating from books a left outer join tags t on a.id = t.book_id where a.id = ? limit 1", commaSeparated(BOOK_COLS.class, "a"));
-        var books = jt.query(sql, LibraryDAO::mapBook, bookId);
+        var sql = String.format("select %s, s.avg_rating, %s from books a left outer join book_stats s on s.book_id = a.id where a.id = ?", commaSeparated(BOOK_COLS.class, "a"), COVER_SHA256_COL);
+        var books = loadTags(jt.query(sql, LibraryDAO::mapBook, bookId));
         return books == null || books.size() < 1 ? null : books.get(0);
     }
 
+    /**
+     * Returns the books with the specified ids.
+     * @param bookIds  the ids of the books to return
+     * @return  the books that exist (in no particular order)
+     */
+    public List<Book> fetchBooks(Collection<Integer> bookIds) {
+        var books = new ArrayList<Book>();
+        var ids = new ArrayList<>(bookIds);
+        for (int start = 0; start < ids.size(); start += BOOK_BATCH_SIZE) {
+            var batch = ids.subList(start, Math.min(start + BOOK_BATCH_SIZE, ids.size()));
+            var sql = String.format("select %s, s.avg_rating, %s from books a left outer join book_stats s on s.book_id = a.id where a.id in (%s)",
+                    commaSeparated(BOOK_COLS.class, "a"), COVER_SHA256_COL, String.join(",", Collections.nCopies(batch.size(), "?")));
+            books.addAll(jt.query(sql, LibraryDAO::mapBook, batch.toArray()));
+        }
+        return loadTags(books);
+    }
+
+    // the maximum number of books fetched by id in one query
+    protected final static int BOOK_BATCH_SIZE = 500;
+
     /**
      * returns the book matching by title and author #1
      * @param title  the title of the book to find
@@ -522,33 +573,11 @@ public class LibraryDAO {
      * @return  the matching book
      */
     public Book fetchBook(String title, String author) {
-        var sql = String.format("select %s, group_concat(t.tag separator ',') as tags, (select round(avg(num_stars)) from reviews r where book_id = a.id and r.num_stars > 0) as avg_rating from books a left outer join tags t on a.id = t.book_id where a.title=? and a.author=? limit 1", commaSeparated(BOOK_COLS.class, "a"));
-        var books = jt.query(sql, LibraryDAO::mapBook, title, author);
+        var sql = String.format("select %s, s.avg_rating, %s from books a left outer join book_stats s on s.book_id = a.id where a.title=? and a.author=? limit 1", commaSeparated(BOOK_COLS.class, "a"), COVER_SHA256_COL);
+        var books = loadTags(jt.query(sql, LibraryDAO::mapBook, title, author));
         return books == null || books.size() < 1 ? null : books.get(0);
     }
 
-    /**
-     * Returns all the books written by a given author.
-     * @param author  The name of an author whose books should be returned.
-     * @return  list of books
-     */
-    public List<Book> fetchBooksForAuthor(String author) {
-        String sql = String.format("select %s , group_concat(t.tag separator ',') as tags, (select round(avg(num_stars)) from reviews r where book_id = a.id and r.num_stars > 0) as avg_rating from books a left outer join tags t on a.id = t.book_id where a.author = ? group by a.id", commaSeparated(BOOK_COLS.class, "a"));
-        return jt.query(sql, LibraryDAO::mapBook, author);
-    }
-
-    /**
-     * Returns the most recently acquired books.  The result set is limited to a certain number of books
-     * and the first few books are skipped.
-     * @param limit  The number of books to return.
-     * @param skip  The number of books to skip.
-     * @return  a list of books
-     */
-    public List<Book> fetchNewestBooks(int limit, int skip) {
-        var sql = String.format("select %s, group_concat(t.tag separator ',') as tags, (select round(avg(num_stars)) from reviews r where book_id = a.id and r.num_stars > 0) as avg_rating from books a left outer join tags t on a.id = t.book_id group by a.id order by acq_date desc limit %s offset %s", commaSeparated(BOOK_COLS.class, "a"), limit, skip);
-        return jt.query(sql, LibraryDAO::mapBook);
-    }
-
     /**
      * Creates a user object from a row of query result.
      * @param rs  the result set returned from the query
@@ -602,21 +631,36 @@ public class LibraryDAO {
         if (rs.getObject("avg_rating") != null) {
             book.setAvgRating(rs.getInt("avg_rating"));
         }
+        book.setCoverSha256(rs.getString("cover_sha256"));
 
-        // if there are any tags associated with this book
-        // (handle tags differently because we joined them into the result set as CSV)
-        var tags = rs.getString("tags");
-        if (tags != null && tags.trim().length() > 0) {
+        return book;
+    }
 
-            // parse the comma-separated list of tags
-            for (var tag : tags.split(",")) {
-                book.addTag(tag);
-            }
+    /**
+     * Load the tags for a list of books with one query (per few hundred books) and add them to the books.
+     * @param books  the books whose tags should be loaded
+     * @return  the same list of books
+     */
+    protected List<Book> loadTags(List<Book> books) {
+        var booksById = new HashMap<Integer, Book>();
+        books.forEach(book -> booksById.put(book.getId(), book));
+
+        // fetch the tags for a batch of books at a time so the "in" list doesn't get too long
+        var ids = new ArrayList<>(booksById.keySet());
+        for (int start = 0; start < ids.size(); start += TAG_BATCH_SIZE) {
+            var batch = ids.subList(start, Math.min(start + TAG_BATCH_SIZE, ids.size()));
+            var sql = String.format("select bt.book_id, n.name from book_tags bt inner join tag_names n on n.id = bt.tag_id where bt.book_id in (%s)", String.join(",", Collections.nCopies(batch.size(), "?")));
+            jt.query(sql, row -> {
+                booksById.get(row.getInt(1)).addTag(row.getString(2));
+            }, batch.toArray());
         }
 
-        return book;
+        return books;
     }
 
+    // the maximum number of books whose tags are fetched in one query
+    protected final static int TAG_BATCH_SIZE = 500;
+
     /**
      * Gets an integer value from a result set.
      * @param rs  the result set from which to extract the integer value
@@ -630,22 +674,54 @@ public class LibraryDAO {
     }
 
     /**
-     * Returns the cover image for an ebook.
+     * Returns information about the cover image for an ebook (the image itself is in the cover store).
      * @param bookId  the id of the ebook whose image should be returned
-     * @return  the cover image (or null if no cover image exists for this book)
+     * @return  the cover image information (or null if no cover image exists for this book)
      */
-    public byte[] fetchImageForEbook(int bookId) {
-        try {
-            String sql = "select bits from cover_images where book_id = ?";
-            Blob blob = jt.queryForObject(sql, Blob.class, bookId);
-            return blob == null ? null : blob.getBytes(1, (int) blob.length());
-        }
-        catch (EmptyResultDataAccessException x) {
-            return null;
-        }
-        catch (SQLException x) {
-            throw new DataRetrievalFailureException("unable to get image binary", x);
-        }
+    public CoverImage fetchCoverImage(int bookId) {
+        var covers = jt.query("select sha256, mime_type, size, width, height from cover_images where book_id = ? and sha256 is not null order by id desc limit 1",
+                LibraryDAO::mapCoverImage, bookId);
+        return covers.isEmpty() ? null : covers.get(0);
+    }
+
+    protected static CoverImage mapCoverImage(ResultSet rs, int rowNum) throws SQLException {
+        return new CoverImage(rs.getString("sha256"), rs.getString("mime_type"), rs.getLong("size"), getIntOrNull(rs, "width"), getIntOrNull(rs, "height"));
+    }
+
+    /**
+     * Returns the ids of cover images whose bytes are still stored in the database (used to migrate
+     * the covers to the cover store; this only works until the bits column is dropped).
+     * @param limit  the maximum number of ids to return
+     * @return  a list of cover image ids
+     */
+    public List<Integer> fetchCoverImageIdsToMigrate(int limit) {
+        return jt.queryForList("select id from cover_images where sha256 is null and bits is not null order by id limit ?", Integer.class, limit);
+    }
+
+    /**
+     * Returns the bytes of a cover image that is still stored in the database.
+     * @param coverImageId  the id of the cover image row
+     * @return  the cover image's bytes and mime type
+     */
+    public CoverBits fetchCoverBits(int coverImageId) {
+        return jt.queryForObject("select bits, mime_type from cover_images where id = ?", (rs, rowNum) -> new CoverBits(rs.getBytes("bits"), rs.getString("mime_type")), coverImageId);
+    }
+
+    public record CoverBits(byte[] bits, String mimeType) {}
+
+    /**
+     * Record that a cover image that was stored in the database has been moved to the cover store.
+     * @param coverImageId  the id of the cover image row
+     * @param image  information about the image in the cover store
+     */
+    public void setCoverImageMigrated(int coverImageId, CoverImage image) {
+        var bookId = jt.queryForObject("select book_id from cover_images where id = ?", Integer.class, coverImageId);
+        jt.update("update cover_images set sha256 = ?, mime_type = ?, size = ?, width = ?, height = ?, bits = null where id = ?",
+                image.sha256(), image.mimeType(), image.size(), image.width(), image.height(), coverImageId);
+
+        // the book's cover hash is the hash of its newest cover that's in the cover store
+        jt.update("update books a set a.cover_sha256 = (select c.sha256 from cover_images c where c.book_id = a.id and c.sha256 is not null order by c.id desc limit 1) where a.id = ?", bookId);
+        fireBookChanged(bookId);
     }
 
     /**
@@ -653,7 +729,29 @@ public class LibraryDAO {
      * @return  a list of authors
      */
     public List<String> fetchAllAuthors() {
-        return jt.queryForList("select distinct author from books where author is not null order by author", String.class);
+        return jt.queryForList("select au.name from authors au where exists (select 1 from book_authors ba where ba.author_id = au.id) order by au.name", String.class);
+    }
+
+    /**
+     * Returns the sort key ("Last, First") of every author in the authors table.
+     * @return  a map of author name to sort key (looked up without regard to case)
+     */
+    public Map<String, String> fetchAuthorSortNames() {
+        var map = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        jt.query("select name, sort_name from authors", row -> {
+            map.put(row.getString(1), row.getString(2));
+        });
+        return map;
+    }
+
+    /**
+     * Returns the sort key ("Last, First") of an author.
+     * @param name  the author's name
+     * @return  the sort key (or null if the author isn't in the authors table)
+     */
+    public String fetchAuthorSortName(String name) {
+        var list = jt.queryForList("select sort_name from authors where name = ?", String.class, name);
+        return list.isEmpty() ? null : list.get(0);
     }
 
     /**
@@ -669,7 +767,7 @@ public class LibraryDAO {
      * @return a list of tags
      */
     public List<String> fetchAllTags() {
-        return jt.queryForList("select distinct tag from tags order by tag", String.class);
+        return jt.queryForList("select n.name from tag_names n where exists (select 1 from book_tags bt where bt.tag_id = n.id) order by n.name", String.class);
     }
 
     /**
@@ -697,20 +795,126 @@ public class LibraryDAO {
     }
 
     /**
-     * Gets all the tags in the library and a count of the number of books associated with each tag.
-     * @return  the tags and tag counts
+     * Returns the keys of all the objects in the object index.
+     * @return  the object keys, in order
+     */
+    public List<String> fetchIndexedObjectKeys() {
+        return jt.queryForList("select object_key from object_index order by object_key", String.class);
+    }
+
+    /**
+     * Returns the keys of the objects of one type in the object index.
+     * @param assetType  the type of asset (the key's extension, like "epub" or "m4b")
+     * @return  the object keys, in order
      */
-    public Map<String, Integer> getTags() {
+    public List<String> fetchIndexedObjectKeys(String assetType) {
+        return jt.queryForList("select object_key from object_index where asset_type = ? order by object_key", String.class, assetType);
+    }
 
-        // create a map of tags to populate
-        var map = new LinkedHashMap<String, Integer>();
+    /**
+     * Returns what the object index knows about an object.
+     * @param objectKey  the object's key
+     * @return  the object's size, etag, etc. (or null if it's not in the index)
+     */
+    public ObjectInfo fetchIndexedObject(String objectKey) {
+        var list = jt.query("select object_key, size, etag, last_modified from object_index where object_key = ?", LibraryDAO::mapObjectInfo, objectKey);
+        return list.isEmpty() ? null : list.get(0);
+    }
 
-        // get the number of books associated with each tag
-        jt.query("select tag, count(*) as num_books from tags group by tag order by tag", row -> {
-            map.put(row.getString(1), row.getInt(2));
-        });
+    public int countIndexedObjects() {
+        return jt.queryForObject("select count(*) from object_index", Integer.class);
+    }
 
-        return map;
+    /**
+     * Add objects to the object index, or update them if they're already there.
+     * @param objects  the objects
+     * @param assetType  a function that works out each object's asset type
+     * @param indexedAt  when the objects were seen in the object store
+     */
+    public void upsertIndexedObjects(Collection<ObjectInfo> objects, Function<String, String> assetType, Date indexedAt) {
+        var rows = new ArrayList<Object[]>(objects.size());
+        for (var info : objects) {
+            rows.add(new Object[] { info.key(), info.size(), info.etag(), info.lastModified(), assetType.apply(info.key()), indexedAt });
+        }
+
+        // a changed etag means the object was replaced, so its hash is no longer known (this has to come before etag is updated)
+        jt.batchUpdate("insert into object_index (object_key, size, etag, last_modified, asset_type, indexed_at) values (?, ?, ?, ?, ?, ?) "
+                + "on duplicate key update sha256 = if(etag <=> values(etag), sha256, null), size = values(size), etag = values(etag), "
+                + "last_modified = values(last_modified), asset_type = values(asset_type), indexed_at = values(indexed_at)", rows);
+    }
+
+    /**
+     * Record the hash of an object's content in the object index.
+     * @param objectKey  the object's key
+     * @param sha256  the hex-encoded SHA-256 hash of the object's content
+     */
+    public void setIndexedObjectHash(String objectKey, String sha256) {
+        jt.update("update object_index set sha256 = ? where object_key = ?", sha256, objectKey);
+    }
+
+    /**
+     * Find an object in the object index by the hash of its content.
+     * @param sha256  the hex-encoded SHA-256 hash of the content
+     * @return  the key of an object with that content (or null if there isn't one)
+     */
+    public String fetchIndexedObjectKeyByHash(String sha256) {
+        var list = jt.queryForList("select object_key from object_index where sha256 = ? order by object_key limit 1", String.class, sha256);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * Returns the keys of the objects in the object index whose content hasn't been hashed.
+     * @return  the object keys, in order
+     */
+    public List<String> fetchUnhashedIndexedObjectKeys() {
+        return jt.queryForList("select object_key from object_index where sha256 is null order by object_key", String.class);
+    }
+
+    /**
+     * Remove an object from the object index.
+     * @param objectKey  the object's key
+     */
+    public void deleteIndexedObject(String objectKey) {
+        jt.update("delete from object_index where object_key = ?", objectKey);
+    }
+
+    /**
+     * Remove the objects from the object index that haven't been seen since a certain time.
+     * @param indexedAt  the time
+     * @return  the number of objects removed
+     */
+    public int deleteIndexedObjectsNotSeenSince(Date indexedAt) {
+        return jt.update("delete from object_index where indexed_at < ?", indexedAt);
+    }
+
+    protected static ObjectInfo mapObjectInfo(ResultSet rs, int rowNum) throws SQLException {
+        return new ObjectInfo(rs.getString("object_key"), rs.getLong("size"), rs.getString("etag"), rs.getTimestamp("last_modified"));
+    }
+
+    /**
+     * A change to a book, as recorded in the book_changes table.
+     * @param id  the change's id (changes are numbered in the order they were recorded, not necessarily committed)
+     * @param bookId  the id of the book that changed
+     */
+    public record BookChange(long id, int bookId) {}
+
+    /**
+     * Returns the book changes recorded recently (by this process or any other).
+     * @param seconds  how far back to look
+     * @return  the changes, in order by id
+     */
+    public List<BookChange> fetchBookChanges(int seconds) {
+        return jt.query("select id, book_id from book_changes where changed_at >= now() - interval ? second order by id",
+                (rs, rowNum) -> new BookChange(rs.getLong("id"), rs.getInt("book_id")), seconds);
+    }
+
+    /**
+     * Delete the old rows from the book change log.
+     * @param seconds  delete the changes recorded more than this many seconds ago
+     * @return  the number of changes deleted
+     */
+    public int deleteBookChanges(int seconds) {
+        return jt.update("delete from book_changes where changed_at < now() - interval ? second", seconds);
     }
 
     /**
@@ -738,6 +942,18 @@ public class LibraryDAO {
 
     // INSERT/UPDATE/DELETE METHODS
 
+    /**
+     * Inserts or updates a user's review of a book and refreshes the book's rating aggregate
+     * (in book_stats) in the same transaction.
+     * @param bookId  the id of the book being reviewed
+     * @param userId  the id of the user writing the review
+     * @param rating  the number of stars (zero means "did not finish")
+     * @param review  the text of the review
+     * @param spoilers  text of the review that contains spoilers
+     * @param privateNotes  notes only visible to the reviewer
+     * @param isRecommended  whether the reviewer recommends this book
+     */
+    @Transactional
     public void insertOrUpdateReview(int bookId, int userId, int rating, String review, String spoilers, String privateNotes, boolean isRecommended) {
         String sql = """
                 insert into reviews (book_id, user_id, num_stars, review, spoilers, private_notes, recommended, create_date) 
@@ -760,6 +976,25 @@ public class LibraryDAO {
             ps.setBoolean(12, isRecommended);
             return ps;
         });
+
+        updateBookStats(bookId);
+        fireBookChanged(bookId);
+    }
+
+    /**
+     * Recalculate the rating aggregate for a book from its reviews.  Reviews without a
+     * star rating (zero stars) are not counted, matching how the average has always been computed.
+     * @param bookId  the id of the book whose aggregate should be refreshed
+     */
+    protected void updateBookStats(int bookId) {
+        String sql = """
+                insert into book_stats (book_id, num_ratings, star_sum, avg_rating)
+                select ?, count(*), coalesce(sum(num_stars), 0), round(avg(num_stars))
+                from reviews where book_id = ? and num_stars > 0
+                on duplicate key update
+                    num_ratings = values(num_ratings), star_sum = values(star_sum), avg_rating = values(avg_rating)
+                """;
+        jt.update(sql, bookId, bookId);
     }
 
     public void addAmazonInfo(String asin, int rating, int numRatings, Date pubDate, int pageCount) {
@@ -782,8 +1017,11 @@ public class LibraryDAO {
     public void deleteBook(int bookId) {
         // TODO: update schema to use ON DELETE CASCADE
         jt.update("delete from cover_images where book_id = ?", bookId);
-        jt.update("delete from tags where book_id = ?", bookId);
+        jt.update("delete from book_tags where book_id = ?", bookId);
+        jt.update("delete from book_authors where book_id = ?", bookId);
+        jt.update("delete from book_stats where book_id = ?", bookId);
         jt.update("delete from books where id = ?", bookId);
+        fireBookChanged(bookId);
     }
 
     /**
@@ -817,11 +1055,11 @@ public class LibraryDAO {
         // get the id of the newly-created book row
         var bookId = keyHolder.getKey().intValue();
 
-        // insert the book's tags
-        for (var tag : book.getTags()) {
-            jt.update("insert into tags(book_id, tag) values (?, ?)", bookId, tag);
-        }
+        // insert the book's authors and tags
+        insertAuthors(bookId, book);
+        insertTags(bookId, book.getTags());
 
+        fireBookChanged(bookId);
         return bookId;
     }
 
@@ -835,15 +1073,19 @@ public class LibraryDAO {
     }
 
     /**
-     * Inserts a cover image into the database, deleting any previous cover images.
+     * Records a book's cover image, deleting any previous cover images.
      * @param bookId  the id (foreign key) of the book whose cover should be inserted
      * @param filename  the cover image's filename
-     * @param mimeType  the mime type of the cover image
-     * @param bytes  the cover image
+     * @param image  information about the cover image, which must already be in the cover store
      */
-    public void insertCoverImage(int bookId, String filename, String mimeType, byte[] bytes) {
+    public void insertCoverImage(int bookId, String filename, CoverImage image) {
         jt.update("delete from cover_images where book_id = ?", bookId);
-        jt.update("insert into cover_images (book_id, filename, mime_type, bits) values (?, ?, ? , ?)", bookId, filename, mimeType, bytes);
+        jt.update("insert into cover_images (book_id, filename, mime_type, sha256, size, width, height) values (?, ?, ?, ?, ?, ?, ?)",
+                bookId, filename, image.mimeType(), image.sha256(), image.size(), image.width(), image.height());
+        jt.update("update books set cover_sha256 = ? where id = ?", image.sha256(), bookId);
+
+        // the book's cover URL changes with its cover
+        fireBookChanged(bookId);
     }
 
     /**
@@ -852,10 +1094,28 @@ public class LibraryDAO {
      * @param tags  the tags to associate with the book
      */
     public void setTags(int bookId, Collection<String> tags) {
-        jt.update("delete from tags where book_id = ?", bookId);
+        jt.update("delete from book_tags where book_id = ?", bookId);
+        insertTags(bookId, tags);
+        fireBookChanged(bookId);
+    }
+
+    /**
+     * Associate tags with a book, adding any tags that aren't already in the tag dictionary.
+     * @param bookId  the book to tag
+     * @param tags  the tags to associate with the book
+     */
+    protected void insertTags(int bookId, Collection<String> tags) {
+        if (tags.isEmpty()) {
+            return;
+        }
+        var names = new ArrayList<Object[]>();
+        var links = new ArrayList<Object[]>();
         for (var tag : tags) {
-            jt.update("insert into tags(book_id, tag) values (?, ?)", bookId, tag);
+            names.add(new Object[] { tag });
+            links.add(new Object[] { bookId, tag });
         }
+        jt.batchUpdate("insert ignore into tag_names (name) values (?)", names);
+        jt.batchUpdate("insert ignore into book_tags (book_id, tag_id) select ?, id from tag_names where name = ?", links);
     }
 
     /**
@@ -868,6 +1128,43 @@ public class LibraryDAO {
                 book.getPublicationYear(), book.getSeries(), book.getSeriesSequence(), book.getAcquisitionDate(),
                 book.getAltTitle1(), book.getAltTitle2(), book.getEpubObjectKey(), book.getMobiObjectKey(),
                 book.getAudiobookObjectKey(), book.getAmazonId(), book.getId());
+        jt.update("delete from book_authors where book_id = ?", book.getId());
+        insertAuthors(book.getId(), book);
+        fireBookChanged(book.getId());
+    }
+
+    /**
+     * Update information about a book and replace its tags, in one transaction (so the
+     * change is reported to the book change listeners once).
+     * @param book  an object with information about the book to be updated, including its tags
+     */
+    @Transactional
+    public void updateBookAndTags(Book book) {
+        updateBook(book);
+        setTags(book.getId(), book.getTags());
+    }
+
+    /**
+     * Link a book to its authors (in order), adding any authors that aren't already in the authors table.
+     * The author columns in the books table are kept as a copy of these names for display and sorting.
+     * @param bookId  the book whose authors are being recorded
+     * @param book  the book, with up to three authors
+     */
+    protected void insertAuthors(int bookId, Book book) {
+        var names = new ArrayList<Object[]>();
+        var links = new ArrayList<Object[]>();
+        var position = 1;
+        for (var author : new String[] { book.getAuthor(), book.getAuthor2(), book.getAuthor3() }) {
+            if (author != null && !author.isBlank()) {
+                var name = author.trim();
+                names.add(new Object[] { name, AuthorInfo.sortName(name) });
+                links.add(new Object[] { bookId, position++, name });
+            }
+        }
+        if (!names.isEmpty()) {
+            jt.batchUpdate("insert ignore into authors (name, sort_name) values (?, ?)", names);
+            jt.batchUpdate("insert ignore into book_authors (book_id, position, author_id) select ?, ?, id from authors where name = ?", links);
+        }
     }
 
     /**
@@ -902,6 +1199,61 @@ public class LibraryDAO {
 
     // HELPER METHODS BELOW HERE
 
+    /**
+     * Record that a book has changed (in the book_changes table, for other processes) and let this
+     * process's book change listeners know.  If there's a transaction in progress, the change is
+     * recorded as part of it, and the listeners are notified once per book after it commits (and
+     * not at all if it rolls back).
+     * @param bookId  the id of the book that changed
+     */
+    @SuppressWarnings("unchecked")
+    protected void fireBookChanged(int bookId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+
+            // the books changed so far in this transaction
+            var changed = (Set<Integer>) TransactionSynchronizationManager.getResource(CHANGED_BOOKS_RESOURCE);
+            if (changed == null) {
+                var books = new LinkedHashSet<Integer>();
+                TransactionSynchronizationManager.bindResource(CHANGED_BOOKS_RESOURCE, books);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        books.forEach(id -> notifyBookChangeListeners(id));
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(CHANGED_BOOKS_RESOURCE);
+                    }
+                });
+                changed = books;
+            }
+
+            if (changed.add(bookId)) {
+                recordBookChange(bookId);
+            }
+        }
+        else {
+            recordBookChange(bookId);
+            notifyBookChangeListeners(bookId);
+        }
+    }
+
+    // the key of the set of books changed in the current transaction, in the transaction's resources
+    protected final static String CHANGED_BOOKS_RESOURCE = LibraryDAO.class.getName() + ".changedBooks";
+
+    // add a book to the book change log
+    protected void recordBookChange(int bookId) {
+        jt.update("insert into book_changes (book_id) values (?)", bookId);
+    }
+
+    // call each of the book change listeners
+    protected void notifyBookChangeListeners(int bookId) {
+        for (var listener : bookChangeListeners) {
+            listener.bookChanged(bookId);
+        }
+    }
+
     /**
      * Returns the enumeration names as a comma-separated string.
      * @param enumClass  The enumeration to convert
@@ -0,0 +1,380 @@
+package org.themullers.library.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A read-through cache of object store assets (EPUBs, MOBIs and audiobooks) on the local disk,
+ * so popular assets don't have to be fetched from the object store on every download.
+ *
+ * Each asset is saved in a file named for the hash of its object key and its ETag, so a changed
+ * object never matches a stale file.  A cached file is checked against the object's current ETag
+ * when it's used (at most once every few seconds, see asset.cache.revalidate.seconds).  Files are
+ * written to a temporary name and renamed when complete, so a partial download is never served.
+ *
+ * Assets are downloaded into the cache in the background (see fill()), on a small pool of threads
+ * (asset.cache.fill.threads), and each asset is only downloaded once at a time.  A request for an
+ * asset that isn't cached yet never waits for the download; it's served from the object store.
+ *
+ * The cache holds at most asset.cache.max.bytes; when it's full, the least recently used assets
+ * are deleted.  The cache is disabled if asset.cache.dir isn't set.
+ */
+@Component
+public class AssetDiskCache implements DisposableBean {
+
+    private static Logger logger = LoggerFactory.getLogger(AssetDiskCache.class);
+
+    protected final static String TEMP_SUFFIX = ".tmp";
+
+    LibraryOSAO osao;
+    File cacheDir;
+    long maxBytes;
+    long revalidateMillis;
+
+    // the cached files, least recently used first (guarded by synchronizing on the map)
+    LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    long totalBytes;
+
+    // the downloads in progress (by key hash), so two requests for the same asset don't both download it
+    Map<String, CompletableFuture<CachedAsset>> downloads = new ConcurrentHashMap<>();
+    ThreadPoolExecutor downloaders;
+
+    public AssetDiskCache(LibraryOSAO osao, @Value("${asset.cache.dir:}") String cacheDir, @Value("${asset.cache.max.bytes:10737418240}") long maxBytes, @Value("${asset.cache.revalidate.seconds:60}") long revalidateSeconds,
+                          @Value("${asset.cache.fill.threads:2}") int fillThreads) throws IOException {
+        this.osao = osao;
+        this.cacheDir = cacheDir.isBlank() ? null : new File(cacheDir);
+        this.maxBytes = maxBytes;
+        this.revalidateMillis = revalidateSeconds * 1000;
+        if (this.cacheDir != null) {
+            load();
+        }
+
+        // daemon threads (which go away when idle) that download assets into the cache; if too many are waiting, new ones are skipped
+        var threadNum = new AtomicInteger();
+        downloaders = new ThreadPoolExecutor(fillThreads, fillThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(fillThreads * 16), r -> {
+            var thread = new Thread(r, "asset-cache-fill-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        downloaders.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * A cached asset.
+     * @param file  the file containing the asset
+     * @param etag  the object's ETag (without quotes)
+     * @param length  the asset's size in bytes
+     * @param lastModified  when the object was last modified (in milliseconds since the epoch)
+     */
+    public record CachedAsset(File file, String etag, long length, long lastModified) {}
+
+    /**
+     * Get an asset from the cache, downloading it into the cache (and waiting for the download) if it's
+     * not there or has changed.  Don't call this while handling a request; use peek() and fill().
+     * @param objectKey  the asset's key in the object store
+     * @return  the cached asset, or null if the cache is disabled, the asset is too big to cache, or too many downloads are waiting
+     * @throws IOException  thrown if an unexpected error occurs writing to the cache
+     */
+    public CachedAsset fetch(String objectKey) throws IOException {
+        var asset = peek(objectKey);
+        if (asset != null || cacheDir == null) {
+            return asset;
+        }
+        var download = startDownload(objectKey);
+        try {
+            return download == null ? null : download.join();
+        }
+        catch (CompletionException x) {
+            if (x.getCause() instanceof IOException iox) {
+                throw iox;
+            }
+            throw x;
+        }
+    }
+
+    /**
+     * Get an asset from the cache if it's already there (and current), without downloading it.
+     * @param objectKey  the asset's key in the object store
+     * @return  the cached asset, or null if it isn't in the cache
+     * @throws IOException  thrown if an unexpected error occurs checking the cache
+     */
+    public CachedAsset peek(String objectKey) throws IOException {
+
+        // if the objects are already in local files, there's nothing to cache
+        var localFile = osao.localFile(objectKey);
+        if (localFile != null) {
+            var info = osao.readObjectInfo(objectKey);
+            return new CachedAsset(localFile, sanitize(info.etag()), info.size(), info.lastModified().getTime());
+        }
+
+        if (cacheDir == null) {
+            return null;
+        }
+
+        // use the cached file if it's still current
+        var keyHash = hash(objectKey);
+        var entry = get(keyHash);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.validated < revalidateMillis) {
+            return entry.asset;
+        }
+        var info = osao.readObjectInfo(objectKey);
+        if (entry.asset.etag().equals(sanitize(info.etag()))) {
+            entry.validated = System.currentTimeMillis();
+            return entry.asset;
+        }
+        remove(keyHash, entry);
+        return null;
+    }
+
+    /**
+     * Start downloading an asset into the cache in the background, unless it's already being downloaded.
+     * @param objectKey  the asset's key in the object store
+     */
+    public void fill(String objectKey) {
+        if (cacheDir != null && osao.localFile(objectKey) == null) {
+            startDownload(objectKey);
+        }
+    }
+
+    /**
+     * Read an asset, from the cache if possible and otherwise from the object store.
+     * @param objectKey  the asset's key in the object store
+     * @return  a stream of the asset's content
+     * @throws IOException  thrown if an unexpected error occurs reading the asset
+     */
+    public InputStream open(String objectKey) throws IOException {
+        var asset = fetch(objectKey);
+        if (asset != null) {
+            return Files.newInputStream(asset.file().toPath());
+        }
+        return osao.readObject(objectKey);
+    }
+
+    @Override
+    public void destroy() {
+        downloaders.shutdownNow();
+    }
+
+    // HELPER METHODS
+
+    // start downloading an asset on one of the download threads (or join the download already in progress)
+    protected CompletableFuture<CachedAsset> startDownload(String objectKey) {
+        var keyHash = hash(objectKey);
+        var download = new CompletableFuture<CachedAsset>();
+        var existing = downloads.putIfAbsent(keyHash, download);
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            downloaders.execute(() -> {
+                try {
+                    download.complete(downloadIfMissing(objectKey, keyHash));
+                }
+                catch (Throwable x) {
+                    logger.warn("unable to cache " + objectKey, x);
+                    download.completeExceptionally(x);
+                }
+                finally {
+                    downloads.remove(keyHash, download);
+                }
+            });
+            return download;
+        }
+        catch (RejectedExecutionException x) {
+            // too many downloads are waiting; the asset can be cached the next time it's requested
+            downloads.remove(keyHash, download);
+            return null;
+        }
+    }
+
+    // download an asset into the cache, unless it's already there (or wouldn't fit)
+    protected CachedAsset downloadIfMissing(String objectKey, String keyHash) throws IOException {
+        var cached = peek(objectKey);
+        if (cached != null) {
+            return cached;
+        }
+        var info = osao.readObjectInfo(objectKey);
+        if (info.size() > maxBytes || info.etag() == null) {
+            return null;
+        }
+        return download(objectKey, keyHash, info);
+    }
+
+    // download an asset into the cache
+    protected CachedAsset download(String objectKey, String keyHash, ObjectInfo info) throws IOException {
+        Files.createDirectories(cacheDir.toPath());
+        var tempFile = Files.createTempFile(cacheDir.toPath(), keyHash + "-", TEMP_SUFFIX);
+        try {
+
+            // copy the object to a temporary file
+            CachedAsset asset;
+            try (var is = osao.readObject(objectKey)) {
+
+                // if the length doesn't match, the object was replaced after we looked at it
+                var length = Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                if (length != info.size()) {
+                    throw new ObjectStoreException(String.format("expected %d bytes of %s but got %d", info.size(), objectKey, length));
+                }
+
+                // the file's modification time records the object's, so it survives a restart
+                var lastModified = info.lastModified() == null ? System.currentTimeMillis() : info.lastModified().getTime();
+                Files.setLastModifiedTime(tempFile, FileTime.fromMillis(lastModified));
+
+                var etag = sanitize(info.etag());
+                asset = new CachedAsset(new File(cacheDir, keyHash + "." + etag), etag, length, lastModified);
+            }
+
+            // give the asset its permanent name, then add it (making room for it)
+            Files.move(tempFile, asset.file().toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            put(keyHash, new Entry(asset));
+            return asset;
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // rebuild the index from the files left in the cache directory by an earlier run
+    protected void load() throws IOException {
+        Files.createDirectories(cacheDir.toPath());
+        var found = new ArrayList<Map.Entry<Path, BasicFileAttributes>>();
+        try (var files = Files.list(cacheDir.toPath())) {
+            for (var path : (Iterable<Path>) files::iterator) {
+
+                // temporary files are left over from downloads that didn't finish
+                var name = path.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(path);
+                }
+                else if (name.indexOf('.') > 0) {
+                    found.add(Map.entry(path, Files.readAttributes(path, BasicFileAttributes.class)));
+                }
+            }
+        }
+
+        // add the files in the order they were last used
+        found.sort(Comparator.comparing(e -> e.getValue().lastAccessTime()));
+        for (var e : found) {
+            var name = e.getKey().getFileName().toString();
+            var dot = name.indexOf('.');
+            var asset = new CachedAsset(e.getKey().toFile(), name.substring(dot + 1), e.getValue().size(), e.getValue().lastModifiedTime().toMillis());
+            var entry = new Entry(asset);
+            entry.validated = 0;
+            put(name.substring(0, dot), entry);
+        }
+        logger.info("asset cache holds {} assets ({} bytes)", entries.size(), totalBytes);
+    }
+
+    protected Entry get(String keyHash) {
+        synchronized (entries) {
+            var entry = entries.get(keyHash);
+            if (entry != null && !entry.asset.file().exists()) {
+                remove(keyHash);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    // add an entry, evicting the least recently used assets to stay under the budget
+    protected void put(String keyHash, Entry entry) {
+        synchronized (entries) {
+
+            // replace the previous version (whose file may be the one just written, if it's the same version)
+            var previous = entries.put(keyHash, entry);
+            if (previous != null) {
+                totalBytes -= previous.asset.length();
+                if (!previous.asset.file().equals(entry.asset.file())) {
+                    delete(previous);
+                }
+            }
+            totalBytes += entry.asset.length();
+
+            var it = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                var eldest = it.next();
+                if (eldest.getValue() == entry) {
+                    continue;
+                }
+                it.remove();
+                totalBytes -= eldest.getValue().asset.length();
+                delete(eldest.getValue());
+            }
+        }
+    }
+
+    protected void remove(String keyHash) {
+        synchronized (entries) {
+            var entry = entries.remove(keyHash);
+            if (entry != null) {
+                totalBytes -= entry.asset.length();
+                delete(entry);
+            }
+        }
+    }
+
+    // remove an entry, unless it has already been replaced
+    protected void remove(String keyHash, Entry entry) {
+        synchronized (entries) {
+            if (entries.get(keyHash) == entry) {
+                remove(keyHash);
+            }
+        }
+    }
+
+    // delete a cached file (anyone still reading it can finish)
+    protected void delete(Entry entry) {
+        try {
+            Files.deleteIfExists(entry.asset.file().toPath());
+        }
+        catch (IOException x) {
+            logger.warn("unable to delete cached asset " + entry.asset.file(), x);
+        }
+    }
+
+    // strip an ETag down to characters that can safely be used in a filename (S3 ETags are hex, with a "-n" suffix for multipart uploads)
+    protected static String sanitize(String etag) {
+        return etag == null ? null : etag.replaceAll("[^A-Za-z0-9-]", "");
+    }
+
+    protected static String hash(String objectKey) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(objectKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        }
+        catch (NoSuchAlgorithmException x) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(x);
+        }
+    }
+
+    // a cached asset and when it was last checked against the object store
+    protected static class Entry {
+        final CachedAsset asset;
+        volatile long validated = System.currentTimeMillis();
+
+        Entry(CachedAsset asset) {
+            this.asset = asset;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.themullers.library.s3;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * A stream that computes the SHA-256 hash of everything read through it, so content can be hashed
+ * on its way somewhere else (like the object store) without being read twice or held in memory.
+ *
+ * Mark and reset aren't supported, so every byte is seen exactly once; the hash is only meaningful
+ * if the stream was read to the end (see getCount()).
+ */
+public class HashingInputStream extends FilterInputStream {
+
+    protected final static int BUFFER_SIZE = 64 * 1024;
+
+    protected MessageDigest digest = newDigest();
+    protected long count;
+
+    public HashingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Compute the SHA-256 hash of a file, reading it one buffer at a time.
+     * @param file  the file
+     * @return  the hex-encoded hash of the file's content
+     * @throws IOException  thrown if an unexpected error occurs reading the file
+     */
+    public static String sha256(File file) throws IOException {
+        try (var is = new HashingInputStream(new FileInputStream(file))) {
+            var buffer = new byte[BUFFER_SIZE];
+            while (is.read(buffer) >= 0) {
+                // just reading is enough
+            }
+            return is.getHash();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        var b = super.read();
+        if (b >= 0) {
+            digest.update((byte) b);
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        var n = super.read(b, off, len);
+        if (n > 0) {
+            digest.update(b, off, n);
+            count += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes have to be hashed too, so read them instead
+        var buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            var read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("reset not supported");
+    }
+
+    /**
+     * Get the hash of the bytes read so far.  Call this only once, after the stream has been read.
+     * @return  the hex-encoded SHA-256 hash
+     */
+    public String getHash() {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Get the number of bytes read so far.
+     * @return  the number of bytes
+     */
+    public long getCount() {
+        return count;
+    }
+
+    // HELPER METHODS
+
+    protected static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException x) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(x);
+        }
+    }
+}
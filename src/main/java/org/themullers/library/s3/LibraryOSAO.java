@@ -3,77 +3,189 @@ package org.themullers.library.s3;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
-import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.S3Object;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
- * Object Store Access Object (like a DAO, but for S3-compatible object stores).
+ * Object Store Access Object (like a DAO, but for object stores).
  * The library only accesses one bucket of objects, and this API reflects this expectation.
+ *
+ * The objects are kept either in an S3-compatible bucket (object.store.type=s3, the default) or in
+ * a directory on the local disk (object.store.type=local, with the directory in object.store.local.dir);
+ * see ObjectStore.
  */
 @Component
 public class LibraryOSAO implements InitializingBean {
 
-    protected AmazonS3 s3;
+    public final static String TYPE_S3 = "s3";
+    public final static String TYPE_LOCAL = "local";
+
+    protected ObjectStore store;
+    protected String storeType = TYPE_S3;
+    protected File localDir;
     protected String accessKeyId;
     protected String secretAccessKey;
     protected String bucketName;
     protected String bucketEndpoint;
     protected String bucketRegion;
 
+    // objects at least this big are uploaded in parts (see MultipartUploader)
+    protected long multipartThreshold = 64 * 1024 * 1024;
+    protected long multipartPartSize = 16 * 1024 * 1024;
+    protected int multipartThreads = 4;
+    protected int multipartRetries = 3;
+    protected File multipartManifestDir = new File(System.getProperty("java.io.tmpdir"), "library-uploads");
+
+    // the number of bulk delete requests (of up to 1000 keys each) to send at a time
+    protected int deleteThreads = 4;
+
+    protected List<ObjectChangeListener> objectChangeListeners = new CopyOnWriteArrayList<>();
+    protected volatile ContentIndex contentIndex;
+
+    /**
+     * Implemented by objects that keep information about what's in the store (like the object index)
+     * and need to know when objects are added or removed.
+     */
+    public interface ObjectChangeListener {
+
+        /**
+         * Called after an object has been uploaded.
+         * @param objectKey  the key of the new object
+         */
+        void objectUploaded(String objectKey);
+
+        /**
+         * Called after an object has been deleted.
+         * @param objectKey  the key of the deleted object
+         */
+        void objectDeleted(String objectKey);
+    }
+
+    /**
+     * Implemented by the object that remembers the hash of each object's content (the object index),
+     * so uploads of content that's already in the store can be skipped.
+     */
+    public interface ContentIndex {
+
+        /**
+         * Find an object by the hash of its content.
+         * @param sha256  the hex-encoded SHA-256 hash of the content
+         * @return  the key of an object with that content, or null if there isn't one
+         */
+        String findObjectWithHash(String sha256);
+
+        /**
+         * Called after an object has been uploaded, with the hash of its content.
+         * @param objectKey  the key of the new object
+         * @param sha256  the hex-encoded SHA-256 hash of the object's content
+         */
+        void recordHash(String objectKey, String sha256);
+    }
+
+    /**
+     * The outcome of an upload.
+     * @param requestedKey  the key the content was uploaded as
+     * @param storedKey  the key the content can be found under: the requested key, or the key of an
+     *                   object that already had the same content (in which case nothing was uploaded)
+     * @param sha256  the hex-encoded SHA-256 hash of the content
+     */
+    public record UploadResult(String requestedKey, String storedKey, String sha256) {
+        public boolean isDuplicate() {
+            return !requestedKey.equals(storedKey);
+        }
+    }
+
+    /**
+     * Tell this object where to find and record the hashes of objects' content.
+     * @param contentIndex  the object that keeps the hashes (or null to stop deduplicating uploads)
+     */
+    public void setContentIndex(ContentIndex contentIndex) {
+        this.contentIndex = contentIndex;
+    }
+
+    /**
+     * Register an object to be notified when objects are uploaded or deleted.
+     * @param listener  the object to notify
+     */
+    public void addObjectChangeListener(ObjectChangeListener listener) {
+        objectChangeListeners.add(listener);
+    }
+
     /**
      * Required setup before the other methods of this bean can be used.
      * TODO: Why not just make this the constructor?
      */
     public void init() {
+        switch (getStoreType().trim().toLowerCase()) {
+            case TYPE_S3 -> {
 
-        // pass the AWS key id and secret key into a "credentials provider"
-        var credentials = new BasicAWSCredentials(getAccessKeyId(), getSecretAccessKey());
-        var credentialsProvider = new AWSStaticCredentialsProvider(credentials);
+                // pass the AWS key id and secret key into a "credentials provider"
+                var credentials = new BasicAWSCredentials(getAccessKeyId(), getSecretAccessKey());
+                var credentialsProvider = new AWSStaticCredentialsProvider(credentials);
 
-        // configure up an endpoint
-        var endpoint = new AwsClientBuilder.EndpointConfiguration(getBucketEndpoint(), getBucketRegion());
+                // configure up an endpoint
+                var endpoint = new AwsClientBuilder.EndpointConfiguration(getBucketEndpoint(), getBucketRegion());
 
-        // build the client object
-        s3 = AmazonS3ClientBuilder.standard().withCredentials(credentialsProvider).withEndpointConfiguration(endpoint).build();
+                // build the client object, and the object that uploads big objects in parts
+                var s3 = AmazonS3ClientBuilder.standard().withCredentials(credentialsProvider).withEndpointConfiguration(endpoint).build();
+                var multipartUploader = new MultipartUploader(s3, getBucketName(), getMultipartPartSize(), getMultipartThreads(), getMultipartRetries(), getMultipartManifestDir());
+                store = new S3ObjectStore(s3, getBucketName(), getMultipartThreshold(), multipartUploader, getDeleteThreads());
+            }
+            case TYPE_LOCAL -> {
+                if (getLocalDir() == null) {
+                    throw new ObjectStoreException("object.store.local.dir must be set to use a local object store");
+                }
+                store = new LocalObjectStore(getLocalDir());
+            }
+            default -> throw new ObjectStoreException("unknown object.store.type: " + getStoreType());
+        }
     }
 
     /**
-     * List the keys for all the objects in this bucket.
+     * List the keys for all the objects in this bucket.  This pages through the whole bucket; most
+     * callers should ask the ObjectIndex instead.
      * @return a list of keys
      */
     public List<String> listObjects() {
         var objects = new LinkedList<String>();
+        listObjects(null, batch -> batch.forEach(info -> objects.add(info.key())));
+        return objects;
+    }
 
-        // get a list of objects
-        var batch = s3.listObjects(getBucketName());
-
-        // while there are more objects
-        boolean hasMoreObjects = true;
-        while (hasMoreObjects) {
-
-            // add each object's key to the list
-            for (var summary : batch.getObjectSummaries()) {
-                objects.add(summary.getKey());
-            }
+    /**
+     * List the objects in this bucket (in key order), one page at a time.
+     * @param startAfter  only list the objects whose keys sort after this one (null to list them all)
+     * @param consumer  called with each page of objects
+     */
+    public void listObjects(String startAfter, Consumer<List<ObjectInfo>> consumer) {
+        store.list(null, startAfter, consumer);
+    }
 
-            // if there are more objects, fetch them
-            hasMoreObjects = batch.isTruncated();
-            if (hasMoreObjects) {
-                batch = s3.listNextBatchOfObjects(batch);
-            }
+    /**
+     * Get information about an object without fetching it.
+     * @param objectKey  the key of the object
+     * @return  the object's size, etag, etc.
+     */
+    public ObjectInfo readObjectInfo(String objectKey) {
+        var info = store.stat(objectKey);
+        if (info == null) {
+            throw new ObjectStoreException("no object in store with key " + objectKey);
         }
-
-        // return the list of keys
-        return objects;
+        return info;
     }
 
     /**
@@ -81,55 +193,171 @@ public class LibraryOSAO implements InitializingBean {
      * @param objectKey  the key of the object to delete.
      */
     public void deleteObject(String objectKey) {
-        s3.deleteObject(getBucketName(), objectKey);
+        store.delete(objectKey);
+        for (var listener : objectChangeListeners) {
+            listener.objectDeleted(objectKey);
+        }
+    }
+
+    /**
+     * Delete several objects from the store, with as few requests as possible.  Failing to delete one
+     * object doesn't stop the others from being deleted.
+     * @param objectKeys  the keys of the objects to delete
+     * @return  the keys of the objects that couldn't be deleted, each with the reason (empty if they all were)
+     */
+    public Map<String, String> deleteObjects(Collection<String> objectKeys) {
+        var failures = store.delete(objectKeys);
+        for (var objectKey : objectKeys) {
+            if (!failures.containsKey(objectKey)) {
+                for (var listener : objectChangeListeners) {
+                    listener.objectDeleted(objectKey);
+                }
+            }
+        }
+        return failures;
     }
 
     /**
      * Get an object from the store.
-     * TODO: implement this in a way that doesn't expose the Amazon API?
      * @param objectKey  the key of the object to fetch
-     * @return  a structure representing the object in the store (can be used to download the object)
+     * @return  a stream of the object's content (which the caller must close)
+     */
+    public InputStream readObject(String objectKey) {
+        return store.read(objectKey);
+    }
+
+    /**
+     * Get part of an object from the store.
+     * @param objectKey  the key of the object to fetch
+     * @param start  the offset of the first byte to fetch
+     * @param end  the offset of the last byte to fetch (inclusive)
+     * @return  a stream of the requested bytes (which the caller must close)
+     */
+    public InputStream readObject(String objectKey, long start, long end) {
+        return store.read(objectKey, start, end);
+    }
+
+    /**
+     * Get the local file holding an object, if the store keeps objects in local files.  Such a file can be
+     * sent to a browser without copying it through the JVM.
+     * @param objectKey  the key of the object
+     * @return  the file, or null if the objects aren't stored locally
+     */
+    public File localFile(String objectKey) {
+        return store.localFile(objectKey);
+    }
+
+    /**
+     * Generate a short-lived URL that lets a browser download an object directly from the store.
+     * @param objectKey  the key of the object
+     * @param expiry  how long the URL should work for
+     * @param contentType  the content type the store should send with the object
+     * @param contentDisposition  the content disposition the store should send with the object
+     * @return  the signed URL, or null if browsers can't get objects from the store directly
      */
-    public S3Object readObject(String objectKey) {
-        return s3.getObject(getBucketName(), objectKey);
+    public URL presignedUrl(String objectKey, Duration expiry, String contentType, String contentDisposition) {
+        return store.presignedUrl(objectKey, expiry, contentType, contentDisposition);
     }
 
     /**
-     * Upload an object to the store.
+     * Upload an object to the store.  The stream is copied to a temporary file (and hashed on the way),
+     * so that, as with a file, nothing is uploaded if an object with the same content is already in the
+     * store, and a big object is uploaded to S3 in parts.
      * @param is  a stream from which we can read the binary content of the object to be stored
      * @param contentLength  the size of the object
      * @param objectKey  the key to use to fetch this object back from the store
+     * @return  the outcome of the upload (including the key of the existing object, if the content was a duplicate)
      */
-    public void uploadObject(InputStream is, long contentLength, String objectKey) {
+    public UploadResult uploadObject(InputStream is, long contentLength, String objectKey) {
 
         // check to make sure we're not stomping an existing object
-        if (s3.doesObjectExist(getBucketName(), objectKey)) {
-            throw new ObjectStoreException("object already exists in store with key " + objectKey);
+        checkObjectDoesNotExist(objectKey);
+
+        File tempFile = null;
+        try {
+            // copy the stream to a file, hashing it on the way
+            tempFile = Files.createTempFile("upload-", ".tmp").toFile();
+            var hashing = new HashingInputStream(is);
+            Files.copy(hashing, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (hashing.getCount() != contentLength) {
+                throw new ObjectStoreException(String.format("expected %d bytes for %s but the stream had %d", contentLength, objectKey, hashing.getCount()));
+            }
+            return upload(tempFile, objectKey, hashing.getHash());
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+        finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
         }
-
-        // set the content length
-        var metadata = new ObjectMetadata();
-        metadata.setContentLength(contentLength);
-
-        // upload the object
-        s3.putObject(getBucketName(), objectKey, is, metadata);
     }
 
     /**
-     * Upload an file to the store.
+     * Upload an file to the store.  Big files are uploaded to S3 in parts (and the upload can be
+     * resumed if it fails).  The file is hashed first, and if an object with the same content is
+     * already in the store (under any key), the file isn't uploaded at all.
      * @param file  the file to upload to the store
+     * @return  the outcome of the upload (including the key of the existing object, if the file was a duplicate)
      */
-    public void uploadObject(File file) {
+    public UploadResult uploadObject(File file) {
+        var objectKey = file.getName();
+        checkObjectDoesNotExist(objectKey);
+
+        // don't upload content that's already in the store
+        String sha256;
+        try {
+            sha256 = HashingInputStream.sha256(file);
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+        return upload(file, objectKey, sha256);
+    }
 
-        // get the content length
-        var contentLength = file.length();
+    // HELPER METHODS
 
-        // upload the object
-        try (var is = new FileInputStream(file)) {
-            uploadObject(is, contentLength, file.getName());
+    // upload a file that has been hashed, unless an object with the same content is already in the store
+    protected UploadResult upload(File file, String objectKey, String sha256) {
+        var existing = findObjectWithHash(sha256);
+        if (existing != null) {
+            return new UploadResult(objectKey, existing, sha256);
         }
-        catch (IOException e) {
-            throw new ObjectStoreException(e);
+
+        store.put(objectKey, file);
+        fireObjectUploaded(objectKey);
+        recordHash(objectKey, sha256);
+        return new UploadResult(objectKey, objectKey, sha256);
+    }
+
+    protected void fireObjectUploaded(String objectKey) {
+        for (var listener : objectChangeListeners) {
+            listener.objectUploaded(objectKey);
+        }
+    }
+
+    // find an object (that's still in the store) with some content
+    protected String findObjectWithHash(String sha256) {
+        var index = contentIndex;
+        if (index == null) {
+            return null;
+        }
+        var objectKey = index.findObjectWithHash(sha256);
+        return objectKey != null && store.stat(objectKey) != null ? objectKey : null;
+    }
+
+    protected void recordHash(String objectKey, String sha256) {
+        var index = contentIndex;
+        if (index != null) {
+            index.recordHash(objectKey, sha256);
+        }
+    }
+
+    // make sure we're not about to stomp an existing object
+    protected void checkObjectDoesNotExist(String objectKey) {
+        if (store.stat(objectKey) != null) {
+            throw new ObjectStoreException("object already exists in store with key " + objectKey);
         }
     }
 
@@ -142,11 +370,29 @@ public class LibraryOSAO implements InitializingBean {
 
     // ACCESSOR METHODS
 
+    public String getStoreType() {
+        return storeType;
+    }
+
+    @Value("${object.store.type:s3}")
+    public void setStoreType(String storeType) {
+        this.storeType = storeType;
+    }
+
+    public File getLocalDir() {
+        return localDir;
+    }
+
+    @Value("${object.store.local.dir:#{null}}")
+    public void setLocalDir(File localDir) {
+        this.localDir = localDir;
+    }
+
     public String getAccessKeyId() {
         return accessKeyId;
     }
 
-    @Value("${object.store.access.key.id}")
+    @Value("${object.store.access.key.id:}")
     public void setAccessKeyId(String accessKeyId) {
         this.accessKeyId = accessKeyId;
     }
@@ -155,7 +401,7 @@ public class LibraryOSAO implements InitializingBean {
         return secretAccessKey;
     }
 
-    @Value("${object.store.secret.access.key}")
+    @Value("${object.store.secret.access.key:}")
     public void setSecretAccessKey(String secretAccessKey) {
         this.secretAccessKey = secretAccessKey;
     }
@@ -164,7 +410,7 @@ public class LibraryOSAO implements InitializingBean {
         return bucketName;
     }
 
-    @Value("${object.store.bucket.name}")
+    @Value("${object.store.bucket.name:}")
     public void setBucketName(String bucketName) {
         this.bucketName = bucketName;
     }
@@ -173,7 +419,7 @@ public class LibraryOSAO implements InitializingBean {
         return bucketEndpoint;
     }
 
-    @Value("${object.store.bucket.endpoint}")
+    @Value("${object.store.bucket.endpoint:}")
     public void setBucketEndpoint(String bucketEndpoint) {
         this.bucketEndpoint = bucketEndpoint;
     }
@@ -182,8 +428,62 @@ public class LibraryOSAO implements InitializingBean {
         return bucketRegion;
     }
 
-    @Value("${object.store.bucket.region}")
+    @Value("${object.store.bucket.region:}")
     public void setBucketRegion(String bucketRegion) {
         this.bucketRegion = bucketRegion;
     }
+
+    public long getMultipartThreshold() {
+        return multipartThreshold;
+    }
+
+    @Value("${object.store.multipart.threshold:67108864}")
+    public void setMultipartThreshold(long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
+
+    public long getMultipartPartSize() {
+        return multipartPartSize;
+    }
+
+    @Value("${object.store.multipart.part.size:16777216}")
+    public void setMultipartPartSize(long multipartPartSize) {
+        this.multipartPartSize = multipartPartSize;
+    }
+
+    public int getMultipartThreads() {
+        return multipartThreads;
+    }
+
+    @Value("${object.store.multipart.threads:4}")
+    public void setMultipartThreads(int multipartThreads) {
+        this.multipartThreads = multipartThreads;
+    }
+
+    public int getMultipartRetries() {
+        return multipartRetries;
+    }
+
+    @Value("${object.store.multipart.retries:3}")
+    public void setMultipartRetries(int multipartRetries) {
+        this.multipartRetries = multipartRetries;
+    }
+
+    public File getMultipartManifestDir() {
+        return multipartManifestDir;
+    }
+
+    @Value("${object.store.multipart.manifest.dir:${java.io.tmpdir}/library-uploads}")
+    public void setMultipartManifestDir(File multipartManifestDir) {
+        this.multipartManifestDir = multipartManifestDir;
+    }
+
+    public int getDeleteThreads() {
+        return deleteThreads;
+    }
+
+    @Value("${object.store.delete.threads:4}")
+    public void setDeleteThreads(int deleteThreads) {
+        this.deleteThreads = deleteThreads;
+    }
 }
@@ -0,0 +1,178 @@
+package org.themullers.library.s3;
+
+import org.themullers.library.RangeInputStream;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An object store kept in a directory on the local disk, for single-node installations (and for
+ * benchmarking without a network).  Each object is a file whose path under the directory is the
+ * object's key.  Because the objects are ordinary files, they can be sent to browsers with sendfile
+ * (see localFile()), and reading part of an object just seeks within the file.
+ *
+ * Objects are written to a hidden temporary file and renamed when complete, so a reader never sees
+ * a partial object.  The ETag of an object is made from its modification time and size.
+ */
+public class LocalObjectStore implements ObjectStore {
+
+    // the number of objects passed to a list() consumer at a time
+    protected final static int PAGE_SIZE = 1000;
+
+    protected Path rootDir;
+
+    public LocalObjectStore(File rootDir) {
+        this.rootDir = rootDir.toPath().toAbsolutePath().normalize();
+        try {
+            Files.createDirectories(this.rootDir);
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+    }
+
+    @Override
+    public ObjectInfo stat(String objectKey) {
+        var path = path(objectKey);
+        try {
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? info(objectKey, attributes) : null;
+        }
+        catch (NoSuchFileException x) {
+            return null;
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+    }
+
+    @Override
+    public InputStream read(String objectKey) {
+        try {
+            return Files.newInputStream(path(objectKey));
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+    }
+
+    @Override
+    public InputStream read(String objectKey, long start, long end) {
+        try {
+            return RangeInputStream.open(path(objectKey).toFile(), start, end);
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+    }
+
+    @Override
+    public void list(String prefix, String startAfter, Consumer<List<ObjectInfo>> consumer) {
+
+        // find the matching keys
+        var keys = new ArrayList<String>();
+        try (var paths = Files.walk(rootDir)) {
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                if (!path.getFileName().toString().startsWith(".")) {
+                    var key = key(path);
+                    if ((prefix == null || key.startsWith(prefix)) && (startAfter == null || key.compareTo(startAfter) > 0)) {
+                        keys.add(key);
+                    }
+                }
+            });
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+        keys.sort(null);
+
+        // pass them on a page at a time (skipping any that disappear while we're listing)
+        for (int i = 0; i < keys.size(); i += PAGE_SIZE) {
+            var page = new ArrayList<ObjectInfo>();
+            for (var key : keys.subList(i, Math.min(i + PAGE_SIZE, keys.size()))) {
+                var info = stat(key);
+                if (info != null) {
+                    page.add(info);
+                }
+            }
+            consumer.accept(page);
+        }
+    }
+
+    @Override
+    public void put(String objectKey, InputStream is, long contentLength) {
+        var path = path(objectKey);
+        try {
+            Files.createDirectories(path.getParent());
+            var tempFile = Files.createTempFile(path.getParent(), ".upload-", ".tmp");
+            try {
+                var length = Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                if (length != contentLength) {
+                    throw new ObjectStoreException(String.format("expected %d bytes for %s but got %d", contentLength, objectKey, length));
+                }
+                Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+    }
+
+    @Override
+    public void put(String objectKey, File file) {
+        try (var is = new FileInputStream(file)) {
+            put(objectKey, is, file.length());
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+    }
+
+    @Override
+    public void delete(String objectKey) {
+        try {
+            Files.deleteIfExists(path(objectKey));
+        }
+        catch (IOException x) {
+            throw new ObjectStoreException(x);
+        }
+    }
+
+    @Override
+    public File localFile(String objectKey) {
+        return path(objectKey).toFile();
+    }
+
+    // HELPER METHODS
+
+    // the file that holds an object (refusing keys that would point outside the store's directory)
+    protected Path path(String objectKey) {
+        if (objectKey == null || objectKey.isBlank()) {
+            throw new ObjectStoreException("invalid object key: " + objectKey);
+        }
+        var path = rootDir.resolve(objectKey).normalize();
+        if (!path.startsWith(rootDir) || path.equals(rootDir) || path.getFileName().toString().startsWith(".")) {
+            throw new ObjectStoreException("invalid object key: " + objectKey);
+        }
+        return path;
+    }
+
+    // the key of the object held in a file
+    protected String key(Path path) {
+        return rootDir.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    protected static ObjectInfo info(String objectKey, BasicFileAttributes attributes) {
+        var lastModified = attributes.lastModifiedTime().toMillis();
+        var etag = Long.toHexString(lastModified) + "-" + Long.toHexString(attributes.size());
+        return new ObjectInfo(objectKey, attributes.size(), etag, new Date(lastModified));
+    }
+}
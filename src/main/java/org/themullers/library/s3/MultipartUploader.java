@@ -0,0 +1,353 @@
+package org.themullers.library.s3;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads large objects in parts, several parts at a time, so a big audiobook uses more than one
+ * connection and a failure only costs the part that failed (each part is retried a few times).
+ *
+ * When a file is uploaded, a small manifest describing the upload (the file's size and modification
+ * time, and the id the object store gave the upload) is kept in the manifest directory until the upload
+ * completes.  If the upload fails, the manifest is left behind and uploading the same file again resumes
+ * the upload, skipping the parts the object store already has.  Uploads from a stream can't be resumed,
+ * so they're aborted if they fail.
+ */
+public class MultipartUploader {
+
+    private static Logger logger = LoggerFactory.getLogger(MultipartUploader.class);
+
+    // the object store won't accept parts smaller than this (except the last one) or more parts than this
+    public final static long MIN_PART_SIZE = 5 * 1024 * 1024;
+    public final static int MAX_PARTS = 10000;
+
+    protected AmazonS3 s3;
+    protected String bucketName;
+    protected long partSize;
+    protected int numThreads;
+    protected int maxRetries;
+    protected File manifestDir;
+
+    public MultipartUploader(AmazonS3 s3, String bucketName, long partSize, int numThreads, int maxRetries, File manifestDir) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+        this.numThreads = Math.max(numThreads, 1);
+        this.maxRetries = Math.max(maxRetries, 0);
+        this.manifestDir = manifestDir;
+    }
+
+    /**
+     * Upload a file, resuming an earlier upload of the same file if there is one.
+     * @param file  the file to upload
+     * @param objectKey  the key to store the file under
+     */
+    public void upload(File file, String objectKey) {
+        var length = file.length();
+        var partSize = partSizeFor(length);
+
+        // find the upload we started before, or start a new one (aborting the old one if it was for a different version of the file)
+        var manifestFile = manifestFile(objectKey);
+        var manifest = readManifest(manifestFile);
+        if (manifest != null && !sameFile(manifest, file, partSize)) {
+            abortQuietly(objectKey, manifest.getProperty("upload.id"));
+            manifest = null;
+        }
+        var uploadId = manifest == null ? null : manifest.getProperty("upload.id");
+        var uploaded = uploadId == null ? Map.<Integer, PartETag>of() : uploadedParts(objectKey, uploadId, partSize, length);
+        if (uploaded == null) {
+            abortQuietly(objectKey, uploadId);
+            uploadId = null;
+            uploaded = Map.of();
+        }
+        if (uploadId == null) {
+            uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, objectKey)).getUploadId();
+            writeManifest(manifestFile, file, partSize, objectKey, uploadId);
+        }
+        else {
+            logger.info("resuming upload of {} ({} parts already uploaded)", objectKey, uploaded.size());
+        }
+
+        // upload the parts the object store doesn't have yet
+        var numParts = (int) ((length + partSize - 1) / partSize);
+        var executor = newExecutor();
+        try {
+            var futures = new ArrayList<Future<PartETag>>();
+            for (int partNumber = 1; partNumber <= numParts; partNumber++) {
+                var done = uploaded.get(partNumber);
+                if (done != null) {
+                    futures.add(CompletableFuture.completedFuture(done));
+                    continue;
+                }
+                var offset = (partNumber - 1) * partSize;
+                var request = new UploadPartRequest()
+                        .withBucketName(bucketName)
+                        .withKey(objectKey)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withFile(file)
+                        .withFileOffset(offset)
+                        .withPartSize(Math.min(partSize, length - offset));
+                futures.add(executor.submit(() -> uploadPart(request)));
+            }
+            complete(objectKey, uploadId, await(futures));
+        }
+        catch (RuntimeException x) {
+            // leave the upload (and its manifest) so that uploading the file again will pick up where this left off
+            logger.error("upload of {} failed; upload the same file again to resume", objectKey);
+            throw x;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        manifestFile.delete();
+    }
+
+    /**
+     * Upload the content of a stream.  Parts are read from the stream into memory and uploaded while
+     * the next parts are read, with no more parts in memory than there are threads uploading them.
+     * @param is  the stream to upload
+     * @param contentLength  the number of bytes in the stream
+     * @param objectKey  the key to store the content under
+     */
+    public void upload(InputStream is, long contentLength, String objectKey) {
+        var partSize = partSizeFor(contentLength);
+        var uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, objectKey)).getUploadId();
+        var executor = newExecutor();
+        var buffers = new Semaphore(numThreads);
+        try {
+            var futures = new ArrayList<Future<PartETag>>();
+            var partNumber = 0;
+            for (long offset = 0; offset < contentLength; offset += partSize) {
+
+                // wait for a buffer to become free, then (unless a part has failed, in which case there's no point going on) fill it
+                buffers.acquire();
+                throwIfFailed(futures);
+                var buffer = is.readNBytes((int) Math.min(partSize, contentLength - offset));
+                if (buffer.length == 0) {
+                    throw new ObjectStoreException(String.format("expected %d bytes for %s but the stream ended after %d", contentLength, objectKey, offset));
+                }
+                var request = new UploadPartRequest()
+                        .withBucketName(bucketName)
+                        .withKey(objectKey)
+                        .withUploadId(uploadId)
+                        .withPartNumber(++partNumber)
+                        .withPartSize(buffer.length);
+                futures.add(executor.submit(() -> {
+                    try {
+                        return uploadPart(request, buffer);
+                    }
+                    finally {
+                        buffers.release();
+                    }
+                }));
+            }
+            complete(objectKey, uploadId, await(futures));
+        }
+        catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            abortQuietly(objectKey, uploadId);
+            throw new ObjectStoreException(x);
+        }
+        catch (IOException x) {
+            abortQuietly(objectKey, uploadId);
+            throw new ObjectStoreException(x);
+        }
+        catch (RuntimeException x) {
+            abortQuietly(objectKey, uploadId);
+            throw x;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // HELPER METHODS
+
+    // use the configured part size, unless the object is so big that would need too many parts
+    protected long partSizeFor(long length) {
+        var minForLength = (length + MAX_PARTS - 1) / MAX_PARTS;
+        return Math.max(partSize, minForLength);
+    }
+
+    // upload a part of a file, retrying if it fails
+    protected PartETag uploadPart(UploadPartRequest request) {
+        return withRetries(request, () -> s3.uploadPart(request).getPartETag());
+    }
+
+    // upload a part from memory, retrying if it fails (each attempt reads the buffer from the beginning)
+    protected PartETag uploadPart(UploadPartRequest request, byte[] buffer) {
+        return withRetries(request, () -> s3.uploadPart(request.withInputStream(new ByteArrayInputStream(buffer))).getPartETag());
+    }
+
+    protected PartETag withRetries(UploadPartRequest request, Callable<PartETag> attempt) {
+        for (int tries = 1; ; tries++) {
+            try {
+                return attempt.call();
+            }
+            catch (SdkClientException x) {
+                if (tries > maxRetries) {
+                    throw x;
+                }
+                logger.warn(String.format("part %d of %s failed (attempt %d); retrying", request.getPartNumber(), request.getKey(), tries), x);
+                sleep(1000L * tries);
+            }
+            catch (Exception x) {
+                throw new ObjectStoreException(x);
+            }
+        }
+    }
+
+    // wait for all the parts to be uploaded
+    protected List<PartETag> await(List<Future<PartETag>> futures) {
+        var etags = new ArrayList<PartETag>();
+        try {
+            for (var future : futures) {
+                etags.add(future.get());
+            }
+        }
+        catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new ObjectStoreException(x);
+        }
+        catch (ExecutionException x) {
+            if (x.getCause() instanceof RuntimeException rx) {
+                throw rx;
+            }
+            throw new ObjectStoreException(x.getCause());
+        }
+        return etags;
+    }
+
+    // throw the exception from any part that has already failed
+    protected void throwIfFailed(List<Future<PartETag>> futures) {
+        await(futures.stream().filter(Future::isDone).toList());
+    }
+
+    protected void complete(String objectKey, String uploadId, List<PartETag> etags) {
+        s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, objectKey, uploadId, etags));
+    }
+
+    // abort an upload so the object store throws away the parts, ignoring any error doing so
+    protected void abortQuietly(String objectKey, String uploadId) {
+        if (uploadId == null) {
+            return;
+        }
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, objectKey, uploadId));
+        }
+        catch (SdkClientException x) {
+            logger.warn("unable to abort upload of " + objectKey, x);
+        }
+    }
+
+    // get the parts of an earlier upload that the object store already has (null if the upload can't be resumed)
+    protected Map<Integer, PartETag> uploadedParts(String objectKey, String uploadId, long partSize, long length) {
+        var parts = new HashMap<Integer, PartETag>();
+        try {
+            var request = new ListPartsRequest(bucketName, objectKey, uploadId);
+            PartListing listing;
+            do {
+                listing = s3.listParts(request);
+                for (var part : listing.getParts()) {
+
+                    // only count a part if it's the size we would upload now
+                    var offset = (part.getPartNumber() - 1) * partSize;
+                    if (part.getSize() == Math.min(partSize, length - offset)) {
+                        parts.put(part.getPartNumber(), new PartETag(part.getPartNumber(), part.getETag()));
+                    }
+                }
+                request.setPartNumberMarker(listing.getNextPartNumberMarker());
+            } while (listing.isTruncated());
+        }
+        catch (AmazonS3Exception x) {
+            // the upload was completed, aborted, or expired
+            return null;
+        }
+        return parts;
+    }
+
+    // the manifest describing an in-progress upload of an object
+    protected File manifestFile(String objectKey) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest((bucketName + "/" + objectKey).getBytes(StandardCharsets.UTF_8));
+            return new File(manifestDir, HexFormat.of().formatHex(digest) + ".properties");
+        }
+        catch (NoSuchAlgorithmException x) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(x);
+        }
+    }
+
+    // read the manifest for an earlier upload of an object (null if there isn't one)
+    protected Properties readManifest(File manifestFile) {
+        if (!manifestFile.exists()) {
+            return null;
+        }
+        var manifest = new Properties();
+        try (var reader = new FileReader(manifestFile, StandardCharsets.UTF_8)) {
+            manifest.load(reader);
+        }
+        catch (IOException x) {
+            logger.warn("unable to read upload manifest " + manifestFile, x);
+            return null;
+        }
+        return manifest;
+    }
+
+    // whether a manifest is for this version of a file (and the part size that would be used now)
+    protected boolean sameFile(Properties manifest, File file, long partSize) {
+        return String.valueOf(file.length()).equals(manifest.getProperty("file.length"))
+                && String.valueOf(file.lastModified()).equals(manifest.getProperty("file.modified"))
+                && String.valueOf(partSize).equals(manifest.getProperty("part.size"));
+    }
+
+    protected void writeManifest(File manifestFile, File file, long partSize, String objectKey, String uploadId) {
+        var manifest = new Properties();
+        manifest.setProperty("object.key", objectKey);
+        manifest.setProperty("file.path", file.getAbsolutePath());
+        manifest.setProperty("file.length", String.valueOf(file.length()));
+        manifest.setProperty("file.modified", String.valueOf(file.lastModified()));
+        manifest.setProperty("part.size", String.valueOf(partSize));
+        manifest.setProperty("upload.id", uploadId);
+        manifestDir.mkdirs();
+        try (var writer = new FileWriter(manifestFile, StandardCharsets.UTF_8)) {
+            manifest.store(writer, "multipart upload in progress");
+        }
+        catch (IOException x) {
+            // the upload can still go ahead; it just can't be resumed
+            logger.warn("unable to write upload manifest " + manifestFile, x);
+        }
+    }
+
+    protected ExecutorService newExecutor() {
+        var threadNum = new AtomicInteger();
+        return Executors.newFixedThreadPool(numThreads, r -> {
+            var thread = new Thread(r, "upload-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    protected static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new ObjectStoreException(x);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.themullers.library.s3;
+
+import java.util.Date;
+
+/**
+ * What the object store reports about an object, without its content.
+ *
+ * @param key  the object's key
+ * @param size  the object's size in bytes
+ * @param etag  the object's ETag (without quotes)
+ * @param lastModified  when the object was last written
+ */
+public record ObjectInfo(String key, long size, String etag, Date lastModified) {
+}
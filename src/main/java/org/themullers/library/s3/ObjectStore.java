@@ -0,0 +1,110 @@
+package org.themullers.library.s3;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The operations the library needs from a store of objects (EPUBs, MOBIs and audiobooks).
+ * LibraryOSAO picks an implementation based on the object.store.type setting: S3ObjectStore
+ * for an S3-compatible bucket, or LocalObjectStore for a directory on the local disk.
+ */
+public interface ObjectStore {
+
+    /**
+     * Get information about an object without reading it.
+     * @param objectKey  the object's key
+     * @return  the object's size, etag, etc. (or null if there's no such object)
+     */
+    ObjectInfo stat(String objectKey);
+
+    /**
+     * Read an object.
+     * @param objectKey  the object's key
+     * @return  a stream of the object's content (the caller must close it)
+     */
+    InputStream read(String objectKey);
+
+    /**
+     * Read part of an object.
+     * @param objectKey  the object's key
+     * @param start  the offset of the first byte to read
+     * @param end  the offset of the last byte to read (inclusive)
+     * @return  a stream of the requested bytes (the caller must close it)
+     */
+    InputStream read(String objectKey, long start, long end);
+
+    /**
+     * List objects (in key order), one page at a time.
+     * @param prefix  only list objects whose keys start with this (null to list them all)
+     * @param startAfter  only list objects whose keys sort after this one (null to start at the beginning)
+     * @param consumer  called with each page of objects
+     */
+    void list(String prefix, String startAfter, Consumer<List<ObjectInfo>> consumer);
+
+    /**
+     * Store an object (replacing any object with the same key).
+     * @param objectKey  the object's key
+     * @param is  the object's content
+     * @param contentLength  the number of bytes in the stream
+     */
+    void put(String objectKey, InputStream is, long contentLength);
+
+    /**
+     * Store a file as an object (replacing any object with the same key).
+     * @param objectKey  the object's key
+     * @param file  the file
+     */
+    void put(String objectKey, File file);
+
+    /**
+     * Delete an object (deleting an object that doesn't exist isn't an error).
+     * @param objectKey  the object's key
+     */
+    void delete(String objectKey);
+
+    /**
+     * Delete several objects.  Failing to delete one object doesn't stop the others from being deleted.
+     * @param objectKeys  the objects' keys
+     * @return  the keys of the objects that couldn't be deleted, each with the reason (empty if they all were)
+     */
+    default Map<String, String> delete(Collection<String> objectKeys) {
+        var failures = new LinkedHashMap<String, String>();
+        for (var objectKey : objectKeys) {
+            try {
+                delete(objectKey);
+            }
+            catch (RuntimeException x) {
+                failures.put(objectKey, String.valueOf(x.getMessage()));
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Get the local file that holds an object, so it can be sent without copying it through the JVM.
+     * @param objectKey  the object's key
+     * @return  the file, or null if the store doesn't keep objects in local files
+     */
+    default File localFile(String objectKey) {
+        return null;
+    }
+
+    /**
+     * Generate a short-lived URL that lets a browser download an object directly from the store.
+     * @param objectKey  the object's key
+     * @param expiry  how long the URL should work for
+     * @param contentType  the content type the store should send with the object
+     * @param contentDisposition  the content disposition the store should send with the object
+     * @return  the URL, or null if the store can't be reached directly by browsers
+     */
+    default URL presignedUrl(String objectKey, Duration expiry, String contentType, String contentDisposition) {
+        return null;
+    }
+}
@@ -0,0 +1,287 @@
+package org.themullers.library.s3;
+
+import org.themullers.library.RangeInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads individual entries of a ZIP archive (like an EPUB) in the object store, using ranged reads
+ * so that only the parts of the archive that are needed are transferred.
+ *
+ * Opening the reader fetches the end of the archive, which holds the end-of-central-directory record
+ * and (usually) the central directory that lists the entries; if the central directory doesn't fit in
+ * that first read, it's fetched with a second one.  Reading entries then fetches just those entries,
+ * with entries that are close together in the archive fetched by a single request.
+ *
+ * ZIP64 archives and encrypted entries aren't supported (EPUBs are neither).
+ */
+public class RemoteZipReader {
+
+    // how much of the end of the archive to fetch first (the end-of-central-directory record, plus hopefully the central directory)
+    protected final static int TAIL_SIZE = 64 * 1024;
+
+    // entries separated by no more than this many bytes are fetched together
+    protected final static long COALESCE_GAP = 64 * 1024;
+
+    protected final static int EOCD_SIGNATURE = 0x06054b50;
+    protected final static int EOCD_SIZE = 22;
+    protected final static int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    protected final static int CENTRAL_HEADER_SIZE = 46;
+    protected final static int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    protected final static int LOCAL_HEADER_SIZE = 30;
+
+    protected final static int METHOD_STORED = 0;
+    protected final static int METHOD_DEFLATED = 8;
+
+    /**
+     * An entry in the archive.
+     * @param name  the entry's path within the archive
+     * @param method  how the entry is compressed (stored or deflated)
+     * @param compressedSize  the number of bytes the entry takes up in the archive
+     * @param size  the entry's uncompressed size
+     * @param offset  the offset of the entry's local header within the archive
+     * @param end  the offset of the last byte that belongs to the entry (before the next entry starts)
+     */
+    public record Entry(String name, int method, long compressedSize, long size, long offset, long end) {}
+
+    /**
+     * Called with the content of each entry that's read.
+     */
+    public interface EntryConsumer {
+
+        /**
+         * Process an entry's content.
+         * @param entry  the entry
+         * @param content  the entry's uncompressed content (which is only valid until this method returns)
+         * @throws IOException  thrown if an unexpected error occurs processing the content
+         */
+        void accept(Entry entry, InputStream content) throws IOException;
+    }
+
+    protected LibraryOSAO osao;
+    protected String objectKey;
+    protected List<Entry> entries;
+
+    protected RemoteZipReader(LibraryOSAO osao, String objectKey, List<Entry> entries) {
+        this.osao = osao;
+        this.objectKey = objectKey;
+        this.entries = entries;
+    }
+
+    /**
+     * Open an archive in the object store, reading its list of entries.
+     * @param osao  the object store
+     * @param objectKey  the archive's key
+     * @return  a reader for the archive
+     * @throws IOException  thrown if the object isn't a ZIP archive this class can read, or can't be read
+     */
+    public static RemoteZipReader open(LibraryOSAO osao, String objectKey) throws IOException {
+        var length = osao.readObjectInfo(objectKey).size();
+        if (length < EOCD_SIZE) {
+            throw new ZipException("not a zip archive: " + objectKey);
+        }
+
+        // fetch the end of the archive and find the end-of-central-directory record in it
+        var tailStart = Math.max(0, length - TAIL_SIZE);
+        var tail = read(osao, objectKey, tailStart, length - 1);
+        var eocd = findEndOfCentralDirectory(tail);
+        if (eocd < 0) {
+            throw new ZipException("no end of central directory record in " + objectKey);
+        }
+        var directorySize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+        var directoryOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+        if (directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            throw new ZipException("zip64 archives are not supported: " + objectKey);
+        }
+        if (directoryOffset + directorySize > tailStart + eocd) {
+            throw new ZipException("central directory is out of bounds in " + objectKey);
+        }
+
+        // use the central directory from the tail if it's there, otherwise fetch it
+        ByteBuffer directory;
+        if (directoryOffset >= tailStart) {
+            directory = tail.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            directory.position((int) (directoryOffset - tailStart));
+            directory.limit((int) (directoryOffset - tailStart + directorySize));
+            directory = directory.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        else {
+            directory = read(osao, objectKey, directoryOffset, directoryOffset + directorySize - 1);
+        }
+
+        return new RemoteZipReader(osao, objectKey, parseCentralDirectory(directory, directoryOffset));
+    }
+
+    /**
+     * Get the entries in the archive.
+     * @return  the entries, in the order they appear in the central directory
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Find an entry by name.
+     * @param name  the entry's path within the archive
+     * @return  the entry, or null if there isn't one with that name
+     */
+    public Entry entry(String name) {
+        for (var entry : entries) {
+            if (entry.name().equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the content of some of the archive's entries.  The entries are fetched in the order they
+     * appear in the archive, and entries that are close together are fetched with one request.
+     * @param wanted  the entries to read
+     * @param consumer  called with the content of each entry
+     * @throws IOException  thrown if an unexpected error occurs reading the entries
+     */
+    public void read(Collection<Entry> wanted, EntryConsumer consumer) throws IOException {
+        var sorted = new ArrayList<>(wanted);
+        sorted.sort(Comparator.comparingLong(Entry::offset));
+
+        // group the entries into runs that can be fetched with one request each
+        var run = new ArrayList<Entry>();
+        for (var entry : sorted) {
+            if (!run.isEmpty() && entry.offset() - run.get(run.size() - 1).end() - 1 > COALESCE_GAP) {
+                readRun(run, consumer);
+                run.clear();
+            }
+            run.add(entry);
+        }
+        if (!run.isEmpty()) {
+            readRun(run, consumer);
+        }
+    }
+
+    // HELPER METHODS
+
+    // fetch a run of entries with one ranged read
+    protected void readRun(List<Entry> run, EntryConsumer consumer) throws IOException {
+        var start = run.get(0).offset();
+        var end = run.get(run.size() - 1).end();
+        try (var in = osao.readObject(objectKey, start, end)) {
+            var position = start;
+            for (var entry : run) {
+
+                // skip the gap before the entry
+                in.skipNBytes(entry.offset() - position);
+
+                // the local header has its own copy of the name and extra field, which can differ in length from the central directory's
+                var header = ByteBuffer.wrap(in.readNBytes(LOCAL_HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+                if (header.limit() < LOCAL_HEADER_SIZE || header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                    throw new ZipException("bad local header for " + entry.name() + " in " + objectKey);
+                }
+                var nameLength = Short.toUnsignedInt(header.getShort(26));
+                var extraLength = Short.toUnsignedInt(header.getShort(28));
+                in.skipNBytes(nameLength + extraLength);
+
+                // hand over the entry's content, then skip whatever the consumer didn't read
+                var dataStart = entry.offset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+                var data = new RangeInputStream(in, entry.compressedSize()) {
+                    @Override
+                    public void close() {
+                        // leave the underlying stream open for the next entry
+                    }
+                };
+                if (entry.method() == METHOD_DEFLATED) {
+                    var inflater = new Inflater(true);
+                    try {
+                        consumer.accept(entry, new InflaterInputStream(data, inflater));
+                    }
+                    finally {
+                        inflater.end();
+                    }
+                }
+                else {
+                    consumer.accept(entry, data);
+                }
+                data.transferTo(OutputStream.nullOutputStream());
+
+                // skip anything after the content (like a data descriptor), up to the end of the entry
+                in.skipNBytes(entry.end() - (dataStart + entry.compressedSize()) + 1);
+                position = entry.end() + 1;
+            }
+        }
+    }
+
+    protected static ByteBuffer read(LibraryOSAO osao, String objectKey, long start, long end) throws IOException {
+        try (var in = osao.readObject(objectKey, start, end)) {
+            var bytes = in.readNBytes((int) (end - start + 1));
+            if (bytes.length != end - start + 1) {
+                throw new ZipException(String.format("expected %d bytes from %s but got %d", end - start + 1, objectKey, bytes.length));
+            }
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // search backwards for the end-of-central-directory record (it's followed by a comment of up to 64k)
+    protected static int findEndOfCentralDirectory(ByteBuffer tail) {
+        for (int i = tail.limit() - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_SIZE + Short.toUnsignedInt(tail.getShort(i + 20)) == tail.limit()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // read the entries listed in the central directory (skipping the ones this class can't read)
+    protected static List<Entry> parseCentralDirectory(ByteBuffer directory, long directoryOffset) throws ZipException {
+
+        // first pass: read the headers
+        record Header(String name, int method, long compressedSize, long size, long offset, boolean readable) {}
+        var headers = new ArrayList<Header>();
+        var pos = 0;
+        while (pos + CENTRAL_HEADER_SIZE <= directory.limit() && directory.getInt(pos) == CENTRAL_HEADER_SIGNATURE) {
+            var flags = Short.toUnsignedInt(directory.getShort(pos + 8));
+            var method = Short.toUnsignedInt(directory.getShort(pos + 10));
+            var compressedSize = Integer.toUnsignedLong(directory.getInt(pos + 20));
+            var size = Integer.toUnsignedLong(directory.getInt(pos + 24));
+            var nameLength = Short.toUnsignedInt(directory.getShort(pos + 28));
+            var extraLength = Short.toUnsignedInt(directory.getShort(pos + 30));
+            var commentLength = Short.toUnsignedInt(directory.getShort(pos + 32));
+            var offset = Integer.toUnsignedLong(directory.getInt(pos + 42));
+            if (pos + CENTRAL_HEADER_SIZE + nameLength > directory.limit()) {
+                throw new ZipException("truncated central directory");
+            }
+
+            // names are UTF-8 if bit 11 of the flags is set (and in practice, usually ASCII if it's not)
+            var nameBytes = new byte[nameLength];
+            directory.get(pos + CENTRAL_HEADER_SIZE, nameBytes);
+            var name = new String(nameBytes, (flags & 0x800) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+
+            var encrypted = (flags & 1) != 0;
+            var readable = !encrypted && (method == METHOD_STORED || method == METHOD_DEFLATED);
+            headers.add(new Header(name, method, compressedSize, size, offset, readable));
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        // second pass: each entry ends where the next one (in archive order) starts, or where the central directory starts
+        var offsets = new TreeSet<Long>();
+        headers.forEach(h -> offsets.add(h.offset()));
+        var entries = new ArrayList<Entry>(headers.size());
+        for (var h : headers) {
+            if (!h.readable()) {
+                continue;
+            }
+            var next = offsets.higher(h.offset());
+            var end = (next == null ? directoryOffset : next) - 1;
+            entries.add(new Entry(h.name(), h.method(), h.compressedSize(), h.size(), h.offset(), end));
+        }
+        return entries;
+    }
+}
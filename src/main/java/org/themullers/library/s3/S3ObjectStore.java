@@ -0,0 +1,190 @@
+package org.themullers.library.s3;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * An object store backed by one bucket in an S3-compatible service.  Objects at least as big as
+ * the multipart threshold are uploaded in parts (see MultipartUploader).  Objects are deleted in
+ * batches of up to 1000 keys per request, with several requests at a time.
+ */
+public class S3ObjectStore implements ObjectStore {
+
+    // the most keys S3 will accept in one delete request
+    public final static int MAX_KEYS_PER_DELETE = 1000;
+
+    protected AmazonS3 s3;
+    protected String bucketName;
+    protected long multipartThreshold;
+    protected MultipartUploader multipartUploader;
+    protected int deleteThreads;
+
+    public S3ObjectStore(AmazonS3 s3, String bucketName, long multipartThreshold, MultipartUploader multipartUploader, int deleteThreads) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.multipartThreshold = multipartThreshold;
+        this.multipartUploader = multipartUploader;
+        this.deleteThreads = Math.max(deleteThreads, 1);
+    }
+
+    @Override
+    public ObjectInfo stat(String objectKey) {
+        try {
+            var metadata = s3.getObjectMetadata(bucketName, objectKey);
+            return new ObjectInfo(objectKey, metadata.getContentLength(), metadata.getETag(), metadata.getLastModified());
+        }
+        catch (AmazonS3Exception x) {
+            if (x.getStatusCode() == 404) {
+                return null;
+            }
+            throw x;
+        }
+    }
+
+    @Override
+    public InputStream read(String objectKey) {
+        return s3.getObject(bucketName, objectKey).getObjectContent();
+    }
+
+    @Override
+    public InputStream read(String objectKey, long start, long end) {
+        return s3.getObject(new GetObjectRequest(bucketName, objectKey).withRange(start, end)).getObjectContent();
+    }
+
+    @Override
+    public void list(String prefix, String startAfter, Consumer<List<ObjectInfo>> consumer) {
+        var request = new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix).withStartAfter(startAfter);
+        ListObjectsV2Result batch;
+        do {
+            batch = s3.listObjectsV2(request);
+            var page = new ArrayList<ObjectInfo>(batch.getObjectSummaries().size());
+            for (var summary : batch.getObjectSummaries()) {
+                page.add(new ObjectInfo(summary.getKey(), summary.getSize(), summary.getETag(), summary.getLastModified()));
+            }
+            consumer.accept(page);
+            request.setContinuationToken(batch.getNextContinuationToken());
+        } while (batch.isTruncated());
+    }
+
+    @Override
+    public void put(String objectKey, InputStream is, long contentLength) {
+
+        // upload big objects in parts
+        if (contentLength >= multipartThreshold) {
+            multipartUploader.upload(is, contentLength, objectKey);
+            return;
+        }
+
+        var metadata = new ObjectMetadata();
+        metadata.setContentLength(contentLength);
+        s3.putObject(bucketName, objectKey, is, metadata);
+    }
+
+    @Override
+    public void put(String objectKey, File file) {
+
+        // upload big files in parts (which can be resumed if the upload fails)
+        if (file.length() >= multipartThreshold) {
+            multipartUploader.upload(file, objectKey);
+            return;
+        }
+
+        s3.putObject(bucketName, objectKey, file);
+    }
+
+    @Override
+    public void delete(String objectKey) {
+        s3.deleteObject(bucketName, objectKey);
+    }
+
+    @Override
+    public Map<String, String> delete(Collection<String> objectKeys) {
+
+        // split the keys into batches, one per request
+        var keys = new ArrayList<>(new LinkedHashSet<>(objectKeys));
+        var batches = new ArrayList<List<String>>();
+        for (int start = 0; start < keys.size(); start += MAX_KEYS_PER_DELETE) {
+            batches.add(keys.subList(start, Math.min(start + MAX_KEYS_PER_DELETE, keys.size())));
+        }
+        if (batches.size() == 1) {
+            return deleteBatch(batches.get(0));
+        }
+
+        // send several requests at a time
+        var threadNum = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(Math.min(deleteThreads, batches.size()), r -> {
+            var thread = new Thread(r, "delete-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            var futures = new ArrayList<Future<Map<String, String>>>();
+            for (var batch : batches) {
+                futures.add(executor.submit(() -> deleteBatch(batch)));
+            }
+            var failures = new LinkedHashMap<String, String>();
+            for (var future : futures) {
+                failures.putAll(future.get());
+            }
+            return failures;
+        }
+        catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new ObjectStoreException(x);
+        }
+        catch (ExecutionException x) {
+            throw new ObjectStoreException(x.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public URL presignedUrl(String objectKey, Duration expiry, String contentType, String contentDisposition) {
+        var headers = new ResponseHeaderOverrides().withContentType(contentType).withContentDisposition(contentDisposition);
+        var request = new GeneratePresignedUrlRequest(bucketName, objectKey, HttpMethod.GET)
+                .withExpiration(new Date(System.currentTimeMillis() + expiry.toMillis()))
+                .withResponseHeaders(headers);
+        return s3.generatePresignedUrl(request);
+    }
+
+    // HELPER METHODS
+
+    // delete up to 1000 objects with one request, returning the keys that couldn't be deleted
+    protected Map<String, String> deleteBatch(List<String> keys) {
+        var failures = new LinkedHashMap<String, String>();
+        if (keys.isEmpty()) {
+            return failures;
+        }
+
+        // in quiet mode, the response only lists the keys that couldn't be deleted
+        var request = new DeleteObjectsRequest(bucketName).withQuiet(true).withKeys(keys.toArray(new String[0]));
+        try {
+            s3.deleteObjects(request);
+        }
+        catch (MultiObjectDeleteException x) {
+            for (var error : x.getErrors()) {
+                failures.put(error.getKey(), error.getCode() + ": " + error.getMessage());
+            }
+        }
+        catch (SdkClientException x) {
+            // the whole request failed
+            for (var key : keys) {
+                failures.put(key, String.valueOf(x.getMessage()));
+            }
+        }
+        return failures;
+    }
+}
@@ -9,14 +9,12 @@ import java.sql.SQLException;
 public class AssetChecker extends CommandLineTool {
 
     public void checkAssets() throws Exception {
-        var assets = osao.listObjects();
-        var books = dao.fetchAllBooks();
-
-        for (var book : books) {
+        var assets = objectIndex.listObjects();
+        dao.streamAllBooks(book -> {
             assets.remove(book.getEpubObjectKey());
             assets.remove(book.getMobiObjectKey());
             assets.remove(book.getAudiobookObjectKey());
-        }
+        });
 
         for (var asset : assets) {
             if (!asset.endsWith(".azw3")) {
@@ -2,6 +2,7 @@ package org.themullers.library.tools;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.HashSet;
 
 /**
  * Check for missing MOBI and/or EPUB, asset reference not in S3, etc.
@@ -10,14 +11,15 @@ public class BookChecker extends CommandLineTool {
 
     public void execute() throws Exception {
 
-        var assets = osao.listObjects();
+        var assets = new HashSet<>(objectIndex.listObjects());
+        var booksWithCovers = dao.fetchBookIdsWithCoverImages();
 
-        for (var book : dao.fetchAllBooks()) {
+        dao.streamAllBooks(book -> {
 
             var epub = book.getEpubObjectKey();
             var mobi = book.getMobiObjectKey();
             var audio = book.getAudiobookObjectKey();
-            var hasCoverImage = dao.hasCoverImage(book.getId());
+            var hasCoverImage = booksWithCovers.contains(book.getId());
             var pubYear = book.getPublicationYear();
 
             // no epub specified in database
@@ -56,7 +58,7 @@ public class BookChecker extends CommandLineTool {
             if (pubYear < 1000) {
                 logger.error("bad publication year (" + pubYear + ") for book " + book.getId() + " (" + epub + ")");
             }
-        }
+        });
 
         for (var epub : dao.epubsInMultipleBooks()) {
             logger.error("epub is used by more than one book: " + epub);
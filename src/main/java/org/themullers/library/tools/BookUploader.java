@@ -12,7 +12,7 @@ public class BookUploader extends CommandLineTool {
 
     public void uploadBooks() throws IOException {
 
-        var objKeys = osao.listObjects();
+        var objKeys = objectIndex.listObjects();
         for (var key : objKeys) {
             logger.info("in object store: " + key);
         }
@@ -26,7 +26,10 @@ public class BookUploader extends CommandLineTool {
 
                     if ((lcFilename.endsWith(".epub") || lcFilename.endsWith(".mobi")) && !objKeys.contains(filename)) {
                         logger.info("found file to upload: " + filename);
-                        osao.uploadObject(p.toFile());
+                        var result = osao.uploadObject(p.toFile());
+                        if (result.isDuplicate()) {
+                            logger.info("not uploaded; same content as " + result.storedKey());
+                        }
                     }
 
                 });
@@ -4,9 +4,12 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.themullers.library.CoverStore;
+import org.themullers.library.ObjectIndex;
 import org.themullers.library.db.LibraryDAO;
 import org.themullers.library.s3.LibraryOSAO;
 
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.DriverManager;
@@ -28,6 +31,7 @@ public abstract class CommandLineTool {
     protected Properties config;
     protected LibraryDAO dao;
     protected LibraryOSAO osao;
+    protected ObjectIndex objectIndex;
 
     // constructor
     public CommandLineTool() throws IOException, SQLException {
@@ -45,6 +49,7 @@ public abstract class CommandLineTool {
         // get access objects for the DB and object store
         dao = makeDao(config);
         osao = makeOsao(config);
+        objectIndex = new ObjectIndex(dao, osao);
     }
 
     /**
@@ -99,6 +104,15 @@ public abstract class CommandLineTool {
         return new LibraryDAO(jt);
     }
 
+    /**
+     * Create an object for use storing cover images.
+     * @param config  the application config file with the location of the cover store
+     * @return  a cover store
+     */
+    protected CoverStore makeCoverStore(Properties config) {
+        return new CoverStore(new File(config.getProperty("cover.store.dir")));
+    }
+
     /**
      * Create an object for use accessing the object store.
      * @param config  the application config file with endpoint info and credentials
@@ -108,6 +122,16 @@ public abstract class CommandLineTool {
 
         var osao = new LibraryOSAO();
 
+        // set the type of store (and its directory, if it's on the local disk) from the config file
+        var type = config.getProperty("object.store.type");
+        if (type != null) {
+            osao.setStoreType(type);
+        }
+        var localDir = config.getProperty("object.store.local.dir");
+        if (localDir != null) {
+            osao.setLocalDir(new File(localDir));
+        }
+
         // set connection info from config file
         osao.setAccessKeyId(config.getProperty("object.store.access.key.id"));
         osao.setSecretAccessKey(config.getProperty("object.store.secret.access.key"));
@@ -115,6 +139,28 @@ public abstract class CommandLineTool {
         osao.setBucketEndpoint(config.getProperty("object.store.bucket.endpoint"));
         osao.setBucketRegion(config.getProperty("object.store.bucket.region"));
 
+        // the multipart upload settings are optional
+        var threshold = config.getProperty("object.store.multipart.threshold");
+        if (threshold != null) {
+            osao.setMultipartThreshold(Long.parseLong(threshold));
+        }
+        var partSize = config.getProperty("object.store.multipart.part.size");
+        if (partSize != null) {
+            osao.setMultipartPartSize(Long.parseLong(partSize));
+        }
+        var threads = config.getProperty("object.store.multipart.threads");
+        if (threads != null) {
+            osao.setMultipartThreads(Integer.parseInt(threads));
+        }
+        var manifestDir = config.getProperty("object.store.multipart.manifest.dir");
+        if (manifestDir != null) {
+            osao.setMultipartManifestDir(new File(manifestDir));
+        }
+        var deleteThreads = config.getProperty("object.store.delete.threads");
+        if (deleteThreads != null) {
+            osao.setDeleteThreads(Integer.parseInt(deleteThreads));
+        }
+
         // initialize after all the properties are set
         osao.init();
 
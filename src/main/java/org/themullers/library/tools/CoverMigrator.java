@@ -0,0 +1,48 @@
+package org.themullers.library.tools;
+
+import org.themullers.library.CoverStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Moves cover images that are stored as blobs in the cover_images table into the cover store,
+ * a batch at a time.  Each image is read from the database one at a time, so this runs in
+ * constant memory; it can be stopped and restarted, since it only picks up covers that haven't
+ * been moved yet.  Run migrations/005-drop-cover-bits.sql once this has finished.
+ */
+public class CoverMigrator extends CommandLineTool {
+
+    protected final static int BATCH_SIZE = 100;
+
+    protected CoverStore coverStore;
+
+    public void migrateCovers() throws IOException {
+        int numMigrated = 0;
+
+        // keep fetching batches of covers until there are none left to move
+        var ids = dao.fetchCoverImageIdsToMigrate(BATCH_SIZE);
+        while (!ids.isEmpty()) {
+            for (var id : ids) {
+
+                // copy the image to the cover store, then record its hash and clear the blob
+                var cover = dao.fetchCoverBits(id);
+                var image = coverStore.store(new ByteArrayInputStream(cover.bits()), cover.mimeType());
+                dao.setCoverImageMigrated(id, image);
+                numMigrated++;
+            }
+            logger.info("moved " + numMigrated + " cover images");
+            ids = dao.fetchCoverImageIdsToMigrate(BATCH_SIZE);
+        }
+    }
+
+    public CoverMigrator() throws IOException, SQLException {
+        super();
+        coverStore = makeCoverStore(config);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new CoverMigrator().migrateCovers();
+    }
+}
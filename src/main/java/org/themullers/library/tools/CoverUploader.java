@@ -1,16 +1,20 @@
 package org.themullers.library.tools;
 
+import org.themullers.library.CoverStore;
+
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 
 /**
- * Uploads cover images from the Calibre repository to the library database for
+ * Uploads cover images from the Calibre repository to the library's cover store for
  * books that are missing cover images.
  */
 public class CoverUploader extends CommandLineTool {
 
+    protected CoverStore coverStore;
+
     public void uploadCovers() throws IOException {
 
         // walk through all the documents in the calibre directory
@@ -52,7 +56,8 @@ public class CoverUploader extends CommandLineTool {
 
                     // upload the cover image
                     try {
-                        dao.insertCoverImage(bookId, "cover.jpg", "image/jpeg", Files.readAllBytes(p));
+                        var image = coverStore.store(coverImageFile, "image/jpeg");
+                        dao.insertCoverImage(bookId, "cover.jpg", image);
                     }
                     catch (IOException x) {
                         logger.error("failure uploading cover image", x);
@@ -64,6 +69,7 @@ public class CoverUploader extends CommandLineTool {
 
     public CoverUploader() throws IOException, SQLException {
         super();
+        coverStore = makeCoverStore(config);
     }
 
     public static void main(String[] args) throws Exception {
@@ -9,13 +9,11 @@ import java.sql.SQLException;
 public class DeleteAzws extends CommandLineTool {
 
     public void execute() {
-        var objects = osao.listObjects();
-        for (var obj : objects) {
-            if (obj.endsWith(".azw3")) {
-                logger.info("deleting " + obj);
-                osao.deleteObject(obj);
-            }
-        }
+        var objects = objectIndex.listObjects("azw3");
+        logger.info("deleting " + objects.size() + " objects");
+        var failures = osao.deleteObjects(objects);
+        failures.forEach((obj, reason) -> logger.error("unable to delete " + obj + ": " + reason));
+        logger.info("deleted " + (objects.size() - failures.size()) + " objects");
     }
 
     public DeleteAzws() throws IOException, SQLException {
@@ -2,8 +2,12 @@ package org.themullers.library.tools;
 
 import org.themullers.library.LibUtils;
 
+import org.themullers.library.Book;
+
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedList;
 
 /**
  * For each book that has no MOBI, try to find the MOBI in the object store.
@@ -11,10 +15,11 @@ import java.sql.SQLException;
 public class MobiMatcher extends CommandLineTool {
 
     public void matchMobis() {
-        var objectKeys = osao.listObjects();
-        var books = dao.fetchAllBooks();
+        var objectKeys = new HashSet<>(objectIndex.listObjects("mobi"));
+        var matched = new LinkedList<Book>();
 
-        for (var book : books) {
+        // find the matches while the books are streamed from the database
+        dao.streamAllBooks(book -> {
             if (book.getMobiObjectKey() == null) {
                 var epub = book.getEpubObjectKey();
                 logger.info("book has no MOBI: " + epub);
@@ -23,12 +28,17 @@ public class MobiMatcher extends CommandLineTool {
                 if (objectKeys.contains(mobi)) {
                     logger.info("we have a MOBI for that book!");
                     book.setMobiObjectKey(mobi);
-                    dao.updateBook(book);
+                    matched.add(book);
                 }
                 else {
                     logger.warn("no mobi :(");
                 }
             }
+        });
+
+        // then update the books (the connection can't be used for updates while it's streaming)
+        for (var book : matched) {
+            dao.updateBook(book);
         }
     }
 
@@ -0,0 +1,35 @@
+package org.themullers.library.tools;
+
+import org.themullers.library.s3.HashingInputStream;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Hashes the content of the objects in the object store that the object index doesn't have a hash for
+ * (the objects that were uploaded before hashes were kept, or were replaced behind the library's back).
+ */
+public class ObjectHasher extends CommandLineTool {
+
+    public void hashObjects() throws IOException {
+        var buffer = new byte[64 * 1024];
+        for (var objectKey : objectIndex.listUnhashedObjects()) {
+            try (var is = new HashingInputStream(osao.readObject(objectKey))) {
+                while (is.read(buffer) >= 0) {
+                    // just reading is enough
+                }
+                var sha256 = is.getHash();
+                logger.info(objectKey + ": " + sha256);
+                objectIndex.recordHash(objectKey, sha256);
+            }
+        }
+    }
+
+    public ObjectHasher() throws IOException, SQLException {
+        super();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ObjectHasher().hashObjects();
+    }
+}
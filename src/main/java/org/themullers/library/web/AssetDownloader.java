@@ -0,0 +1,297 @@
+package org.themullers.library.web;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.themullers.library.LibUtils;
+import org.themullers.library.RangeInputStream;
+import org.themullers.library.s3.AssetDiskCache;
+import org.themullers.library.s3.LibraryOSAO;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends assets (EPUBs, MOBIs and audiobooks) from the object store to the browser, honoring
+ * Range and If-Range headers so that players can seek and interrupted downloads can resume
+ * without fetching the whole object again.
+ *
+ * Each requested range is fetched from the object store with a ranged GET, so only the bytes
+ * the client asked for are transferred.  Assets in the local disk cache (see AssetDiskCache) are
+ * sent from the cached file instead, with sendfile when the container supports it; an asset that
+ * isn't cached is sent from the object store while the cache downloads it in the background.
+ *
+ * The object's ETag and modification time are sent with the asset, and a conditional request
+ * (If-None-Match or If-Modified-Since) for an asset that hasn't changed gets a 304 after nothing
+ * more than a look at the object's metadata.
+ *
+ * The asset's bytes are copied with non-blocking servlet I/O (see AsyncAssetPump): the object
+ * store is read on a small pool of reader threads (library.download.read.threads), and no thread
+ * waits while a slow client catches up.
+ *
+ * Alternatively (with library.download.mode=redirect), the browser is redirected to a short-lived
+ * presigned URL and downloads the asset straight from the object store, which handles ranges itself;
+ * the asset's bytes then never pass through this server.  Either way, the user has already been
+ * authorized by the time the request gets here.
+ */
+@Component
+public class AssetDownloader implements DisposableBean {
+
+    public final static String MODE_PROXY = "proxy";
+    public final static String MODE_REDIRECT = "redirect";
+
+    LibraryOSAO osao;
+    AssetDiskCache assetCache;
+    LibUtils libUtils;
+    boolean redirect;
+    Duration urlExpiry;
+    long asyncTimeoutMillis;
+    ExecutorService readers;
+
+    public AssetDownloader(LibraryOSAO osao, AssetDiskCache assetCache, LibUtils libUtils, @Value("${library.download.mode:proxy}") String mode, @Value("${library.download.url.expiry.seconds:300}") long urlExpirySeconds,
+                           @Value("${library.download.read.threads:16}") int numReaders, @Value("${library.download.timeout.ms:0}") long asyncTimeoutMillis) {
+        this.osao = osao;
+        this.assetCache = assetCache;
+        this.libUtils = libUtils;
+        this.urlExpiry = Duration.ofSeconds(urlExpirySeconds);
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+
+        // daemon threads that read from the object store for downloads in progress
+        var threadNum = new AtomicInteger();
+        readers = Executors.newFixedThreadPool(numReaders, r -> {
+            var thread = new Thread(r, "asset-reader-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // make sure the mode is one we know about
+        switch (mode.trim().toLowerCase()) {
+            case MODE_PROXY -> redirect = false;
+            case MODE_REDIRECT -> redirect = true;
+            default -> throw new IllegalArgumentException("unknown library.download.mode: " + mode);
+        }
+    }
+
+    /**
+     * Send an asset (or the parts of it that were requested) to the browser.  This may return before
+     * the body has been sent; the rest is sent asynchronously.
+     * @param objectKey  the asset's key in the object store (may be null if the book doesn't have this asset)
+     * @param request  the http request
+     * @param response  the http response that the asset will be written to
+     * @throws IOException  thrown if an unexpected error occurs writing to the response
+     */
+    public void download(String objectKey, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        if (objectKey == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // let the browser get the asset directly from the object store (if the store can be reached directly)
+        if (redirect) {
+            var url = osao.presignedUrl(objectKey, urlExpiry, libUtils.mimeTypeForFile(objectKey), libUtils.contentDisposition(objectKey));
+            if (url != null) {
+
+                // the url stops working soon, so don't let anyone hang on to the redirect
+                response.setHeader("Cache-Control", "no-store");
+                response.sendRedirect(url.toString());
+                return;
+            }
+        }
+
+        // a browser that already has the asset only needs to hear that it hasn't changed (which doesn't need the asset itself)
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (isConditional(request)) {
+            var info = osao.readObjectInfo(objectKey);
+            var etag = info.etag() == null ? null : "\"" + info.etag() + "\"";
+            var lastModified = info.lastModified() == null ? -1 : info.lastModified().getTime();
+            if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+                return;
+            }
+        }
+
+        // serve the asset from the disk cache if it's there; otherwise straight from the object store (and have the cache fetch a copy for next time)
+        var cached = assetCache.peek(objectKey);
+        if (cached == null) {
+            assetCache.fill(objectKey);
+        }
+        long totalLength;
+        String etag;
+        long lastModified;
+        if (cached != null) {
+            totalLength = cached.length();
+            etag = "\"" + cached.etag() + "\"";
+            lastModified = cached.lastModified();
+        }
+        else {
+            var info = osao.readObjectInfo(objectKey);
+            totalLength = info.size();
+            etag = info.etag() == null ? null : "\"" + info.etag() + "\"";
+            lastModified = info.lastModified() == null ? -1 : info.lastModified().getTime();
+        }
+        var mimeType = libUtils.mimeTypeForFile(objectKey);
+
+        // these are the same whether we send the whole asset or just part of it
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Content-Disposition", libUtils.contentDisposition(objectKey));
+        if (etag != null) {
+            response.setHeader("ETag", etag);
+        }
+        if (lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+
+        // figure out which ranges were requested (ignoring the Range header if If-Range says the client's copy is out of date)
+        var ranges = ByteRange.parse(request.getHeader("Range"), totalLength);
+        if (ranges != null && !ifRangeMatches(request, etag, lastModified)) {
+            ranges = null;
+        }
+
+        // send the whole thing
+        if (ranges == null) {
+            response.setContentType(mimeType);
+            response.setContentLengthLong(totalLength);
+            if (cached != null && libUtils.sendfileSupported(request)) {
+                libUtils.writeFileRangeToResponse(cached.file(), 0, totalLength, request, response);
+                return;
+            }
+            var whole = totalLength == 0 ? List.<AsyncAssetPump.Segment>of() : List.of(new AsyncAssetPump.Segment(null, () -> open(objectKey, cached, null)));
+            send(whole, request, response);
+        }
+
+        // none of the requested ranges are within the asset
+        else if (ranges.isEmpty()) {
+            response.setHeader("Content-Range", "bytes */" + totalLength);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+
+        // send one range
+        else if (ranges.size() == 1) {
+            var range = ranges.get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(mimeType);
+            response.setContentLengthLong(range.length());
+            response.setHeader("Content-Range", range.contentRange(totalLength));
+            if (cached != null && libUtils.sendfileSupported(request)) {
+                libUtils.writeFileRangeToResponse(cached.file(), range.start(), range.end() + 1, request, response);
+                return;
+            }
+            send(List.of(new AsyncAssetPump.Segment(null, () -> open(objectKey, cached, range))), request, response);
+        }
+
+        // send several ranges as a multipart response
+        else {
+            sendMultipart(objectKey, cached, ranges, mimeType, totalLength, request, response);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        readers.shutdownNow();
+    }
+
+    // HELPER METHODS
+
+    // does the request ask for the asset only if it has (or hasn't) changed?
+    protected boolean isConditional(HttpServletRequest request) {
+        return request.getHeader("If-None-Match") != null || request.getHeader("If-Modified-Since") != null
+                || request.getHeader("If-Match") != null || request.getHeader("If-Unmodified-Since") != null;
+    }
+
+    // does the If-Range header (if there is one) match the current version of the asset?
+    protected boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        var ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+
+        // an entity tag (only a strong one can match)
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag != null && etag.equals(ifRange);
+        }
+
+        // a date, which has to match the modification time exactly (to the second, the precision of http dates)
+        try {
+            var date = request.getDateHeader("If-Range");
+            return lastModified >= 0 && date / 1000 == lastModified / 1000;
+        }
+        catch (IllegalArgumentException x) {
+            return false;
+        }
+    }
+
+    // open a stream of the asset (or one range of it), from the cached file if there is one and otherwise from the object store
+    protected InputStream open(String objectKey, AssetDiskCache.CachedAsset cached, ByteRange range) throws IOException {
+        if (cached != null) {
+            return range == null ? Files.newInputStream(cached.file().toPath()) : RangeInputStream.open(cached.file(), range.start(), range.end());
+        }
+        return range == null ? osao.readObject(objectKey) : osao.readObject(objectKey, range.start(), range.end());
+    }
+
+    // send the body of the response, asynchronously if the container allows it (see AsyncAssetPump)
+    protected void send(List<AsyncAssetPump.Segment> segments, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (request.isAsyncSupported()) {
+            var context = request.startAsync();
+            context.setTimeout(asyncTimeoutMillis);
+            AsyncAssetPump.start(context, readers, segments);
+            return;
+        }
+
+        // otherwise copy each segment to the response
+        var os = response.getOutputStream();
+        for (var segment : segments) {
+            if (segment.prefix() != null) {
+                os.write(segment.prefix());
+            }
+            if (segment.body() != null) {
+                try (var is = segment.body().call()) {
+                    is.transferTo(os);
+                }
+                catch (IOException | RuntimeException x) {
+                    throw x;
+                }
+                catch (Exception x) {
+                    throw new IOException(x);
+                }
+            }
+        }
+        response.flushBuffer();
+    }
+
+    // send a multipart/byteranges response (RFC 7233, appendix A)
+    protected void sendMultipart(String objectKey, AssetDiskCache.CachedAsset cached, List<ByteRange> ranges, String mimeType, long totalLength, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        var boundary = UUID.randomUUID().toString();
+
+        // each part is its headers followed by its range of the asset
+        var segments = new ArrayList<AsyncAssetPump.Segment>();
+        long contentLength = 0;
+        for (var range : ranges) {
+            var headers = String.format("\r\n--%s\r\nContent-Type: %s\r\nContent-Range: %s\r\n\r\n", boundary, mimeType, range.contentRange(totalLength)).getBytes(StandardCharsets.US_ASCII);
+            segments.add(new AsyncAssetPump.Segment(headers, () -> open(objectKey, cached, range)));
+            contentLength += headers.length + range.length();
+        }
+
+        // and then the final boundary
+        var trailer = String.format("\r\n--%s--\r\n", boundary).getBytes(StandardCharsets.US_ASCII);
+        segments.add(new AsyncAssetPump.Segment(trailer, null));
+        contentLength += trailer.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        send(segments, request, response);
+    }
+}
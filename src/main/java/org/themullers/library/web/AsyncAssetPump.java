@@ -0,0 +1,234 @@
+package org.themullers.library.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Copies an asset to the browser with non-blocking servlet I/O, so a slow client doesn't tie up
+ * a request thread for the length of its download.
+ *
+ * Chunks are read from the asset on a separate pool of reader threads and queued; the queue holds
+ * only a few chunks, and reading stops while it's full, so a slow client slows the reads down rather
+ * than filling memory.  Chunks are written whenever the container says the response can take more
+ * data.  No thread waits on the client: when the response can't take more data, the container calls
+ * back (onWritePossible) when it can.
+ *
+ * The body is made up of segments, each an optional block of bytes (like the headers of a part in
+ * a multipart response) followed by an optional stream that's opened when its turn comes.
+ */
+public class AsyncAssetPump implements WriteListener, AsyncListener {
+
+    private static Logger logger = LoggerFactory.getLogger(AsyncAssetPump.class);
+
+    protected final static int CHUNK_SIZE = 64 * 1024;
+    protected final static int MAX_QUEUED_CHUNKS = 4;
+
+    /**
+     * Part of the response body.
+     * @param prefix  bytes to send before the stream (may be null)
+     * @param body  opens the stream to send (may be null)
+     */
+    public record Segment(byte[] prefix, Callable<InputStream> body) {}
+
+    protected AsyncContext context;
+    protected ServletOutputStream out;
+    protected Executor readers;
+    protected List<Segment> segments;
+
+    // everything below is guarded by synchronizing on this object
+    protected ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    protected int segmentIndex = -1;
+    protected InputStream current;
+    protected boolean reading;
+    protected boolean endOfBody;
+    protected boolean finished;
+
+    protected AsyncAssetPump(AsyncContext context, ServletOutputStream out, Executor readers, List<Segment> segments) {
+        this.context = context;
+        this.out = out;
+        this.readers = readers;
+        this.segments = segments;
+    }
+
+    /**
+     * Start sending a response body asynchronously.  The request thread can return as soon as this does.
+     * @param context  the request's async context (from request.startAsync())
+     * @param readers  the threads that read from the segments' streams
+     * @param segments  the parts of the body
+     * @throws IOException  thrown if the response's output stream can't be opened
+     */
+    public static void start(AsyncContext context, Executor readers, List<Segment> segments) throws IOException {
+        var out = context.getResponse().getOutputStream();
+        var pump = new AsyncAssetPump(context, out, readers, segments);
+        context.addListener(pump);
+        out.setWriteListener(pump);
+    }
+
+    /**
+     * Called by the container when more data can be written.
+     */
+    @Override
+    public void onWritePossible() {
+        pump();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        // usually the client went away
+        logger.debug("asset download failed", t);
+        finish();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        logger.warn("asset download timed out");
+        finish();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        onError(event.getThrowable());
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        finish();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    // HELPER METHODS
+
+    // write as much as we have and the response can take, then read more if there's room
+    protected synchronized void pump() {
+        if (finished) {
+            return;
+        }
+        try {
+            while (out.isReady()) {
+                var chunk = chunks.poll();
+                if (chunk != null) {
+                    out.write(chunk);
+                }
+                else if (endOfBody) {
+                    finish();
+                    return;
+                }
+                else {
+                    break;
+                }
+            }
+
+            // if isReady() returned false, the container will call onWritePossible() when we can write again
+            if (!reading && !endOfBody && chunks.size() < MAX_QUEUED_CHUNKS) {
+                reading = true;
+                readers.execute(this::readChunk);
+            }
+        }
+        catch (IOException | RuntimeException x) {
+            onError(x);
+        }
+    }
+
+    // read the next chunk (on a reader thread), then go back to writing
+    protected void readChunk() {
+        try {
+            var chunk = nextChunk();
+            synchronized (this) {
+                reading = false;
+                if (chunk == null) {
+                    endOfBody = true;
+                }
+                else {
+                    chunks.add(chunk);
+                }
+            }
+            pump();
+        }
+        catch (Exception x) {
+            logger.error("unable to read asset", x);
+            finish();
+        }
+    }
+
+    // read from the current segment's stream, moving on to the next segment when it's used up; null at the end of the body
+    protected byte[] nextChunk() throws Exception {
+        while (true) {
+            InputStream in;
+            synchronized (this) {
+                in = current;
+            }
+            if (in != null) {
+                var buffer = in.readNBytes(CHUNK_SIZE);
+                if (buffer.length > 0) {
+                    return buffer;
+                }
+                closeCurrent();
+            }
+
+            // move on to the next segment; its prefix is a chunk of its own
+            segmentIndex++;
+            if (segmentIndex >= segments.size()) {
+                return null;
+            }
+            var segment = segments.get(segmentIndex);
+            if (segment.body() != null) {
+
+                // open the stream without holding the lock (it may take a round trip to the object store)
+                var opened = segment.body().call();
+                synchronized (this) {
+                    if (finished) {
+                        opened.close();
+                        return null;
+                    }
+                    current = opened;
+                }
+            }
+            if (segment.prefix() != null && segment.prefix().length > 0) {
+                return segment.prefix();
+            }
+        }
+    }
+
+    // end the response and let go of the stream
+    protected synchronized void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        chunks.clear();
+        closeCurrent();
+        try {
+            context.complete();
+        }
+        catch (IllegalStateException x) {
+            // the request was already completed (e.g. the container gave up on it)
+        }
+    }
+
+    protected synchronized void closeCurrent() {
+        if (current != null) {
+            try {
+                current.close();
+            }
+            catch (IOException x) {
+                // smother; there's nothing more we need from the stream
+            }
+            current = null;
+        }
+    }
+}
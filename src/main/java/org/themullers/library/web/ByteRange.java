@@ -0,0 +1,106 @@
+package org.themullers.library.web;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes requested with an HTTP Range header (see RFC 7233).
+ *
+ * @param start  the offset of the first byte in the range
+ * @param end  the offset of the last byte in the range (inclusive, like the header)
+ */
+public record ByteRange(long start, long end) {
+
+    // ranges closer together than this are sent as one range rather than as separate parts
+    protected final static long COALESCE_GAP = 8 * 1024;
+
+    // clients asking for more ranges than this (after coalescing) just get the whole thing
+    protected final static int MAX_RANGES = 16;
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * Format this range as the value of a Content-Range header.
+     * @param totalLength  the length of the whole resource
+     * @return  the header value
+     */
+    public String contentRange(long totalLength) {
+        return String.format("bytes %d-%d/%d", start, end, totalLength);
+    }
+
+    /**
+     * Parse a Range header.  Overlapping (and nearly adjacent) ranges are merged, and the ranges
+     * are returned in order.
+     *
+     * @param header  the value of the Range header (may be null)
+     * @param totalLength  the length of the resource being requested
+     * @return  the ranges; null if the whole resource should be sent (there was no header, it couldn't
+     *          be parsed, or it asked for too many ranges); an empty list if none of the ranges can be satisfied
+     */
+    public static List<ByteRange> parse(String header, long totalLength) {
+        if (header == null || !header.trim().toLowerCase().startsWith("bytes=")) {
+            return null;
+        }
+
+        var ranges = new ArrayList<ByteRange>();
+        for (var spec : header.trim().substring(6).split(",")) {
+            spec = spec.trim();
+            var dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+
+            try {
+                var first = spec.substring(0, dash).trim();
+                var last = spec.substring(dash + 1).trim();
+
+                // "-500" means the last 500 bytes
+                if (first.isEmpty()) {
+                    var suffixLength = Long.parseLong(last);
+                    if (suffixLength > 0 && totalLength > 0) {
+                        ranges.add(new ByteRange(Math.max(0, totalLength - suffixLength), totalLength - 1));
+                    }
+                    continue;
+                }
+
+                // "500-" means everything from byte 500 on, "500-999" means bytes 500 through 999
+                var start = Long.parseLong(first);
+                var end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+
+                // a range that ends before it starts makes the whole header invalid; one that starts past the end can't be satisfied
+                if (end < start) {
+                    return null;
+                }
+                if (start < totalLength) {
+                    ranges.add(new ByteRange(start, Math.min(end, totalLength - 1)));
+                }
+            }
+            catch (NumberFormatException x) {
+                return null;
+            }
+        }
+
+        var coalesced = coalesce(ranges);
+        return coalesced.size() > MAX_RANGES ? null : coalesced;
+    }
+
+    // sort the ranges and merge any that overlap or are close together
+    protected static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        ranges.sort(Comparator.comparingLong(ByteRange::start));
+        var merged = new ArrayList<ByteRange>();
+        for (var range : ranges) {
+            var lastIndex = merged.size() - 1;
+            if (lastIndex >= 0 && range.start() <= merged.get(lastIndex).end() + COALESCE_GAP) {
+                var previous = merged.get(lastIndex);
+                merged.set(lastIndex, new ByteRange(previous.start(), Math.max(previous.end(), range.end())));
+            }
+            else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+}
@@ -2,8 +2,10 @@ package org.themullers.library.web;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(scanBasePackages = { "org.themullers.library" })
+@EnableScheduling
 public class LibraryApplication {
 
     /**
@@ -6,11 +6,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.web.servlet.view.RedirectView;
 import org.themullers.library.*;
+import org.themullers.library.db.BookCursor;
 import org.themullers.library.db.LibraryDAO;
 import org.themullers.library.s3.LibraryOSAO;
 import org.themullers.library.web.forms.BookForm;
@@ -23,8 +25,6 @@ import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static java.util.stream.Collectors.groupingBy;
-
 /**
  * This is the main controller for the Library application; it handles requests to display web
  * pages after the user is authenticated.  API requests by JavaScript on those pages are handled
@@ -37,10 +37,16 @@ public class LibraryController {
     private Logger logger = LoggerFactory.getLogger(LibraryController.class);
 
     LibraryDAO dao;
+    Catalog catalog;
+    SearchIndex searchIndex;
+    AuthorDirectory authorDirectory;
     LibraryOSAO osao;
     SpreadsheetService ss;
     LibUtils libUtils;
     BookImageCache bookImageCache;
+    CoverStore coverStore;
+    PageDataLoader pageDataLoader;
+    AssetDownloader assetDownloader;
 
     // display text for the various order options
     protected static Map<String, String> orderOptions = Map.of(
@@ -53,12 +59,18 @@ public class LibraryController {
     );
 
     @Autowired
-    public LibraryController(LibraryDAO dao, LibraryOSAO osao, SpreadsheetService ss, LibUtils libUtils, BookImageCache bookImageCache) {
+    public LibraryController(LibraryDAO dao, Catalog catalog, SearchIndex searchIndex, AuthorDirectory authorDirectory, LibraryOSAO osao, SpreadsheetService ss, LibUtils libUtils, BookImageCache bookImageCache, CoverStore coverStore, PageDataLoader pageDataLoader, AssetDownloader assetDownloader) {
         this.dao = dao;
+        this.catalog = catalog;
+        this.searchIndex = searchIndex;
+        this.authorDirectory = authorDirectory;
         this.osao = osao;
         this.ss = ss;
         this.libUtils = libUtils;
         this.bookImageCache = bookImageCache;
+        this.coverStore = coverStore;
+        this.pageDataLoader = pageDataLoader;
+        this.assetDownloader = assetDownloader;
     }
 
     /**
@@ -71,11 +83,15 @@ public class LibraryController {
     public ModelAndView home() {
         var mv = new LibraryModelAndView("home");
 
-        mv.addObject("books", dao.fetchNewestBooks(6, 0));
-        mv.addObject("titleCount", dao.countTitles());
-        mv.addObject("audiobookCount", dao.countAudiobooks());
-        mv.addObject("authorCount", dao.countAuthors());
-        mv.addObject("recs", dao.fetchRecommendedBooks(-1, 6, 0));
+        // everything but the recommendations comes from the in-memory catalog,
+        // so start the recommendations query before reading (and maybe loading) the catalog
+        var recs = pageDataLoader.load("recommendations", () -> dao.fetchRecommendedBooks(-1, 6, 0));
+        var snapshot = catalog.snapshot();
+        mv.addObject("books", snapshot.fetchNewestBooks(6, 0));
+        mv.addObject("titleCount", snapshot.countTitles());
+        mv.addObject("audiobookCount", snapshot.countAudiobooks());
+        mv.addObject("authorCount", snapshot.countAuthors());
+        mv.addObject("recs", recs.get());
 
         return mv;
     }
@@ -88,18 +104,10 @@ public class LibraryController {
     @GetMapping("/authors")
     public ModelAndView authors(@RequestParam(value="sortBy", required=false, defaultValue="first") String sortBy) {
 
-        var authorInfoList = dao.getAuthorInfo();
-
         boolean sortByLast = sortBy.equalsIgnoreCase("last");
 
-        if (sortByLast) {
-            Collections.sort(authorInfoList, Comparator.comparing(AuthorInfo::getByLast));
-        }
-
-        var map = authorInfoList.stream().collect(groupingBy(a -> {
-            var name = sortByLast ? a.getByLast() : a.getName();
-            return name.substring(0,1).toUpperCase();
-        }));
+        // the author directory keeps the authors grouped by letter both ways
+        var map = sortByLast ? authorDirectory.byLastName() : authorDirectory.byFirstName();
 
         var mv = new LibraryModelAndView("authors");
         mv.addObject("authorInfoMap", map);
@@ -117,7 +125,7 @@ public class LibraryController {
     public ModelAndView author(@RequestParam(name = "name") String author) {
 
         // get the books, group them by series, and then pull out the stand-alone books to be handled uniquely
-        var books = dao.fetchBooksForAuthor(author);
+        var books = catalog.snapshot().fetchBooksForAuthor(author);
         var groupedBooks = libUtils.groupBooksBySeries(books);
         var standalone = groupedBooks.remove(LibUtils.STANDALONE);
 
@@ -132,12 +140,59 @@ public class LibraryController {
     /**
      * Handle a request to provide a cover image for a book.
      *
+     * A smaller rendition of the image can be requested with the size parameter (grid, detail or retina;
+     * see CoverStore.Rendition), in WebP format if the browser accepts it and WebP renditions are made.
+     * Without a size (or if the image doesn't have renditions), the original image is sent, with the
+     * mime type it was stored with.
+     *
+     * The image's hash (plus the rendition's name) is its ETag, so a browser that already has the image
+     * gets a 304 without the image being read.  When the URL carries the cover's current version (see
+     * Book.getCoverUrl()), the browser is told it can keep the image forever; otherwise it's told to check
+     * each time.
+     *
      * @param bookId the id of the book whose cover should be rendered
-     * @return the binary contents of the image
+     * @param version the version of the cover in the URL, if any
+     * @param size the size of rendition to send, if any
+     * @param request the http request
+     * @param response the http response object that the image will be written to
+     * @throws IOException thrown if an unexpected error occurs while writing the image
      */
-    @GetMapping(value = "/book/cover/{id}", produces = "image/jpeg")
-    public byte[] cover(@PathVariable(name = "id") int bookId) throws IOException {
-        return dao.fetchImageForEbook(bookId);
+    @GetMapping("/book/cover/{id}")
+    public void cover(@PathVariable(name = "id") int bookId, @RequestParam(name = "v", required = false) String version, @RequestParam(name = "size", required = false) String size, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        // look up which image in the cover store is this book's cover
+        var image = dao.fetchCoverImage(bookId);
+        if (image == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // pick the original or a rendition (whose format depends on what the browser accepts)
+        var file = coverStore.file(image.sha256());
+        var mimeType = image.mimeType();
+        var rendition = CoverStore.Rendition.forName(size);
+        if (rendition != null) {
+            if (coverStore.isWebpSupported()) {
+                response.setHeader("Vary", "Accept");
+            }
+            var accept = request.getHeader("Accept");
+            var renditionFile = coverStore.rendition(image.sha256(), rendition, accept != null && accept.contains("image/webp"));
+            if (renditionFile != null) {
+                file = renditionFile.file();
+                mimeType = renditionFile.mimeType();
+            }
+        }
+
+        // a versioned URL always refers to the same image
+        var current = Book.coverVersion(image.sha256()).equals(version);
+        response.setHeader("Cache-Control", current ? "private, max-age=31536000, immutable" : "private, no-cache");
+
+        // answer conditional requests without reading the image
+        if (new ServletWebRequest(request, response).checkNotModified("\"" + file.getName() + "\"", file.lastModified())) {
+            return;
+        }
+
+        libUtils.writeFileToResponse(file, mimeType, request, response);
     }
 
     /**
@@ -160,13 +215,15 @@ public class LibraryController {
 
     /**
      * Handle a request to download a spreadsheet containing metadata for each book in the library.
+     * The spreadsheet is written straight to the response as it's generated.
      *
-     * @return a spreadsheet
+     * @param response the response to write the spreadsheet to
      * @throws IOException thrown if an unexpected error occurs generating the spreadsheet
      */
-    @GetMapping(value = "/admin/ss", produces = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
-    public byte[] downloadSpreadsheet() throws IOException {
-        return ss.download();
+    @GetMapping("/admin/ss")
+    public void downloadSpreadsheet(HttpServletResponse response) throws IOException {
+        response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        ss.download(response.getOutputStream());
     }
 
     /**
@@ -219,22 +276,29 @@ public class LibraryController {
     @GetMapping("/tags")
     public ModelAndView tags() {
         var mv = new LibraryModelAndView("tags");
-        mv.addObject("tags", dao.getTags());
+        mv.addObject("tags", catalog.snapshot().getTags());
         return mv;
     }
 
     /**
      * Display a page with all the books the have the specified tag applied to them.
      * @param tag  the tag to use to filter the books returned
+     * @param page  which page of books to display (used for display, and to skip books if there's no cursor)
+     * @param order  the order in which to list the books
+     * @param after  an optional cursor (from the previous page) identifying the last book on the previous page
      * @return  a view object containing a reference to the template that should be used to render the tag page
      */
     @GetMapping("/tag/{tag}")
-    public ModelAndView tag(@PathVariable("tag") String tag, @RequestParam(value="page", defaultValue="1") int page, @RequestParam(value="order", defaultValue=LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC) String order) {
+    public ModelAndView tag(@PathVariable("tag") String tag, @RequestParam(value="page", defaultValue="1") int page, @RequestParam(value="order", defaultValue=LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC) String order, @RequestParam(value="after", required=false) String after) {
 
         int booksPerPage = 50;
 
         // fetch one more book than the number we display on the page so know whether there's another page of results
-        var taggedBooks = dao.fetchBooksWithTag(tag, booksPerPage+1, (page-1) * booksPerPage, order);
+        // (seek past the previous page's last book if we have a cursor for it, otherwise count off the earlier pages)
+        var cursor = BookCursor.decode(after, order);
+        var taggedBooks = cursor == null
+                ? catalog.snapshot().fetchBooksWithTag(tag, booksPerPage+1, (page-1) * booksPerPage, order)
+                : catalog.snapshot().fetchBooksWithTag(tag, booksPerPage+1, order, cursor);
 
         // if there are more results after this page, adjust the count and throw out the last result
         // (it's really the first result of the next page)
@@ -253,6 +317,7 @@ public class LibraryController {
         mv.addObject("books", taggedBooks);
         mv.addObject("page", page);
         mv.addObject("nextPage", page+1);
+        mv.addObject("nextCursor", nextCursor(taggedBooks, hasMore, order));
         mv.addObject("firstBookNum", firstBookNum);
         mv.addObject("lastBookNum", firstBookNum + numBooks - 1);
         mv.addObject("hasMore", hasMore);
@@ -263,15 +328,22 @@ public class LibraryController {
 
     /**
      * Display a page with all the audiobooks in the library.
+     * @param page  which page of audiobooks to display (used for display, and to skip books if there's no cursor)
+     * @param order  the order in which to list the audiobooks
+     * @param after  an optional cursor (from the previous page) identifying the last book on the previous page
      * @return  a view object containing a reference to the template that should be used to render the "audiobooks" page
      */
     @GetMapping("/audiobooks")
-    public ModelAndView audiobooks(@RequestParam(value="page", defaultValue="1") int page, @RequestParam(value="order", defaultValue=LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC) String order) {
+    public ModelAndView audiobooks(@RequestParam(value="page", defaultValue="1") int page, @RequestParam(value="order", defaultValue=LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC) String order, @RequestParam(value="after", required=false) String after) {
 
         int booksPerPage = 50;
 
         // fetch one more book than the number we display on the page so know whether there's another page of results
-        var taggedBooks = dao.fetchAudiobooks(booksPerPage+1, (page-1) * booksPerPage, order);
+        // (seek past the previous page's last book if we have a cursor for it, otherwise count off the earlier pages)
+        var cursor = BookCursor.decode(after, order);
+        var taggedBooks = cursor == null
+                ? catalog.snapshot().fetchAudiobooks(booksPerPage+1, (page-1) * booksPerPage, order)
+                : catalog.snapshot().fetchAudiobooks(booksPerPage+1, order, cursor);
 
         // if there are more results after this page, adjust the count and throw out the last result
         // (it's really the first result of the next page)
@@ -290,6 +362,7 @@ public class LibraryController {
         mv.addObject("books", taggedBooks);
         mv.addObject("page", page);
         mv.addObject("nextPage", page+1);
+        mv.addObject("nextCursor", nextCursor(taggedBooks, hasMore, order));
         mv.addObject("firstBookNum", firstBookNum);
         mv.addObject("lastBookNum", firstBookNum + numBooks - 1);
         mv.addObject("hasMore", hasMore);
@@ -320,42 +393,42 @@ public class LibraryController {
      * Downloads an EPUB.
      *
      * @param bookId  the id of the book whose EPUB should be downloaded
+     * @param request  the http request (which may ask for only part of the EPUB)
      * @param response  the http response object that the EPUB will be written to
      * @throws IOException  throws if an unexpected error occurs while downloading the EPUB
      */
     @GetMapping(value = "/book/epub/{id}", produces = "application/epub+zip")
-    public void getEpub(@PathVariable(value = "id") int bookId, HttpServletResponse response) throws IOException {
+    public void getEpub(@PathVariable(value = "id") int bookId, HttpServletRequest request, HttpServletResponse response) throws IOException {
         var id = dao.fetchEpubObjectKey(bookId);
-        var obj = osao.readObject(id);
-        libUtils.writeS3ObjectToResponse(obj, response);
+        assetDownloader.download(id, request, response);
     }
 
     /**
      * Downloads an MOBI.
      *
      * @param bookId  the id of the book whose MOBI should be downloaded
+     * @param request  the http request (which may ask for only part of the MOBI)
      * @param response  the http response object that the MOBI will be written to
      * @throws IOException  throws if an unexpected error occurs while downloading the MOBI
      */
     @GetMapping(value = "/book/mobi/{id}", produces = "application/epub+zip")
-    public void getMobi(@PathVariable(value = "id") int bookId, HttpServletResponse response) throws IOException {
+    public void getMobi(@PathVariable(value = "id") int bookId, HttpServletRequest request, HttpServletResponse response) throws IOException {
         var id = dao.fetchMobiObjectKey(bookId);
-        var obj = osao.readObject(id);
-        libUtils.writeS3ObjectToResponse(obj, response);
+        assetDownloader.download(id, request, response);
     }
 
     /**
      * Downloads an audiobook.
      *
      * @param bookId  the id of the book whose audiobook should be downloaded
+     * @param request  the http request (which may ask for only part of the audiobook)
      * @param response  the http response object that the audiobook will be written to
      * @throws IOException  throws if an unexpected error occurs while downloading the audiobook
      */
     @GetMapping(value = "/book/m4b/{id}", produces = "audio/mp4a-latm")
-    public void getAudiobook(@PathVariable(value = "id") int bookId, HttpServletResponse response) throws IOException {
+    public void getAudiobook(@PathVariable(value = "id") int bookId, HttpServletRequest request, HttpServletResponse response) throws IOException {
         var id = dao.fetchAudiobookObjectKey(bookId);
-        var obj = osao.readObject(id);
-        libUtils.writeS3ObjectToResponse(obj, response);
+        assetDownloader.download(id, request, response);
     }
 
     /**
@@ -414,8 +487,17 @@ public class LibraryController {
         twice in the library.
          */
 
+        // start all the (independent) queries this page needs
+        var unattachedObjIds = pageDataLoader.load("unattached assets", libUtils::fetchUnattachedObjectKeys);
+        var authors = pageDataLoader.load("authors", dao::fetchAllAuthors);
+        var series = pageDataLoader.load("series", dao::fetchAllSeries);
+        var tags = pageDataLoader.load("tags", dao::fetchAllTags);
+        var epubCover = pageDataLoader.load("epub cover", () -> bookImageCache.coverFromBook(book.getEpubObjectKey()));
+        var hasCoverImage = pageDataLoader.load("cover image", () -> isEdit && dao.hasCoverImage(book.getId()));
+
         // get lists of object ids of each type that are not currently attached to any books in the database
-        var objIds = libUtils.fetchUnattachedObjectKeys();
+        // (these, and the EPUB's cover, may need the object store; if it's slow, render the form without them)
+        var objIds = unattachedObjIds.getOrElse(List.of());
         var epubs = objIds.stream().filter(o -> o.toLowerCase().endsWith("epub")).collect(Collectors.toList());
         var mobis = objIds.stream().filter(o -> o.toLowerCase().endsWith("mobi")).collect(Collectors.toList());
         var audiobooks = objIds.stream().filter(o -> o.toLowerCase().endsWith("m4b")).collect(Collectors.toList());
@@ -428,14 +510,14 @@ public class LibraryController {
         }
 
         mv.addObject("book", book);
-        mv.addObject("authorList", dao.fetchAllAuthors());
-        mv.addObject("seriesList", dao.fetchAllSeries());
-        mv.addObject("tagList", dao.fetchAllTags());
+        mv.addObject("authorList", authors.get());
+        mv.addObject("seriesList", series.get());
+        mv.addObject("tagList", tags.get());
         mv.addObject("unattachedEpubs", epubs);
         mv.addObject("unattachedMobis", mobis);
         mv.addObject("unattachedAudiobooks", audiobooks);
-        mv.addObject("bookImages", bookImageCache.imagesFromBook(book.getEpubObjectKey()));
-        mv.addObject("hasCoverImage", isEdit ? dao.hasCoverImage(book.getId()) : false);
+        mv.addObject("epubCover", epubCover.getOrElse(null));
+        mv.addObject("hasCoverImage", hasCoverImage.get());
         mv.addObject("operation", isEdit ? "edit" : "add");
         mv.addObject("formAction", isEdit ? "/api/book/" + book.getId() : "/api/book");
     }
@@ -460,14 +542,15 @@ public class LibraryController {
     @GetMapping("/book/{id}")
     public ModelAndView showBookDetails(@PathVariable("id") int bookId) {
 
-        var book = dao.fetchBook(bookId);
+        // the book comes from the in-memory catalog, so only the reviews need a query
+        var book = catalog.snapshot().fetchBook(bookId);
         var reviews = dao.fetchReviews(bookId);
 
         var thisUsersId = Utils.getCurrentUserId();
         boolean isReviewed = reviews.stream().anyMatch(r -> r.getUser().getId() == thisUsersId);
 
         var mv = new LibraryModelAndView("/book-details");
-        mv.addObject("book", dao.fetchBook(bookId));
+        mv.addObject("book", book);
         mv.addObject("reviews", reviews);
         mv.addObject("thisUsersId", thisUsersId);
         mv.addObject("isNotReviewed", !isReviewed);
@@ -529,20 +612,26 @@ public class LibraryController {
     @GetMapping("/admin/newAssets")
     public ModelAndView newAssets() {
 
+        // list the books (formatted like this: title (author)) while we find the unattached assets
+        var titlesAndAuthors = pageDataLoader.load("books", () -> {
+            var list = new ArrayList<String>();
+            dao.streamAllBooks(b -> list.add(b.getTitle() + " (" + b.getAuthor() + ")"));
+            Collections.sort(list);
+            return list;
+        });
+
         // get lists of object ids of each type that are not currently attached to any books in the database
         var objIds = libUtils.fetchUnattachedObjectKeys();
         var epubs = objIds.stream().filter(o -> o.toLowerCase().endsWith(".epub")).collect(Collectors.toList());
         var mobis = objIds.stream().filter(o -> o.toLowerCase().endsWith(".mobi")).collect(Collectors.toList());
         var audiobooks = objIds.stream().filter(o -> o.toLowerCase().endsWith(".m4b")).collect(Collectors.toList());
 
-        // get a list of titles and authors formatted like this: title (author)
-        var titlesAndAuthors = dao.fetchAllBooks().stream().map(b -> b.getTitle() + " (" + b.getAuthor() + ")").sorted().collect(Collectors.toList());
 
         var mv = new LibraryModelAndView("/new-assets");
         mv.addObject("epubs", epubs);
         mv.addObject("mobis", mobis);
         mv.addObject("audiobooks", audiobooks);
-        mv.addObject("books", titlesAndAuthors);
+        mv.addObject("books", titlesAndAuthors.get());
         return mv;
     }
 
@@ -559,8 +648,11 @@ public class LibraryController {
         // how many recommendations should we display per page?
         int recosPerPage = 15;
 
-        // get a list of all the users in the system
-        var users = dao.fetchAllUsers();
+        // get a list of all the users in the system and (at the same time) this page of recommendations
+        // (fetch one more recommendation than the number we display on the page so we know whether there's another page of results)
+        var allUsers = pageDataLoader.load("users", dao::fetchAllUsers);
+        var pageOfRecos = pageDataLoader.load("recommendations", () -> dao.fetchRecommendedBooks(userId, recosPerPage+1, (page-1)*recosPerPage));
+        var users = allUsers.get();
 
         // get this user's username (or indicate "everyone" if no user exits for the specified user id)
         String userName = "everyone";
@@ -571,8 +663,7 @@ public class LibraryController {
             }
         }
 
-        // fetch one more recommendation than the number we display on the page so we know whether there's another page of results
-        var recos = dao.fetchRecommendedBooks(userId, recosPerPage+1, (page-1)*recosPerPage);
+        var recos = pageOfRecos.get();
 
         // if there are more results after this page, adjust the count and throw out the last result
         // (we'll display it as the first result of the next page)
@@ -613,16 +704,21 @@ public class LibraryController {
     /**
      * Display a page of the most recently-acquired books.
      * @param page  which page of books to display (bigger number for older books)
+     * @param after  an optional cursor (from the previous page) identifying the last book on the previous page
      * @return  a view object containing the template that should be used to render the "recent acquisitions" page
      */
     @GetMapping("/recents")
-    public ModelAndView recents(@RequestParam(value="page", defaultValue="1") int page) {
+    public ModelAndView recents(@RequestParam(value="page", defaultValue="1") int page, @RequestParam(value="after", required=false) String after) {
         var mv = new LibraryModelAndView("/recent-acquisitions");
 
         int booksPerPage = 50;
 
         // fetch one more book than the number we display on the page so know whether there's another page of results
-        var newReleases = dao.fetchNewestBooks(booksPerPage+1, (page-1) * booksPerPage);
+        // (seek past the previous page's last book if we have a cursor for it, otherwise count off the earlier pages)
+        var cursor = BookCursor.decode(after, LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC);
+        var newReleases = cursor == null
+                ? catalog.snapshot().fetchNewestBooks(booksPerPage+1, (page-1) * booksPerPage)
+                : catalog.snapshot().fetchNewestBooks(booksPerPage+1, cursor);
 
         // if there are more results after this page, adjust the count and throw out the last result
         // (it's really the first result of the next page)
@@ -639,6 +735,7 @@ public class LibraryController {
         mv.addObject("books", newReleases);
         mv.addObject("page", page);
         mv.addObject("nextPage", page+1);
+        mv.addObject("nextCursor", nextCursor(newReleases, hasMore, LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC));
         mv.addObject("firstBookNum", firstBookNum);
         mv.addObject("lastBookNum", firstBookNum + numBooks - 1);
         mv.addObject("firstBookDate", newReleases.get(0).getAcquisitionDate());
@@ -660,9 +757,10 @@ public class LibraryController {
 
         if (!Utils.isBlank(searchText)) {
             mv.addObject("searchText", searchText);
-            mv.addObject("titles", dao.searchTitles(searchText));
-            mv.addObject("authors", dao.searchAuthors(searchText));
-            mv.addObject("seriesMap", dao.searchSeries(searchText));
+            var results = searchIndex.search(searchText);
+            mv.addObject("titles", results.titles());
+            mv.addObject("authors", results.authors());
+            mv.addObject("seriesMap", results.seriesMap());
         }
 
         return mv;
@@ -687,7 +785,8 @@ public class LibraryController {
     }
 
     /**
-     * Delete a book and display a confirmation.
+     * Delete a book (and the assets the admin selected) and display a confirmation.  If any of the assets
+     * can't be deleted, the book is kept so the failed assets can still be found and deleted later.
      * @param bookId  the id of the book to delete
      * @param request  the http request
      * @return  a view object containing the template that should be used to render the "book deleted" page
@@ -706,36 +805,62 @@ public class LibraryController {
         var deleteMobi = isChecked("deleteMobi", request) && Utils.isNotBlank(mobi);
         var deleteAudiobook = isChecked("deleteAudiobook", request) && Utils.isNotBlank(audiobook);
 
-        var deletedAssets = new LinkedList<String>();
-
-        // if there is an EPUB and the admin requested deletion, delete it
+        // collect the assets the admin requested be deleted
+        var assets = new LinkedList<String>();
         if (deleteEpub) {
-            osao.deleteObject(epub);
-            deletedAssets.add(epub);
+            assets.add(epub);
         }
-
-        // if there is a MOBI and the admin requested deletion, delete it
         if (deleteMobi) {
-            osao.deleteObject(mobi);
-            deletedAssets.add(mobi);
+            assets.add(mobi);
         }
-
-        // if there is an audiobook and the admin requested deletion, delete it
         if (deleteAudiobook) {
-            osao.deleteObject(audiobook);
-            deletedAssets.add(audiobook);
+            assets.add(audiobook);
         }
 
-        // delete the database entry for the book
-        dao.deleteBook(bookId);
+        // delete them all at once
+        var failedAssets = osao.deleteObjects(assets);
+        var deletedAssets = new LinkedList<String>(assets);
+        deletedAssets.removeAll(failedAssets.keySet());
+
+        // delete the database entry for the book, unless an asset couldn't be deleted; then keep the book (so the asset isn't
+        // left in the store with nothing pointing at it) but forget the assets that were deleted, and the admin can try again
+        var bookDeleted = failedAssets.isEmpty();
+        if (bookDeleted) {
+            dao.deleteBook(bookId);
+        }
+        else if (!deletedAssets.isEmpty()) {
+            if (deletedAssets.contains(epub)) {
+                book.setEpubObjectKey(null);
+            }
+            if (deletedAssets.contains(mobi)) {
+                book.setMobiObjectKey(null);
+            }
+            if (deletedAssets.contains(audiobook)) {
+                book.setAudiobookObjectKey(null);
+            }
+            dao.updateBook(book);
+        }
 
         // populate the model
         mv.addObject("bookId", bookId);
+        mv.addObject("bookDeleted", bookDeleted);
         mv.addObject("deletedAssets", deletedAssets);
+        mv.addObject("failedAssets", failedAssets);
 
         return mv;
     }
 
+    /**
+     * Create the cursor that the "next page" link uses to pick up where this page left off.
+     * @param books  the books displayed on this page
+     * @param hasMore  whether there are more books after this page
+     * @param order  the order in which the books are listed
+     * @return  an encoded cursor, or an empty string if there's no next page
+     */
+    protected String nextCursor(List<Book> books, boolean hasMore, String order) {
+        return hasMore && !books.isEmpty() ? BookCursor.after(books.get(books.size() - 1), order).encode() : "";
+    }
+
     /**
      * Return whether a checkbox on a form is checked.
      * @param parameterName  the name of the checkbox form element
@@ -0,0 +1,14 @@
+package org.themullers.library.web;
+
+/**
+ * Exception thrown when a query run by the PageDataLoader fails or takes too long.
+ */
+public class PageDataException extends RuntimeException {
+    public PageDataException(String msg) {
+        super(msg);
+    }
+
+    public PageDataException(String msg, Throwable t) {
+        super(msg, t);
+    }
+}
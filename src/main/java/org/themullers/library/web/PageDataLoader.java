@@ -0,0 +1,130 @@
+package org.themullers.library.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the independent queries needed to render a page at the same time, so the page takes
+ * as long as its slowest query rather than the sum of all of them.
+ *
+ * Start each query with load(), which returns immediately, and then call get() on each result
+ * when building the model.  The queries run on a small, bounded pool of threads; if the pool
+ * is saturated, the query runs on the calling thread instead.  Each query has its own deadline,
+ * measured from when it was started.
+ *
+ * Data that depends on remote I/O (like the object store) and that the page can do without
+ * should be retrieved with getOrElse(), so a slow or failed load degrades the page rather than
+ * failing it.
+ *
+ * The queries run on other threads, so they can't rely on anything bound to the request thread
+ * (like the current user); look those things up before starting the queries.
+ */
+@Component
+public class PageDataLoader implements DisposableBean {
+
+    private static Logger logger = LoggerFactory.getLogger(PageDataLoader.class);
+
+    protected ThreadPoolExecutor executor;
+    protected long timeoutMillis;
+
+    public PageDataLoader(@Value("${page.data.threads:8}") int numThreads, @Value("${page.data.timeout.ms:10000}") long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+
+        // a fixed number of daemon threads (which go away when idle) and a bounded queue
+        var threadNum = new AtomicInteger();
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(numThreads * 16), r -> {
+            var thread = new Thread(r, "page-data-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start running a query.
+     * @param name  a name for the query (used in error messages)
+     * @param query  the query to run
+     * @param <T>  the type of the query's result
+     * @return  an object from which the query's result can be retrieved
+     */
+    public <T> Result<T> load(String name, Callable<T> query) {
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        return new Result<>(name, executor.submit(query), deadline);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The (eventual) result of a query started by the loader.
+     */
+    public static class Result<T> {
+
+        protected String name;
+        protected Future<T> future;
+        protected long deadline;
+
+        protected Result(String name, Future<T> future, long deadline) {
+            this.name = name;
+            this.future = future;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Wait for the query to finish and return its result.
+         * @return  the query's result
+         * @throws PageDataException  thrown if the query failed or didn't finish before its deadline
+         */
+        public T get() {
+            try {
+                return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException x) {
+                future.cancel(true);
+                throw new PageDataException("timed out waiting for " + name);
+            }
+            catch (ExecutionException x) {
+                throw new PageDataException("unable to load " + name, x.getCause());
+            }
+            catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                throw new PageDataException("interrupted while waiting for " + name, x);
+            }
+        }
+
+        /**
+         * Wait for the query to finish and return its result, or return a fallback value if the query
+         * failed or didn't finish before its deadline.  A query that's still running is left to finish
+         * in the background, so anything it caches along the way is ready for the next request.
+         * @param fallback  the value to return if the query's result isn't available
+         * @return  the query's result, or the fallback value
+         */
+        public T getOrElse(T fallback) {
+            try {
+                return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException x) {
+                logger.warn("timed out waiting for {}; rendering the page without it", name);
+                return fallback;
+            }
+            catch (ExecutionException x) {
+                logger.warn("unable to load " + name + "; rendering the page without it", x.getCause());
+                return fallback;
+            }
+            catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                return fallback;
+            }
+        }
+    }
+}
@@ -10,11 +10,11 @@ import org.themullers.library.db.LibraryDAO;
 import org.themullers.library.web.forms.*;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -30,12 +30,14 @@ public class RestAPIController {
     LibraryDAO dao;
     LibUtils libUtils;
     BookImageCache bookImageCache;
+    CoverStore coverStore;
 
     @Autowired
-    public RestAPIController(LibraryDAO dao, LibUtils libUtils, BookImageCache bookImageCache) {
+    public RestAPIController(LibraryDAO dao, LibUtils libUtils, BookImageCache bookImageCache, CoverStore coverStore) {
         this.dao = dao;
         this.libUtils = libUtils;
         this.bookImageCache = bookImageCache;
+        this.coverStore = coverStore;
     }
 
     @PostMapping(value="/api/review", produces="application/json;charset=UTF-8")
@@ -109,8 +111,7 @@ public class RestAPIController {
                 book.merge();
 
                 // update the book in the database
-                dao.updateBook(book);
-                dao.setTags(bookId, book.getTags());
+                dao.updateBookAndTags(book);
 
                 // update the cover image, if it's been changed
                 var coverImageFilename = book.getCoverImage();
@@ -128,7 +129,7 @@ public class RestAPIController {
     }
 
     /**
-     * Saves a previously uploaded or extracted cover image to the database for a book.
+     * Saves a previously uploaded or extracted cover image to the cover store and records it as a book's cover.
      * @param book  the book for which the cover image is to be uploaded
      * @param coverImageFilename  the filename of the image to upload
      * @throws IOException  thrown if an error occurs during the upload process
@@ -143,9 +144,10 @@ public class RestAPIController {
             coverImageFile = bookImageCache.getEpubBookImageFromCache(book.getEpubObjectKey(), coverImageFilename);
         }
 
-        // if we found a cover image, add it to the database for this book
+        // if we found a cover image, add it to the cover store and the database for this book
         if (coverImageFile != null && coverImageFile.exists()) {
-            dao.insertCoverImage(book.getId(), coverImageFilename, libUtils.mimeTypeForFile(coverImageFilename), Files.readAllBytes(coverImageFile.toPath()));
+            var image = coverStore.store(coverImageFile, libUtils.mimeTypeForFile(coverImageFilename));
+            dao.insertCoverImage(book.getId(), coverImageFilename, image);
         }
 
         // if we didn't find a cover image, don't do anything other than log an error
@@ -226,6 +228,18 @@ public class RestAPIController {
         bookImageCache.cacheUploadedCoverForBook(file.getOriginalFilename(), file.getInputStream(), bookId);
     }
 
+    /**
+     * List the images in an EPUB that could be used as a book's cover (the alternatives to the cover
+     * the EPUB declares, which are only extracted when the admin asks for them).
+     * @param epubObjKey  the object key of the EPUB
+     * @return  the filenames of the images, which can be fetched with /epubImage
+     * @throws IOException  thrown if an unexpected error occurs extracting the images
+     */
+    @GetMapping(value="/api/epubImages", produces="application/json;charset=UTF-8")
+    public List<String> listEpubImages(@RequestParam("epubObjKey") String epubObjKey) throws IOException {
+        return bookImageCache.imagesFromBook(epubObjKey);
+    }
+
     @PostMapping(value="/api/amazon")
     public void addAmazonInfo(@RequestParam("asin") String asin,
                               @RequestParam("rating") int rating,
@@ -52,6 +52,34 @@ function initializeDropzone(bookId, csrfParameterName, csrfToken) {
 }
 
 function insertNewCover(bookId, file) {
+    let url = "/uploadedImage?bookId=" + bookId + "&file=" + encodeURIComponent(file.name);
+    insertCoverOption(url, file.name, true);
+}
+
+function insertEpubImages(epubObjKey, epubCover) {
+    let button = document.getElementById("moreImagesButton");
+    button.disabled = true;
+
+    // ask for the other images in the EPUB (they're extracted on demand), then add each one to the list of options
+    let xhr = new XMLHttpRequest();
+    xhr.open("GET", "/api/epubImages?epubObjKey=" + encodeURIComponent(epubObjKey));
+    xhr.onload = function() {
+        if (xhr.status != 200) {
+            button.disabled = false;
+            return;
+        }
+        for (const image of JSON.parse(xhr.responseText)) {
+            if (image != epubCover) {
+                let url = "/epubImage?epubObjKey=" + encodeURIComponent(epubObjKey) + "&file=" + encodeURIComponent(image);
+                insertCoverOption(url, image, false);
+            }
+        }
+        button.remove();
+    };
+    xhr.send();
+}
+
+function insertCoverOption(url, value, checked) {
 
     // this is the div into which we will be adding a new item
     let divCoverImages = document.getElementById("coverImages");
@@ -81,17 +109,17 @@ function insertNewCover(bookId, file) {
     divCoverImageWrapper.setAttribute("class", "coverImageWrapper");
     divCoverImage.setAttribute("class", "coverImage");
     labelAroundImg.setAttribute("for", "image" + nextImageNum);
-    img.setAttribute("src", "/uploadedImage?bookId=" + bookId + "&file=" + encodeURIComponent(file.name));
+    img.setAttribute("src", url);
     divCoverImageLabel.setAttribute("class", "coverImageLabel");
     inputRadio.setAttribute("type", "radio");
     inputRadio.setAttribute("name", "coverImage");
     inputRadio.setAttribute("id", "image" + nextImageNum);
-    inputRadio.setAttribute("value", file.name);
+    inputRadio.setAttribute("value", value);
     labelAroundText.setAttribute("for", "image" + nextImageNum);
-    labelAroundText.appendChild(document.createTextNode(file.name));
+    labelAroundText.appendChild(document.createTextNode(value));
 
-    // select the radio button we just created
-    inputRadio.checked = true;
+    // select the radio button we just created (if asked to)
+    inputRadio.checked = checked;
 }
 
 function displayErrors(errors, errorListElementId) {
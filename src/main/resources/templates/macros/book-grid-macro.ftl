@@ -4,7 +4,7 @@
             <a href="/book/${book.id?c}" style="display: block; text-decoration: none;">
                 <div class="book-grid-item">
                     <div class="cover-image-container">
-                        <img src="/book/cover/${book.id?c}" />
+                        <img src="${book.getCoverUrl("grid")}" srcset="${book.getCoverUrl("grid")} 1x, ${book.getCoverUrl("detail")} 2x" />
                     </div>
                     <div class="book-info">
                         <div class="book-info-text">
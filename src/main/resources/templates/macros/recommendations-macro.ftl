@@ -3,7 +3,7 @@
         <a href="/book/${rec.book().id?c}" style="display: block; text-decoration: none;">
             <div class="rec-container rec-clearfix">
                 <div class="rec-cover-div">
-                    <img src="/book/cover/${rec.book().id?c}" />
+                    <img src="${rec.book().getCoverUrl("grid")}" srcset="${rec.book().getCoverUrl("grid")} 1x, ${rec.book().getCoverUrl("detail")} 2x" />
                 </div>
                 <div class="rec-text">
                     <div><span class="rec-title">${rec.book().title}</span> by ${rec.book().author}</div>
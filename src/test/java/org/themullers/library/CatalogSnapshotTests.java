@@ -0,0 +1,272 @@
+package org.themullers.library;
+
+import org.junit.jupiter.api.Test;
+import org.themullers.library.db.BookCursor;
+import org.themullers.library.db.LibraryDAO;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogSnapshotTests {
+
+    protected final static List<String> AUTHORS = List.of("Ursula K. Le Guin", "Terry Pratchett", "Iain M. Banks", "Ann Leckie", "N. K. Jemisin", "Neil Gaiman");
+    protected final static List<String> SERIES = List.of("Earthsea", "Discworld", "Culture", "Imperial Radch", "Broken Earth");
+    protected final static List<String> TAGS = List.of("fantasy", "science fiction", "humor", "award winner", "favorite", "to read");
+    protected final static List<String> ORDERS = List.of(LibraryDAO.BOOK_ORDER_TITLE, LibraryDAO.BOOK_ORDER_AUTHOR, LibraryDAO.BOOK_ORDER_PUB_YEAR_ASC,
+            LibraryDAO.BOOK_ORDER_PUB_YEAR_DESC, LibraryDAO.BOOK_ORDER_ACQ_DATE_ASC, LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC);
+
+    @Test
+    void insertAddsTheBookEverywhere() {
+        var snapshot = new CatalogSnapshot(1, List.of(book(1, "A Wizard of Earthsea", "Ursula K. Le Guin", "Earthsea", "2020-01-01", false, "fantasy")));
+        var added = book(2, "The Tombs of Atuan", "Ursula K. Le Guin", "Earthsea", "2020-01-02", true, "fantasy", "favorite");
+        var next = snapshot.withBook(2, added);
+
+        assertEquals(2, next.getVersion());
+        assertEquals(2, next.countTitles());
+        assertEquals(1, next.countAudiobooks());
+        assertEquals(1, next.countAuthors());
+        assertEquals(Map.of("fantasy", 2, "favorite", 1), next.getTags());
+        assertEquals(Set.of(1, 2), ids(next.fetchBooksForAuthor("ursula k. le guin")));
+        assertEquals(Set.of(1, 2), ids(next.fetchBooksInSeries("Earthsea")));
+        assertEquals(List.of(2, 1), idList(next.fetchNewestBooks(10, 0)));
+        assertSame(added, next.fetchBook(2));
+
+        // the old snapshot doesn't change
+        assertEquals(1, snapshot.countTitles());
+        assertNull(snapshot.fetchBook(2));
+        assertEquals(Map.of("fantasy", 1), snapshot.getTags());
+    }
+
+    @Test
+    void updateMovesTheBook() {
+        var snapshot = new CatalogSnapshot(1, List.of(
+                book(1, "Guards! Guards!", "Terry Pratchett", "Discworld", "2020-01-01", true, "humor"),
+                book(2, "Small Gods", "Terry Pratchett", "Discworld", "2020-01-02", false, "humor")));
+
+        // populate the sorted lists that the update has to invalidate
+        assertEquals(List.of(1, 2), idList(snapshot.fetchBooksWithTag("humor", 10, 0, LibraryDAO.BOOK_ORDER_TITLE)));
+        assertEquals(List.of(1), idList(snapshot.fetchAudiobooks(10, 0, LibraryDAO.BOOK_ORDER_TITLE)));
+
+        var changed = book(1, "Mort", "Neil Gaiman", "Culture", "2020-01-03", false, "fantasy");
+        var next = snapshot.withBook(1, changed);
+
+        assertEquals(2, next.countTitles());
+        assertEquals(0, next.countAudiobooks());
+        assertEquals(2, next.countAuthors());
+        assertEquals(Map.of("fantasy", 1, "humor", 1), next.getTags());
+        assertEquals(Set.of(2), ids(next.fetchBooksForAuthor("Terry Pratchett")));
+        assertEquals(Set.of(1), ids(next.fetchBooksForAuthor("Neil Gaiman")));
+        assertEquals(Set.of(2), ids(next.fetchBooksInSeries("Discworld")));
+        assertEquals(Set.of(1), ids(next.fetchBooksInSeries("Culture")));
+        assertEquals(List.of(2), idList(next.fetchBooksWithTag("humor", 10, 0, LibraryDAO.BOOK_ORDER_TITLE)));
+        assertEquals(List.of(), next.fetchAudiobooks(10, 0, LibraryDAO.BOOK_ORDER_TITLE));
+        assertEquals(List.of(1, 2), idList(next.fetchNewestBooks(10, 0)));
+        assertSame(changed, next.fetchBook(1));
+    }
+
+    @Test
+    void deleteRemovesTheBookEverywhere() {
+        var snapshot = new CatalogSnapshot(1, List.of(
+                book(1, "Ancillary Justice", "Ann Leckie", "Imperial Radch", "2020-01-01", true, "science fiction", "award winner"),
+                book(2, "The Fifth Season", "N. K. Jemisin", "Broken Earth", "2020-01-02", false, "award winner")));
+        snapshot.fetchBooksWithTag("award winner", 10, 0, LibraryDAO.BOOK_ORDER_TITLE);
+
+        var next = snapshot.withBook(1, null);
+        assertEquals(1, next.countTitles());
+        assertEquals(0, next.countAudiobooks());
+        assertEquals(1, next.countAuthors());
+        assertEquals(Map.of("award winner", 1), next.getTags());
+        assertEquals(List.of(), next.fetchBooksForAuthor("Ann Leckie"));
+        assertEquals(List.of(), next.fetchBooksInSeries("Imperial Radch"));
+        assertEquals(List.of(), next.fetchBooksWithTag("science fiction", 10, 0, LibraryDAO.BOOK_ORDER_TITLE));
+        assertEquals(List.of(2), idList(next.fetchBooksWithTag("award winner", 10, 0, LibraryDAO.BOOK_ORDER_TITLE)));
+        assertEquals(List.of(2), idList(next.fetchNewestBooks(10, 0)));
+        assertNull(next.fetchBook(1));
+
+        // deleting a book that isn't there changes nothing but the version
+        var again = next.withBook(1, null);
+        assertEquals(3, again.getVersion());
+        assertEquals(1, again.countTitles());
+    }
+
+    @Test
+    void sortedListsWithoutTheBookAreKept() {
+        var snapshot = new CatalogSnapshot(1, List.of(
+                book(1, "Use of Weapons", "Iain M. Banks", "Culture", "2020-01-01", false, "science fiction"),
+                book(2, "Good Omens", "Neil Gaiman", null, "2020-01-02", false, "humor")));
+        var sciFi = snapshot.taggedBooks("science fiction", LibraryDAO.BOOK_ORDER_TITLE);
+        var humor = snapshot.taggedBooks("humor", LibraryDAO.BOOK_ORDER_TITLE);
+
+        var next = snapshot.withBook(2, book(2, "Good Omens", "Neil Gaiman", null, "2020-01-02", false, "humor", "favorite"));
+        assertSame(sciFi, next.taggedBooks("science fiction", LibraryDAO.BOOK_ORDER_TITLE));
+        assertNotSame(humor, next.taggedBooks("humor", LibraryDAO.BOOK_ORDER_TITLE));
+    }
+
+    @Test
+    void incrementalChangesMatchARebuild() {
+        var random = new Random(42);
+        var books = new HashMap<Integer, Book>();
+        for (int id = 1; id <= 200; id++) {
+            books.put(id, randomBook(random, id));
+        }
+        var snapshot = new CatalogSnapshot(1, books.values());
+        var nextId = 201;
+
+        for (int step = 0; step < 300; step++) {
+
+            // read the sorted lists first, so the changes have cached lists to keep or drop
+            readSortedLists(snapshot, random);
+
+            // insert, update, or delete a book
+            var op = random.nextInt(3);
+            int id;
+            Book book;
+            if (op == 0 || books.isEmpty()) {
+                id = nextId++;
+                book = randomBook(random, id);
+            }
+            else {
+                var ids = new ArrayList<>(books.keySet());
+                ids.sort(null);
+                id = ids.get(random.nextInt(ids.size()));
+                book = op == 1 ? randomBook(random, id) : null;
+            }
+            if (book == null) {
+                books.remove(id);
+            }
+            else {
+                books.put(id, book);
+            }
+            snapshot = snapshot.withBook(id, book);
+
+            assertMatches(new CatalogSnapshot(snapshot.getVersion(), books.values()), snapshot, "after step " + step);
+        }
+    }
+
+    // HELPER METHODS
+
+    // check that a snapshot that was changed incrementally matches one that was built from scratch
+    protected static void assertMatches(CatalogSnapshot expected, CatalogSnapshot actual, String message) {
+        assertEquals(expected.countTitles(), actual.countTitles(), message);
+        assertEquals(expected.countAudiobooks(), actual.countAudiobooks(), message);
+        assertEquals(expected.countAuthors(), actual.countAuthors(), message);
+        assertEquals(expected.getTags(), actual.getTags(), message);
+        assertEquals(ids(expected.fetchAllBooks()), ids(actual.fetchAllBooks()), message);
+        for (var author : AUTHORS) {
+            assertEquals(ids(expected.fetchBooksForAuthor(author)), ids(actual.fetchBooksForAuthor(author)), message + ", author " + author);
+        }
+        for (var series : SERIES) {
+            assertEquals(ids(expected.fetchBooksInSeries(series)), ids(actual.fetchBooksInSeries(series)), message + ", series " + series);
+        }
+        assertEquals(idList(expected.fetchNewestBooks(Integer.MAX_VALUE, 0)), idList(actual.fetchNewestBooks(Integer.MAX_VALUE, 0)), message);
+        assertEquals(idList(expected.fetchNewestBooks(Integer.MAX_VALUE, 0)), pageNewest(actual, 9), message);
+
+        for (var order : ORDERS) {
+            for (var tag : TAGS) {
+                var all = idList(expected.fetchBooksWithTag(tag, Integer.MAX_VALUE, 0, order));
+                assertEquals(all, idList(actual.fetchBooksWithTag(tag, Integer.MAX_VALUE, 0, order)), message + ", tag " + tag + ", " + order);
+                assertEquals(all, pageTag(actual, tag, order, 7), message + ", tag " + tag + " by cursor, " + order);
+            }
+            var audio = idList(expected.fetchAudiobooks(Integer.MAX_VALUE, 0, order));
+            assertEquals(audio, idList(actual.fetchAudiobooks(Integer.MAX_VALUE, 0, order)), message + ", audiobooks, " + order);
+            assertEquals(audio, pageAudiobooks(actual, order, 7), message + ", audiobooks by cursor, " + order);
+        }
+    }
+
+    // read some of the sorted lists (which caches them)
+    protected static void readSortedLists(CatalogSnapshot snapshot, Random random) {
+        var order = ORDERS.get(random.nextInt(ORDERS.size()));
+        snapshot.fetchBooksWithTag(TAGS.get(random.nextInt(TAGS.size())), 5, 0, order);
+        snapshot.fetchAudiobooks(5, 0, order);
+    }
+
+    // page through the lists with cursors, the way the pages do
+    protected static List<Integer> pageNewest(CatalogSnapshot snapshot, int pageSize) {
+        var ids = new ArrayList<Integer>();
+        var page = snapshot.fetchNewestBooks(pageSize, 0);
+        while (!page.isEmpty()) {
+            ids.addAll(idList(page));
+            page = snapshot.fetchNewestBooks(pageSize, cursor(page, LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC));
+        }
+        return ids;
+    }
+
+    protected static List<Integer> pageTag(CatalogSnapshot snapshot, String tag, String order, int pageSize) {
+        var ids = new ArrayList<Integer>();
+        var page = snapshot.fetchBooksWithTag(tag, pageSize, 0, order);
+        while (!page.isEmpty()) {
+            ids.addAll(idList(page));
+            page = snapshot.fetchBooksWithTag(tag, pageSize, order, cursor(page, order));
+        }
+        return ids;
+    }
+
+    protected static List<Integer> pageAudiobooks(CatalogSnapshot snapshot, String order, int pageSize) {
+        var ids = new ArrayList<Integer>();
+        var page = snapshot.fetchAudiobooks(pageSize, 0, order);
+        while (!page.isEmpty()) {
+            ids.addAll(idList(page));
+            page = snapshot.fetchAudiobooks(pageSize, order, cursor(page, order));
+        }
+        return ids;
+    }
+
+    // the cursor for the page after this one (encoded and decoded, like it would be in a link)
+    protected static BookCursor cursor(List<Book> page, String order) {
+        return BookCursor.decode(BookCursor.after(page.get(page.size() - 1), order).encode(), order);
+    }
+
+    // a book with values drawn from small pools, so there are plenty of shared authors, series, tags, and ties
+    protected static Book randomBook(Random random, int id) {
+        var book = new Book();
+        book.setId(id);
+        book.setTitle(random.nextInt(10) == 0 ? "Untitled" : "Title " + random.nextInt(50));
+        book.setAuthor(AUTHORS.get(random.nextInt(AUTHORS.size())));
+        if (random.nextInt(4) == 0) {
+            book.setAuthor2(AUTHORS.get(random.nextInt(AUTHORS.size())));
+        }
+        if (random.nextBoolean()) {
+            book.setSeries(SERIES.get(random.nextInt(SERIES.size())));
+            book.setSeriesSequence(random.nextInt(5) == 0 ? null : random.nextInt(10));
+        }
+        book.setPublicationYear(1960 + random.nextInt(20));
+        book.setAcquisitionDate(random.nextInt(10) == 0 ? null : Date.valueOf(LocalDate.of(2021, 1, 1).plusDays(random.nextInt(30))));
+        if (random.nextInt(3) == 0) {
+            book.setAudiobookObjectKey("audiobook-" + id + ".m4b");
+        }
+        for (var tag : TAGS) {
+            if (random.nextInt(3) == 0) {
+                book.addTag(tag);
+            }
+        }
+        return book;
+    }
+
+    protected static Book book(int id, String title, String author, String series, String acquired, boolean audiobook, String... tags) {
+        var book = new Book();
+        book.setId(id);
+        book.setTitle(title);
+        book.setAuthor(author);
+        book.setSeries(series);
+        book.setPublicationYear(2000);
+        book.setAcquisitionDate(Date.valueOf(acquired));
+        if (audiobook) {
+            book.setAudiobookObjectKey("audiobook-" + id + ".m4b");
+        }
+        book.setTags(List.of(tags));
+        return book;
+    }
+
+    protected static Set<Integer> ids(Collection<Book> books) {
+        var ids = new HashSet<Integer>();
+        books.forEach(book -> ids.add(book.getId()));
+        return ids;
+    }
+
+    protected static List<Integer> idList(List<Book> books) {
+        return books.stream().map(Book::getId).toList();
+    }
+}
@@ -0,0 +1,170 @@
+package org.themullers.library;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.themullers.library.db.LibraryDAO;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogTests {
+
+    FakeDAO dao;
+    Catalog catalog;
+    List<Book[]> notifications;
+
+    @BeforeEach
+    void setUp() {
+        dao = new FakeDAO();
+        dao.put(CatalogSnapshotTests.book(1, "Small Gods", "Terry Pratchett", "Discworld", "2020-01-01", false, "humor"));
+        dao.put(CatalogSnapshotTests.book(2, "Mort", "Terry Pratchett", "Discworld", "2020-01-02", true, "humor"));
+        catalog = new Catalog(dao);
+        notifications = new ArrayList<>();
+        catalog.addListener((snapshot, before, after) -> notifications.add(new Book[] { before, after }));
+    }
+
+    @Test
+    void snapshotIsLoadedOnce() {
+        var snapshot = catalog.snapshot();
+        assertEquals(2, snapshot.countTitles());
+        assertSame(snapshot, catalog.snapshot());
+        assertEquals(1, dao.fullLoads);
+    }
+
+    @Test
+    void bookChangedSwapsInTheNewVersion() {
+        var first = catalog.snapshot();
+        var before = first.fetchBook(1);
+        var after = CatalogSnapshotTests.book(1, "Small Gods", "Terry Pratchett", "Discworld", "2020-01-01", false, "humor", "favorite");
+        dao.put(after);
+        catalog.bookChanged(1);
+
+        var second = catalog.snapshot();
+        assertEquals(first.getVersion() + 1, second.getVersion());
+        assertSame(after, second.fetchBook(1));
+        assertEquals(Map.of("humor", 2, "favorite", 1), second.getTags());
+        assertEquals(1, notifications.size());
+        assertSame(before, notifications.get(0)[0]);
+        assertSame(after, notifications.get(0)[1]);
+
+        // a deleted book comes back from the database as null
+        dao.remove(2);
+        catalog.bookChanged(2);
+        assertNull(catalog.snapshot().fetchBook(2));
+        assertNotNull(notifications.get(1)[0]);
+        assertNull(notifications.get(1)[1]);
+    }
+
+    @Test
+    void changesBeforeTheFirstLoadAreLeftToTheLoad() {
+        dao.put(CatalogSnapshotTests.book(3, "Eric", "Terry Pratchett", "Discworld", "2020-01-03", false));
+        catalog.bookChanged(3);
+        assertTrue(notifications.isEmpty());
+        assertEquals(3, catalog.snapshot().countTitles());
+    }
+
+    @Test
+    void checkAppliesOnlyUnseenChanges() {
+        // a change recorded before the load is already in the snapshot
+        dao.record(1);
+        catalog.snapshot();
+
+        // another process adds one book and deletes another
+        dao.put(CatalogSnapshotTests.book(3, "Eric", "Terry Pratchett", "Discworld", "2020-01-03", false));
+        dao.record(3);
+        dao.remove(2);
+        dao.record(2);
+        catalog.checkForChanges();
+
+        var snapshot = catalog.snapshot();
+        assertEquals(Set.of(1, 3), CatalogSnapshotTests.ids(snapshot.fetchAllBooks()));
+        assertEquals(List.of(Set.of(3, 2)), dao.fetches);
+        assertEquals(2, notifications.size());
+        assertEquals(1, dao.prunes);
+
+        // the same changes aren't applied again
+        catalog.checkForChanges();
+        assertEquals(1, dao.fetches.size());
+        assertEquals(2, notifications.size());
+        assertEquals(2, dao.prunes);
+    }
+
+    @Test
+    void checkReloadsWhenTheChangeLogMayHaveBeenPruned() {
+        catalog.snapshot();
+        dao.put(CatalogSnapshotTests.book(3, "Eric", "Terry Pratchett", "Discworld", "2020-01-03", false));
+        catalog.lastCheckNanos = System.nanoTime() - Catalog.CHANGE_RETENTION_SECONDS * 1_000_000_000L;
+        catalog.checkForChanges();
+
+        assertEquals(2, dao.fullLoads);
+        assertEquals(3, catalog.snapshot().countTitles());
+        assertEquals(2, catalog.snapshot().getVersion());
+        assertEquals(1, notifications.size());
+        assertNull(notifications.get(0)[0]);
+        assertNull(notifications.get(0)[1]);
+    }
+
+    @Test
+    void checkBeforeTheFirstLoadDoesNothing() {
+        catalog.checkForChanges();
+        assertEquals(0, dao.fullLoads);
+        assertEquals(0, dao.prunes);
+    }
+
+    // HELPER METHODS
+
+    // a DAO that keeps its books and change log in memory
+    protected static class FakeDAO extends LibraryDAO {
+
+        Map<Integer, Book> books = new HashMap<>();
+        List<BookChange> changes = new ArrayList<>();
+        List<Set<Integer>> fetches = new ArrayList<>();
+        int fullLoads;
+        int prunes;
+
+        FakeDAO() {
+            super(null);
+        }
+
+        void put(Book book) {
+            books.put(book.getId(), book);
+        }
+
+        void remove(int bookId) {
+            books.remove(bookId);
+        }
+
+        void record(int bookId) {
+            changes.add(new BookChange(changes.size() + 1, bookId));
+        }
+
+        @Override
+        public List<Book> fetchAllBooks() {
+            fullLoads++;
+            return new ArrayList<>(books.values());
+        }
+
+        @Override
+        public Book fetchBook(int bookId) {
+            return books.get(bookId);
+        }
+
+        @Override
+        public List<Book> fetchBooks(Collection<Integer> bookIds) {
+            fetches.add(new HashSet<>(bookIds));
+            return bookIds.stream().map(books::get).filter(Objects::nonNull).toList();
+        }
+
+        @Override
+        public List<BookChange> fetchBookChanges(int seconds) {
+            return new ArrayList<>(changes);
+        }
+
+        @Override
+        public int deleteBookChanges(int seconds) {
+            prunes++;
+            return 0;
+        }
+    }
+}
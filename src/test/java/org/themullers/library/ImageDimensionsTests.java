@@ -0,0 +1,134 @@
+package org.themullers.library;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageDimensionsTests {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void png() throws IOException {
+        assertEquals(new ImageDimensions(300, 450), ImageDimensions.probe(image("png", 300, 450)));
+    }
+
+    @Test
+    void gif() throws IOException {
+        assertEquals(new ImageDimensions(300, 450), ImageDimensions.probe(image("gif", 300, 450)));
+    }
+
+    @Test
+    void jpeg() throws IOException {
+        // ImageIO writes JFIF and quantization table segments before the frame header, so this walks past them
+        assertEquals(new ImageDimensions(300, 450), ImageDimensions.probe(image("jpg", 300, 450)));
+    }
+
+    @Test
+    void jpegWithPaddedMarkers() throws IOException {
+        var file = file("padded.jpg", new byte[] {
+                (byte) 0xff, (byte) 0xd8,
+                (byte) 0xff, (byte) 0xff, (byte) 0xe1, 0x00, 0x04, 0x00, 0x00,                  // APP1 after a fill byte
+                (byte) 0xff, (byte) 0xc2, 0x00, 0x11, 0x08, 0x01, (byte) 0xc2, 0x00, (byte) 0x80 // progressive frame header: 450 high, 128 wide
+        });
+        assertEquals(new ImageDimensions(128, 450), ImageDimensions.probe(file));
+    }
+
+    @Test
+    void jpegHuffmanTableIsNotAFrameHeader() throws IOException {
+        var file = file("dht.jpg", new byte[] {
+                (byte) 0xff, (byte) 0xd8,
+                (byte) 0xff, (byte) 0xc4, 0x00, 0x07, 0x00, 0x01, 0x00, 0x02, 0x00,              // DHT, which looks like it has dimensions
+                (byte) 0xff, (byte) 0xc0, 0x00, 0x11, 0x08, 0x00, 0x20, 0x00, 0x40               // baseline frame header: 32 high, 64 wide
+        });
+        assertEquals(new ImageDimensions(64, 32), ImageDimensions.probe(file));
+    }
+
+    @Test
+    void jpegWithoutFrameHeader() throws IOException {
+        var file = file("noframe.jpg", new byte[] {
+                (byte) 0xff, (byte) 0xd8,
+                (byte) 0xff, (byte) 0xda, 0x00, 0x02,
+                (byte) 0xff, (byte) 0xd9
+        });
+        assertNull(ImageDimensions.probe(file));
+    }
+
+    @Test
+    void truncatedPng() throws IOException {
+        var png = Files.readAllBytes(image("png", 10, 10).toPath());
+        var truncated = new byte[12];
+        System.arraycopy(png, 0, truncated, 0, truncated.length);
+        assertNull(ImageDimensions.probe(file("truncated.png", truncated)));
+    }
+
+    @Test
+    void svgWidthAndHeight() throws IOException {
+        assertEquals(new ImageDimensions(600, 900), ImageDimensions.probe(svg("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"600\" height=\"900px\"/>")));
+        assertEquals(new ImageDimensions(601, 900), ImageDimensions.probe(svg("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"600.5\" height=\"900\"/>")));
+    }
+
+    @Test
+    void svgViewBox() throws IOException {
+        assertEquals(new ImageDimensions(600, 900), ImageDimensions.probe(svg("<?xml version=\"1.0\"?><svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 600 900\"/>")));
+        assertEquals(new ImageDimensions(600, 900), ImageDimensions.probe(svg("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100%\" height=\"100%\" viewBox=\"0,0,600,900\"/>")));
+    }
+
+    @Test
+    void svgIsRecognizedByContent() throws IOException {
+        // the callers probe temporary files, so the name says nothing about the format
+        var svg = "\uFEFF\n  <?xml version=\"1.0\"?>\n<!-- a cover -->\n<!DOCTYPE svg>\n<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"600\" height=\"900\"/>";
+        assertEquals(new ImageDimensions(600, 900), ImageDimensions.probe(file("image-123.tmp", svg.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void otherXmlIsNotSvg() throws IOException {
+        assertNull(ImageDimensions.probe(file("upload-123.tmp", "<?xml version=\"1.0\"?><html width=\"600\" height=\"900\"/>".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void svgWithoutSize() throws IOException {
+        assertNull(ImageDimensions.probe(svg("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"10cm\" height=\"20cm\"/>")));
+        assertNull(ImageDimensions.probe(svg("not xml at all")));
+    }
+
+    @Test
+    void otherFormatsAskImageIO() throws IOException {
+        assertEquals(new ImageDimensions(30, 45), ImageDimensions.probe(image("bmp", 30, 45)));
+    }
+
+    @Test
+    void notAnImage() throws IOException {
+        assertNull(ImageDimensions.probe(file("notes.txt", "just some text".getBytes(StandardCharsets.UTF_8))));
+        assertNull(ImageDimensions.probe(new File(dir, "missing.png")));
+    }
+
+    // HELPER METHODS
+
+    protected File image(String format, int width, int height) throws IOException {
+        var file = new File(dir, "image." + format);
+        if (!ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, file)) {
+            throw new IOException("no writer for " + format);
+        }
+        return file;
+    }
+
+    protected File svg(String content) throws IOException {
+        return file("upload-" + content.hashCode() + ".tmp", content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected File file(String name, byte[] content) throws IOException {
+        var file = new File(dir, name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
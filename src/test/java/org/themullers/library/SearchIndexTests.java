@@ -0,0 +1,176 @@
+package org.themullers.library;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTests {
+
+    protected final static List<String> WORDS = List.of("Wizard", "Tombs", "Shore", "Gods", "Mort", "Guards", "Weapons", "Player", "Games", "Justice", "Sword", "Mercy", "Season", "Gate", "Sky", "Brontë");
+
+    CatalogTests.FakeDAO dao;
+    Catalog catalog;
+    SearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        dao = new CatalogTests.FakeDAO();
+        dao.put(CatalogSnapshotTests.book(1, "Small Gods", "Terry Pratchett", "Discworld", "2020-01-01", false, "humor"));
+        dao.put(CatalogSnapshotTests.book(2, "Mort", "Terry Pratchett", "Discworld", "2020-01-02", true, "humor"));
+        dao.put(CatalogSnapshotTests.book(3, "Good Omens", "Neil Gaiman", null, "2020-01-03", false, "fantasy"));
+        catalog = new Catalog(dao);
+        index = new SearchIndex(catalog);
+    }
+
+    @Test
+    void findsTitlesAuthorsAndSeries() {
+        var results = index.search("pratch");
+        assertEquals(Set.of(1, 2), CatalogSnapshotTests.ids(results.titles()));
+        assertEquals(List.of("Terry Pratchett"), results.authors());
+
+        results = index.search("disc");
+        assertEquals(Map.of("Discworld", List.of("Terry Pratchett")), results.seriesMap());
+        assertEquals(List.of(3), CatalogSnapshotTests.idList(index.search("good omens").titles()));
+    }
+
+    @Test
+    void changesBeforeTheFirstSearchAreLeftToTheBuild() {
+        dao.put(CatalogSnapshotTests.book(4, "Eric", "Terry Pratchett", "Discworld", "2020-01-04", false));
+        catalog.snapshot();
+        catalog.bookChanged(4);
+        assertNull(index.snapshot);
+        assertEquals(List.of(4), CatalogSnapshotTests.idList(index.search("eric").titles()));
+    }
+
+    @Test
+    void updatedBookIsFoundByItsNewWords() {
+        index.search("mort");
+        dao.put(CatalogSnapshotTests.book(2, "Reaper Man", "Terry Pratchett", "Discworld", "2020-01-02", true, "humor"));
+        catalog.bookChanged(2);
+
+        assertEquals(List.of(), index.search("mort").titles());
+        assertEquals(List.of(2), CatalogSnapshotTests.idList(index.search("reaper").titles()));
+        assertEquals(catalog.snapshot().getVersion(), index.snapshot.getVersion());
+    }
+
+    @Test
+    void namesGoAwayWithTheirLastBook() {
+        index.search("x");
+        dao.remove(1);
+        catalog.bookChanged(1);
+        assertEquals(List.of("Terry Pratchett"), index.search("terry").authors());
+        assertEquals(1, index.search("discworld").seriesMap().size());
+
+        dao.remove(2);
+        catalog.bookChanged(2);
+        assertEquals(List.of(), index.search("terry").authors());
+        assertEquals(Map.of(), index.search("discworld").seriesMap());
+        assertEquals(List.of(), index.search("humor").titles());
+        assertFalse(index.bookPostings.containsKey("pratchett"));
+    }
+
+    @Test
+    void addedBookIsFound() {
+        index.search("x");
+        dao.put(CatalogSnapshotTests.book(4, "Anansi Boys", "Neil Gaiman", "American Gods", "2020-01-04", false, "fantasy"));
+        catalog.bookChanged(4);
+
+        assertEquals(List.of(4), CatalogSnapshotTests.idList(index.search("anansi").titles()));
+        assertEquals(Set.of(3, 4), CatalogSnapshotTests.ids(index.search("gaiman").titles()));
+        assertEquals(Map.of("American Gods", List.of("Neil Gaiman")), index.search("american").seriesMap());
+    }
+
+    @Test
+    void missedVersionRebuildsTheIndex() {
+        index.search("x");
+
+        // the catalog moves on twice, but the index only hears about the second change
+        var snapshot = catalog.snapshot();
+        var eric = CatalogSnapshotTests.book(4, "Eric", "Terry Pratchett", "Discworld", "2020-01-04", false);
+        var missed = snapshot.withBook(4, eric);
+        var next = missed.withBook(1, null);
+        index.catalogChanged(next, snapshot.fetchBook(1), null);
+
+        assertSame(next, index.snapshot);
+        assertEquals(List.of(4), CatalogSnapshotTests.idList(index.search("eric").titles()));
+        assertEquals(List.of(), index.search("small gods").titles());
+
+        // an older version is ignored
+        index.catalogChanged(missed, null, eric);
+        assertSame(next, index.snapshot);
+    }
+
+    @Test
+    void reloadRebuildsTheIndex() {
+        index.search("x");
+        dao.put(CatalogSnapshotTests.book(4, "Eric", "Terry Pratchett", "Discworld", "2020-01-04", false));
+        catalog.lastCheckNanos = System.nanoTime() - Catalog.CHANGE_RETENTION_SECONDS * 1_000_000_000L;
+        catalog.checkForChanges();
+
+        assertSame(catalog.snapshot(), index.snapshot);
+        assertEquals(List.of(4), CatalogSnapshotTests.idList(index.search("eric").titles()));
+    }
+
+    @Test
+    void incrementalChangesMatchARebuild() {
+        var random = new Random(7);
+        dao.books.clear();
+        for (int id = 1; id <= 100; id++) {
+            dao.put(randomBook(random, id));
+        }
+        index.search("x");
+        var authors = index.authors;
+
+        var nextId = 101;
+        for (int step = 0; step < 300; step++) {
+            var op = random.nextInt(3);
+            int id;
+            if (op == 0 || dao.books.isEmpty()) {
+                id = nextId++;
+                dao.put(randomBook(random, id));
+            }
+            else {
+                var ids = new ArrayList<>(dao.books.keySet());
+                ids.sort(null);
+                id = ids.get(random.nextInt(ids.size()));
+                if (op == 1) {
+                    dao.put(randomBook(random, id));
+                }
+                else {
+                    dao.remove(id);
+                }
+            }
+            catalog.bookChanged(id);
+        }
+
+        // the index was updated one book at a time, not rebuilt (which would replace the name indexes)
+        assertSame(authors, index.authors);
+        assertEquals(catalog.snapshot().getVersion(), index.snapshot.getVersion());
+        var rebuilt = new SearchIndex(catalog);
+        rebuilt.search("x");
+
+        assertEquals(rebuilt.bookPostings, index.bookPostings);
+        assertEquals(rebuilt.authors.bookCounts, index.authors.bookCounts);
+        assertEquals(rebuilt.authors.postings, index.authors.postings);
+        assertEquals(rebuilt.series.bookCounts, index.series.bookCounts);
+        assertEquals(rebuilt.series.postings, index.series.postings);
+    }
+
+    // HELPER METHODS
+
+    // a book with searchable text drawn from small pools, including alternate titles
+    protected static Book randomBook(Random random, int id) {
+        var book = CatalogSnapshotTests.randomBook(random, id);
+        book.setTitle(WORDS.get(random.nextInt(WORDS.size())) + " " + WORDS.get(random.nextInt(WORDS.size())));
+        if (random.nextInt(4) == 0) {
+            book.setAltTitle1(WORDS.get(random.nextInt(WORDS.size())));
+        }
+        if (random.nextInt(8) == 0) {
+            book.setAuthor3(CatalogSnapshotTests.AUTHORS.get(random.nextInt(CatalogSnapshotTests.AUTHORS.size())));
+        }
+        return book;
+    }
+}
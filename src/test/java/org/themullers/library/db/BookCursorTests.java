@@ -0,0 +1,111 @@
+package org.themullers.library.db;
+
+import org.junit.jupiter.api.Test;
+import org.themullers.library.Book;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookCursorTests {
+
+    @Test
+    void roundTripsEveryOrder() {
+        var book = book(42, "The Fellowship of the Ring", "J. R. R. Tolkien", "The Lord of the Rings", 1);
+        for (var order : List.of(LibraryDAO.BOOK_ORDER_TITLE, LibraryDAO.BOOK_ORDER_AUTHOR, LibraryDAO.BOOK_ORDER_PUB_YEAR_ASC,
+                LibraryDAO.BOOK_ORDER_PUB_YEAR_DESC, LibraryDAO.BOOK_ORDER_ACQ_DATE_ASC, LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC)) {
+            var cursor = BookCursor.after(book, order);
+            var decoded = BookCursor.decode(cursor.encode(), order);
+            assertNotNull(decoded, order);
+            assertEquals(order, decoded.getOrder());
+            assertEquals(cursor.getValues(), decoded.getValues());
+            assertEquals(0, LibraryDAO.compareToCursor(book, decoded), order);
+        }
+    }
+
+    @Test
+    void roundTripsNullsAndAwkwardCharacters() {
+        var book = book(7, "Commas, ~Tildes~ & 100% \"Other\" Things/Ünïcödé", "Someone", null, null);
+        var cursor = BookCursor.after(book, LibraryDAO.BOOK_ORDER_AUTHOR);
+        var decoded = BookCursor.decode(cursor.encode(), LibraryDAO.BOOK_ORDER_AUTHOR);
+        assertNotNull(decoded);
+        assertEquals(Arrays.asList("Someone", null, null, "1954", "7"), decoded.getValues());
+        assertEquals(0, LibraryDAO.compareToCursor(book, decoded));
+
+        var titleCursor = BookCursor.decode(BookCursor.after(book, LibraryDAO.BOOK_ORDER_TITLE).encode(), LibraryDAO.BOOK_ORDER_TITLE);
+        assertEquals(book.getTitle(), titleCursor.getValues().get(0));
+    }
+
+    @Test
+    void encodedCursorIsUrlSafe() {
+        var encoded = BookCursor.after(book(1, "?&=/+ #", "A", null, null), LibraryDAO.BOOK_ORDER_TITLE).encode();
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"), encoded);
+    }
+
+    @Test
+    void cursorForAnotherOrderIsIgnored() {
+        var encoded = BookCursor.after(book(1, "A", "B", null, null), LibraryDAO.BOOK_ORDER_TITLE).encode();
+        assertNull(BookCursor.decode(encoded, LibraryDAO.BOOK_ORDER_AUTHOR));
+    }
+
+    @Test
+    void missingOrMangledCursorsAreIgnored() {
+        assertNull(BookCursor.decode(null, LibraryDAO.BOOK_ORDER_TITLE));
+        assertNull(BookCursor.decode(" ", LibraryDAO.BOOK_ORDER_TITLE));
+        assertNull(BookCursor.decode("not base64!", LibraryDAO.BOOK_ORDER_TITLE));
+        assertNull(BookCursor.decode(encode("title,A"), LibraryDAO.BOOK_ORDER_TITLE));
+        assertNull(BookCursor.decode(encode("title,A,1,extra"), LibraryDAO.BOOK_ORDER_TITLE));
+    }
+
+    @Test
+    void valuesOfTheWrongTypeAreIgnored() {
+        assertNull(BookCursor.decode(encode("title,A,notanumber"), LibraryDAO.BOOK_ORDER_TITLE));
+        assertNull(BookCursor.decode(encode("acqDateAsc,yesterday,A,1"), LibraryDAO.BOOK_ORDER_ACQ_DATE_ASC));
+    }
+
+    @Test
+    void booksAfterTheCursorCompareGreater() {
+        var cursor = BookCursor.after(book(5, "Middle", "A", null, null), LibraryDAO.BOOK_ORDER_TITLE);
+        assertTrue(LibraryDAO.compareToCursor(book(1, "Zebra", "A", null, null), cursor) > 0);
+        assertTrue(LibraryDAO.compareToCursor(book(9, "apple", "A", null, null), cursor) < 0);
+        assertTrue(LibraryDAO.compareToCursor(book(6, "middle", "A", null, null), cursor) > 0);
+
+        // descending orders run backwards
+        var descCursor = BookCursor.after(book(5, "Middle", "A", null, null), LibraryDAO.BOOK_ORDER_PUB_YEAR_DESC);
+        var older = book(1, "Middle", "A", null, null);
+        older.setPublicationYear(1900);
+        assertTrue(LibraryDAO.compareToCursor(older, descCursor) > 0);
+    }
+
+    @Test
+    void tiesInDescendingOrdersListByTitle() {
+        var books = new ArrayList<>(List.of(book(3, "Zebra", "A", null, null), book(2, "apple", "A", null, null), book(1, "Apple", "A", null, null)));
+        for (var order : List.of(LibraryDAO.BOOK_ORDER_ACQ_DATE_DESC, LibraryDAO.BOOK_ORDER_PUB_YEAR_DESC)) {
+            books.sort(LibraryDAO.bookComparator(order));
+            assertEquals(List.of(1, 2, 3), books.stream().map(Book::getId).toList(), order);
+        }
+    }
+
+    // HELPER METHODS
+
+    protected static Book book(int id, String title, String author, String series, Integer seriesSequence) {
+        var book = new Book();
+        book.setId(id);
+        book.setTitle(title);
+        book.setAuthor(author);
+        book.setSeries(series);
+        book.setSeriesSequence(seriesSequence);
+        book.setPublicationYear(1954);
+        book.setAcquisitionDate(Date.valueOf("2021-03-04"));
+        return book;
+    }
+
+    protected static String encode(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,239 @@
+package org.themullers.library.s3;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteZipReaderTests {
+
+    @TempDir
+    File storeDir;
+
+    RecordingOSAO osao;
+
+    @BeforeEach
+    void setUp() {
+        osao = new RecordingOSAO();
+        osao.setStoreType(LibraryOSAO.TYPE_LOCAL);
+        osao.setLocalDir(storeDir);
+        osao.init();
+    }
+
+    @Test
+    void findsEndOfCentralDirectory() throws IOException {
+        var zip = zip(Map.of("mimetype", "application/epub+zip"), "a comment", false);
+        var eocd = RemoteZipReader.findEndOfCentralDirectory(buffer(zip));
+        assertEquals(zip.length - RemoteZipReader.EOCD_SIZE - "a comment".length(), eocd);
+    }
+
+    @Test
+    void noEndOfCentralDirectory() {
+        var notZip = new byte[1000];
+        Arrays.fill(notZip, (byte) 'x');
+        assertEquals(-1, RemoteZipReader.findEndOfCentralDirectory(buffer(notZip)));
+    }
+
+    @Test
+    void signatureInsideTheCommentIsNotTheRecord() throws IOException {
+        // a comment that happens to contain the signature doesn't fool the search, because the record's comment length has to reach the end
+        var fakeRecord = new String(new byte[] { 0x50, 0x4b, 0x05, 0x06 }, StandardCharsets.ISO_8859_1) + "x".repeat(30);
+        var zip = zip(Map.of("a.txt", "a"), fakeRecord, false);
+        var eocd = RemoteZipReader.findEndOfCentralDirectory(buffer(zip));
+        assertEquals(zip.length - RemoteZipReader.EOCD_SIZE - fakeRecord.length(), eocd);
+    }
+
+    @Test
+    void parsesCentralDirectory() throws IOException {
+        var contents = new LinkedHashMap<String, String>();
+        contents.put("mimetype", "application/epub+zip");
+        contents.put("META-INF/container.xml", "<container/>".repeat(50));
+        contents.put("OEBPS/chäpter.xhtml", "<html/>");
+        var zip = store("book.epub", zip(contents, null, true));
+
+        var reader = RemoteZipReader.open(osao, "book.epub");
+        var entries = reader.entries();
+        assertEquals(List.copyOf(contents.keySet()), entries.stream().map(RemoteZipReader.Entry::name).toList());
+
+        var mimetype = reader.entry("mimetype");
+        assertEquals(RemoteZipReader.METHOD_STORED, mimetype.method());
+        assertEquals(20, mimetype.size());
+        assertEquals(20, mimetype.compressedSize());
+        assertEquals(0, mimetype.offset());
+        assertEquals(RemoteZipReader.METHOD_DEFLATED, reader.entry("META-INF/container.xml").method());
+        assertEquals(600, reader.entry("META-INF/container.xml").size());
+        assertNull(reader.entry("missing"));
+
+        // each entry runs up to the next one, and the last one up to the central directory
+        for (int i = 0; i + 1 < entries.size(); i++) {
+            assertEquals(entries.get(i + 1).offset() - 1, entries.get(i).end());
+        }
+        var directoryOffset = buffer(zip).getInt(RemoteZipReader.findEndOfCentralDirectory(buffer(zip)) + 16);
+        assertEquals(directoryOffset - 1, entries.get(entries.size() - 1).end());
+
+        // the whole directory was in the first read of the end of the archive
+        assertEquals(1, osao.reads.size());
+    }
+
+    @Test
+    void fetchesCentralDirectoryThatIsNotInTheTail() throws IOException {
+        var contents = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 1500; i++) {
+            contents.put(String.format("OEBPS/text/chapter-%04d-with-a-rather-long-name.xhtml", i), "<html/>");
+        }
+        store("big.epub", zip(contents, null, false));
+
+        var reader = RemoteZipReader.open(osao, "big.epub");
+        assertEquals(1500, reader.entries().size());
+        assertEquals(2, osao.reads.size());
+    }
+
+    @Test
+    void notAZipArchive() throws IOException {
+        store("short.epub", new byte[10]);
+        assertThrows(ZipException.class, () -> RemoteZipReader.open(osao, "short.epub"));
+        var notZip = new byte[1000];
+        Arrays.fill(notZip, (byte) 'x');
+        store("notzip.epub", notZip);
+        assertThrows(ZipException.class, () -> RemoteZipReader.open(osao, "notzip.epub"));
+    }
+
+    @Test
+    void readsStoredAndDeflatedEntries() throws IOException {
+        var contents = new LinkedHashMap<String, String>();
+        contents.put("mimetype", "application/epub+zip");
+        contents.put("OEBPS/content.opf", "<package>" + "<item/>".repeat(200) + "</package>");
+        contents.put("OEBPS/toc.ncx", "<ncx/>");
+        store("book.epub", zip(contents, null, true));
+
+        var reader = RemoteZipReader.open(osao, "book.epub");
+        var read = readAll(reader, reader.entries());
+        assertEquals(contents, read);
+    }
+
+    @Test
+    void entriesTheConsumerDoesNotFinishAreSkipped() throws IOException {
+        var contents = new LinkedHashMap<String, String>();
+        contents.put("a.txt", "a".repeat(5000));
+        contents.put("b.txt", "b".repeat(5000));
+        store("book.epub", zip(contents, null, false));
+
+        var reader = RemoteZipReader.open(osao, "book.epub");
+        var firstBytes = new HashMap<String, Integer>();
+        reader.read(reader.entries(), (entry, content) -> firstBytes.put(entry.name(), content.read()));
+        assertEquals(Map.of("a.txt", (int) 'a', "b.txt", (int) 'b'), firstBytes);
+    }
+
+    @Test
+    void nearbyEntriesAreFetchedTogether() throws IOException {
+        var contents = new LinkedHashMap<String, String>();
+        contents.put("a.txt", "a");
+        contents.put("b.txt", "b".repeat(1000));
+        contents.put("c.txt", "c");
+        store("book.epub", zip(contents, null, false));
+
+        var reader = RemoteZipReader.open(osao, "book.epub");
+        osao.reads.clear();
+        readAll(reader, List.of(reader.entry("c.txt"), reader.entry("a.txt")));
+        assertEquals(1, osao.reads.size());
+        assertEquals(reader.entry("a.txt").offset(), osao.reads.get(0)[0]);
+        assertEquals(reader.entry("c.txt").end(), osao.reads.get(0)[1]);
+    }
+
+    @Test
+    void distantEntriesAreFetchedSeparately() throws IOException {
+        var contents = new LinkedHashMap<String, String>();
+        contents.put("a.txt", "a");
+        contents.put("big.bin", randomText(200_000));
+        contents.put("c.txt", "c");
+        store("book.epub", zip(contents, null, false));
+
+        var reader = RemoteZipReader.open(osao, "book.epub");
+        osao.reads.clear();
+        var read = readAll(reader, List.of(reader.entry("a.txt"), reader.entry("c.txt")));
+        assertEquals(Map.of("a.txt", "a", "c.txt", "c"), read);
+        assertEquals(2, osao.reads.size());
+    }
+
+    // HELPER METHODS
+
+    // an object store that remembers the ranges that are read
+    protected static class RecordingOSAO extends LibraryOSAO {
+
+        List<long[]> reads = new ArrayList<>();
+
+        @Override
+        public InputStream readObject(String objectKey, long start, long end) {
+            reads.add(new long[] { start, end });
+            return super.readObject(objectKey, start, end);
+        }
+    }
+
+    protected byte[] store(String objectKey, byte[] content) throws IOException {
+        Files.write(new File(storeDir, objectKey).toPath(), content);
+        return content;
+    }
+
+    protected static Map<String, String> readAll(RemoteZipReader reader, Collection<RemoteZipReader.Entry> entries) throws IOException {
+        var read = new LinkedHashMap<String, String>();
+        reader.read(entries, (entry, content) -> read.put(entry.name(), new String(content.readAllBytes(), StandardCharsets.UTF_8)));
+        return read;
+    }
+
+    // make a zip archive; the first entry is stored rather than deflated if storeFirst is set (like an epub's mimetype)
+    protected static byte[] zip(Map<String, String> contents, String comment, boolean storeFirst) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var zos = new ZipOutputStream(bytes, StandardCharsets.UTF_8)) {
+            if (comment != null) {
+                zos.setComment(comment);
+            }
+            var first = true;
+            for (var content : contents.entrySet()) {
+                var data = content.getValue().getBytes(StandardCharsets.UTF_8);
+                var entry = new ZipEntry(content.getKey());
+                if (first && storeFirst) {
+                    var crc = new CRC32();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCompressedSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(entry);
+                zos.write(data);
+                zos.closeEntry();
+                first = false;
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    protected static ByteBuffer buffer(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // text that doesn't compress much, so its entry stays big
+    protected static String randomText(int length) {
+        var random = new Random(1);
+        var sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
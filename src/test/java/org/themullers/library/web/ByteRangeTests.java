@@ -0,0 +1,100 @@
+package org.themullers.library.web;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRangeTests {
+
+    @Test
+    void noHeaderMeansTheWholeThing() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-99", 1000));
+    }
+
+    @Test
+    void simpleRange() {
+        assertEquals(List.of(new ByteRange(0, 99)), ByteRange.parse("bytes=0-99", 1000));
+        assertEquals(List.of(new ByteRange(0, 99)), ByteRange.parse(" Bytes=0-99 ", 1000));
+    }
+
+    @Test
+    void openEndedRange() {
+        assertEquals(List.of(new ByteRange(900, 999)), ByteRange.parse("bytes=900-", 1000));
+    }
+
+    @Test
+    void rangePastTheEndIsTrimmed() {
+        assertEquals(List.of(new ByteRange(900, 999)), ByteRange.parse("bytes=900-5000", 1000));
+    }
+
+    @Test
+    void suffixRange() {
+        assertEquals(List.of(new ByteRange(500, 999)), ByteRange.parse("bytes=-500", 1000));
+    }
+
+    @Test
+    void suffixRangeLongerThanTheResource() {
+        assertEquals(List.of(new ByteRange(0, 999)), ByteRange.parse("bytes=-5000", 1000));
+    }
+
+    @Test
+    void overlappingRangesAreMerged() {
+        assertEquals(List.of(new ByteRange(0, 999)), ByteRange.parse("bytes=0-499,400-999", 1000));
+        assertEquals(List.of(new ByteRange(0, 499)), ByteRange.parse("bytes=100-199,0-499", 1000));
+    }
+
+    @Test
+    void nearbyRangesAreMerged() {
+        assertEquals(List.of(new ByteRange(0, 5099)), ByteRange.parse("bytes=0-99,5000-5099", 100_000));
+    }
+
+    @Test
+    void distantRangesAreSortedAndKeptApart() {
+        assertEquals(List.of(new ByteRange(0, 99), new ByteRange(50_000, 50_099)), ByteRange.parse("bytes=50000-50099,0-99", 100_000));
+    }
+
+    @Test
+    void suffixRangeMergesWithOthers() {
+        assertEquals(List.of(new ByteRange(0, 99), new ByteRange(99_500, 99_999)), ByteRange.parse("bytes=-500,0-99,99900-", 100_000));
+    }
+
+    @Test
+    void unsatisfiableRanges() {
+        assertEquals(List.of(), ByteRange.parse("bytes=1000-1099", 1000));
+        assertEquals(List.of(), ByteRange.parse("bytes=-0", 1000));
+        assertEquals(List.of(), ByteRange.parse("bytes=-100", 0));
+    }
+
+    @Test
+    void unsatisfiableRangesAreDroppedFromSatisfiableOnes() {
+        assertEquals(List.of(new ByteRange(0, 99)), ByteRange.parse("bytes=0-99,2000-2099", 1000));
+    }
+
+    @Test
+    void invalidHeadersMeanTheWholeThing() {
+        assertNull(ByteRange.parse("bytes=500-100", 1000));
+        assertNull(ByteRange.parse("bytes=abc", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=0-99,x", 1000));
+    }
+
+    @Test
+    void tooManyRangesMeanTheWholeThing() {
+        var header = new StringBuilder("bytes=");
+        for (int i = 0; i <= ByteRange.MAX_RANGES; i++) {
+            var start = i * 100_000L;
+            header.append(i == 0 ? "" : ",").append(start).append('-').append(start + 9);
+        }
+        assertNull(ByteRange.parse(header.toString(), 10_000_000));
+    }
+
+    @Test
+    void lengthAndContentRange() {
+        var range = new ByteRange(100, 199);
+        assertEquals(100, range.length());
+        assertEquals("bytes 100-199/1000", range.contentRange(1000));
+    }
+}